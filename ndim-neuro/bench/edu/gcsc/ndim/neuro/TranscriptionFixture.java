@@ -0,0 +1,65 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+
+package edu.gcsc.ndim.neuro;
+
+import java.util.List;
+
+/**
+ * Triangulated but not yet transcribed slabs of {@link MarchingCubes}.
+ * Gives the benchmarks access to the package-private transcription.
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public final class TranscriptionFixture {
+
+    private final MarchingCubes mc;
+    private final List<MarchingCubes.Slab> slabs;
+
+    /**
+     * Constructor. Triangulates the specified volume.
+     *
+     * @param mc marching cubes (threshold, spacing and offset)
+     * @param volume volume to triangulate
+     * @param nrSlabs number of Z-slabs
+     */
+    public TranscriptionFixture(MarchingCubes mc, VolumeSource volume, int nrSlabs) {
+        this.mc = mc;
+        this.slabs = mc.extractSlabs(volume, nrSlabs);
+    }
+
+    /**
+     * Stitches the slabs into a mesh (without normals).
+     *
+     * @return the mesh
+     */
+    public Mesh transcribe() {
+        return mc.transcribe(slabs);
+    }
+}
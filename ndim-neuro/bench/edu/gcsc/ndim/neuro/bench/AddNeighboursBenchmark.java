@@ -0,0 +1,163 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro.bench;
+
+import edu.gcsc.ndim.neuro.AddNeigboursProcessor;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.ndim.AddrOp;
+import org.ndim.DataContainer;
+import org.ndim.GridTopo;
+import org.ndim.MemTopo;
+import org.ndim.Stencil;
+
+/**
+ * Compares {@link AddNeigboursProcessor} with the former stencil based
+ * implementation. Usage:
+ * <pre>
+ * java edu.gcsc.ndim.neuro.bench.AddNeighboursBenchmark [size] [points] [cubeSize]
+ * </pre>
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public class AddNeighboursBenchmark {
+
+    public static void main(String[] args) {
+        final int size = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        final int nrPoints = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        final int cubeSize = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        final DataContainer cnt = new DataContainer(size, size, size);
+        cnt.createLayer(byte.class,
+                new MemTopo(cnt.gridTopo().nrEntities(), 1, false));
+        final byte[] data = ((ByteBuffer) cnt.layer(0).v2).array();
+
+        final int[] points = new int[nrPoints * 3];
+        final Random rnd = new Random(42);
+        for (int i = 0; i < points.length; i++) {
+            points[i] = rnd.nextInt(size);
+        }
+
+        final AddNeigboursProcessor processor =
+                new AddNeigboursProcessor(cubeSize);
+
+        System.out.println(">> size: " + size + "^3, points: " + nrPoints
+                + ", cube size: " + cubeSize);
+
+        for (int run = 0; run < 5; run++) {
+            java.util.Arrays.fill(data, (byte) 0);
+            long t = System.nanoTime();
+            runStencil(cnt, points, cubeSize);
+            final long stencil = System.nanoTime() - t;
+            final int checksum = checksum(data);
+
+            java.util.Arrays.fill(data, (byte) 0);
+            t = System.nanoTime();
+            runProcessor(cnt, points, processor);
+            final long spans = System.nanoTime() - t;
+
+            System.out.println(">> run " + run
+                    + ": stencil " + stencil / 1000000 + " ms"
+                    + ", spans " + spans / 1000000 + " ms"
+                    + ", identical: " + (checksum == checksum(data)));
+        }
+    }
+
+    private static void runProcessor(DataContainer cnt, int[] points,
+            AddNeigboursProcessor processor) {
+        final int[] pos = new int[3];
+        for (int i = 0; i < points.length; i += 3) {
+            pos[0] = points[i];
+            pos[1] = points[i + 1];
+            pos[2] = points[i + 2];
+            processor.process(cnt, pos);
+        }
+    }
+
+    private static void runStencil(DataContainer cnt, int[] points, int cubeSize) {
+        final int[] pos = new int[3];
+        for (int i = 0; i < points.length; i += 3) {
+            pos[0] = points[i];
+            pos[1] = points[i + 1];
+            pos[2] = points[i + 2];
+            processStencil(cnt, pos, cubeSize);
+        }
+    }
+
+    /**
+     * Former implementation of {@link AddNeigboursProcessor#process(
+     * org.ndim.DataContainer, int[]) }.
+     */
+    private static void processStencil(DataContainer cnt, int[] pos, int cubeSize) {
+        byte[] data = ((ByteBuffer) cnt.layer(0).v2).array();
+
+        GridTopo gridTopo = cnt.gridTopo();
+        MemTopo memTopo = cnt.layer(0).v1;
+        AddrOp addrOp = new AddrOp(gridTopo, memTopo);
+
+        int dim = gridTopo.nrDims();
+        int[] size = gridTopo.extent();
+
+        int stencilSize = cubeSize * 2 + 1;
+
+        Stencil st = new Stencil(stencilSize, stencilSize, stencilSize);
+        int[] index = new int[dim];
+
+        int[] values = new int[dim];
+
+        while (st.hasNext(index)) {
+
+            st.next(index);
+
+            boolean inRange = false;
+
+            for (int i = 0; i < dim; i++) {
+                values[i] = pos[i] + (index[i] - cubeSize);
+
+                inRange = values[i] > 0 && values[i] < size[i] - 1;
+
+                if (!inRange) {
+                    break;
+                }
+            }
+
+            if (inRange) {
+                data[addrOp.addr(values, 0)] = (byte) 255;
+            }
+        }
+    }
+
+    private static int checksum(byte[] data) {
+        int h = 1;
+        for (int i = 0; i < data.length; i++) {
+            h = 31 * h + data[i];
+        }
+        return h;
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro.bench;
+
+import edu.gcsc.ndim.neuro.ArrayVolumeSource;
+import edu.gcsc.ndim.neuro.MarchingCubes;
+import edu.gcsc.ndim.neuro.Mesh;
+import edu.gcsc.ndim.neuro.MeshNormals;
+import edu.gcsc.ndim.neuro.MeshSink;
+import edu.gcsc.ndim.neuro.MeshWriter;
+import edu.gcsc.ndim.neuro.TranscriptionFixture;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.ndim.DataContainer;
+import org.ndim.GridTopo;
+import org.ndim.MemTopo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of {@link MarchingCubes} and of the mesh writers on
+ * synthetic neurons (see {@link SyntheticNeurons}).
+ *
+ * <p>The vertex transcription of <code>exec</code> is measured on slabs
+ * that have been triangulated in advance (see
+ * {@link TranscriptionFixture}), for a single slab and for as many slabs
+ * as the parallel <code>exec</code> uses.</p>
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class MarchingCubesBenchmark {
+
+    // thresholds of the multi-threshold benchmarks (painted voxels are -1)
+    private static final float[] THRESHOLDS = {-0.5f, 0.0f, 0.5f};
+
+    @Param({"64", "128", "256"})
+    public int size;
+    @Param({"sparse", "dense"})
+    public String sparsity;
+    private GridTopo gridTopo;
+    private MemTopo memTopo;
+    private byte[] data;
+    private Mesh mesh;
+    private ExecutorService executor;
+    private TranscriptionFixture transcription;
+    private TranscriptionFixture transcriptionSlabs;
+    private File objFile;
+    private File vtkFile;
+
+    @Setup
+    public void setup() throws IOException {
+        final DataContainer cnt = SyntheticNeurons.rasterize(
+                SyntheticNeurons.create(size, sparsity, 42), size);
+        gridTopo = cnt.gridTopo();
+        memTopo = cnt.layer(0).v1;
+        data = ((ByteBuffer) cnt.layer(0).v2).array();
+
+        final MarchingCubes mc = new MarchingCubes(0.0f, 1, 1, 1);
+        mc.exec(gridTopo, memTopo, data);
+        mesh = mc.getMesh();
+
+        executor = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors());
+
+        transcription = new TranscriptionFixture(mc,
+                new ArrayVolumeSource(gridTopo, memTopo, data), 1);
+        transcriptionSlabs = new TranscriptionFixture(mc,
+                new ArrayVolumeSource(gridTopo, memTopo, data), mc.getNrSlabs());
+
+        objFile = File.createTempFile("mesh", ".obj");
+        vtkFile = File.createTempFile("mesh", ".vtk");
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+        objFile.delete();
+        vtkFile.delete();
+    }
+
+    @Benchmark
+    public Mesh exec() {
+        final MarchingCubes mc = new MarchingCubes(0.0f, 1, 1, 1);
+        mc.exec(gridTopo, memTopo, data);
+        return mc.getMesh();
+    }
+
+    @Benchmark
+    public Mesh execParallel() throws InterruptedException {
+        final MarchingCubes mc = new MarchingCubes(0.0f, 1, 1, 1);
+        mc.exec(gridTopo, memTopo, data, executor);
+        return mc.getMesh();
+    }
+
+    @Benchmark
+    public Mesh execFlyingEdges() {
+        final MarchingCubes mc = new MarchingCubes(0.0f, 1, 1, 1);
+        mc.exec(gridTopo, memTopo, data, MarchingCubes.Engine.FLYING_EDGES);
+        return mc.getMesh();
+    }
+
+    @Benchmark
+    public Mesh execFlyingEdgesParallel() throws InterruptedException {
+        final MarchingCubes mc = new MarchingCubes(0.0f, 1, 1, 1);
+        mc.exec(gridTopo, memTopo, data, executor, MarchingCubes.Engine.FLYING_EDGES);
+        return mc.getMesh();
+    }
+
+    @Benchmark
+    public Mesh execSurfaceNets() {
+        final MarchingCubes mc = new MarchingCubes(0.0f, 1, 1, 1);
+        mc.exec(gridTopo, memTopo, data, MarchingCubes.Engine.SURFACE_NETS);
+        return mc.getMesh();
+    }
+
+    @Benchmark
+    public long execStreaming() throws IOException {
+        final CountingSink sink = new CountingSink();
+        new MarchingCubes(0.0f, 1, 1, 1).exec(gridTopo, memTopo, data, sink);
+        return sink.count;
+    }
+
+    @Benchmark
+    public Mesh[] execThresholds() {
+        return new MarchingCubes(0.0f, 1, 1, 1).exec(gridTopo, memTopo, data, THRESHOLDS);
+    }
+
+    @Benchmark
+    public Mesh[] execThresholdsSeparately() {
+        final Mesh[] meshes = new Mesh[THRESHOLDS.length];
+        for (int i = 0; i < THRESHOLDS.length; i++) {
+            final MarchingCubes mc = new MarchingCubes(THRESHOLDS[i], 1, 1, 1);
+            mc.exec(gridTopo, memTopo, data);
+            meshes[i] = mc.getMesh();
+        }
+        return meshes;
+    }
+
+    @Benchmark
+    public Mesh transcribeVerticesAndTriangles() {
+        return transcription.transcribe();
+    }
+
+    @Benchmark
+    public Mesh transcribeVerticesAndTrianglesSlabs() {
+        return transcriptionSlabs.transcribe();
+    }
+
+    @Benchmark
+    public Mesh normals() {
+        MeshNormals.compute(mesh);
+        return mesh;
+    }
+
+    @Benchmark
+    public long writeObj() throws IOException {
+        MeshWriter.writeObj(mesh, objFile);
+        return objFile.length();
+    }
+
+    @Benchmark
+    public long writeVTK() throws IOException {
+        MeshWriter.writeVTK(mesh, vtkFile, "neuron");
+        return vtkFile.length();
+    }
+
+    /**
+     * Sink that only counts, i.e., measures the triangulation.
+     */
+    private static final class CountingSink implements MeshSink {
+
+        long count;
+
+        @Override
+        public void addVertices(float[] vertices, int nrVertices) {
+            count += nrVertices;
+        }
+
+        @Override
+        public void addTriangles(int[] triangles, int nrTriangles) {
+            count += nrTriangles;
+        }
+
+        @Override
+        public void finish() {
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro.bench;
+
+import edu.gcsc.ndim.neuro.AddNeigboursProcessor;
+import edu.gcsc.ndim.neuro.SWC2Image;
+import edu.gcsc.ndim.neuro.SWCMorphology;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.ndim.DataContainer;
+import org.ndim.MemTopo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of {@link SWC2Image#renderSWCFile(java.io.File,
+ * edu.gcsc.ndim.neuro.EntityProcessor, edu.gcsc.ndim.neuro.SizeContraint) }
+ * and of {@link AddNeigboursProcessor} on synthetic neurons (see
+ * {@link SyntheticNeurons}). The processor paints into the same container
+ * in every invocation, which costs as much as painting into an empty one.
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RenderBenchmark {
+
+    @Param({"64", "128", "256"})
+    public int size;
+    @Param({"sparse", "dense"})
+    public String sparsity;
+    @Param({"1", "3"})
+    public int cubeSize;
+    private File swcFile;
+    private DataContainer cnt;
+    private int[] positions;
+    private AddNeigboursProcessor processor;
+
+    @Setup
+    public void setup() throws IOException {
+        final SWCMorphology morphology =
+                SyntheticNeurons.create(size, sparsity, 42);
+        swcFile = SyntheticNeurons.writeTempSWC(morphology);
+
+        cnt = new DataContainer(size, size, size);
+        cnt.createLayer(byte.class,
+                new MemTopo(cnt.gridTopo().nrEntities(), 1, false));
+        positions = SyntheticNeurons.positions(morphology);
+        processor = new AddNeigboursProcessor(cubeSize);
+    }
+
+    @Benchmark
+    public DataContainer renderSWCFile() throws IOException {
+        return SWC2Image.renderSWCFile(swcFile,
+                new AddNeigboursProcessor(cubeSize), null);
+    }
+
+    @Benchmark
+    public DataContainer process() {
+        final int[] pos = new int[3];
+        for (int i = 0; i < positions.length; i += 3) {
+            pos[0] = positions[i];
+            pos[1] = positions[i + 1];
+            pos[2] = positions[i + 2];
+            processor.process(cnt, pos);
+        }
+        return cnt;
+    }
+
+    @Benchmark
+    public DataContainer processAll() {
+        processor.processAll(cnt, positions, positions.length / 3);
+        return cnt;
+    }
+}
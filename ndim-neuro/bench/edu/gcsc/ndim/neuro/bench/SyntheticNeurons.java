@@ -0,0 +1,207 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro.bench;
+
+import edu.gcsc.ndim.neuro.SWCMorphology;
+import edu.gcsc.ndim.neuro.SWCRasterizer;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Random;
+import org.ndim.DataContainer;
+import org.ndim.MemTopo;
+
+/**
+ * Synthetic neurons for the benchmarks. A neuron consists of branches
+ * that grow from the center of a cube as persistent random walks. The
+ * sparsity defines the number of branches and their radius:
+ * <ul>
+ * <li><code>sparse</code>: 8 thin branches (radius 1)</li>
+ * <li><code>medium</code>: 24 branches (radius 2)</li>
+ * <li><code>dense</code>: 64 thick branches (radius 4)</li>
+ * </ul>
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public final class SyntheticNeurons {
+
+    private SyntheticNeurons() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Creates a neuron that fits into a cube of the specified size.
+     *
+     * @param size edge length of the cube
+     * @param sparsity <code>sparse</code>, <code>medium</code> or
+     *                 <code>dense</code>
+     * @param seed random seed
+     * @return the morphology
+     */
+    public static SWCMorphology create(int size, String sparsity, long seed) {
+        final int nrBranches;
+        final float radius;
+
+        if ("sparse".equals(sparsity)) {
+            nrBranches = 8;
+            radius = 1;
+        } else if ("medium".equals(sparsity)) {
+            nrBranches = 24;
+            radius = 2;
+        } else if ("dense".equals(sparsity)) {
+            nrBranches = 64;
+            radius = 4;
+        } else {
+            throw new IllegalArgumentException(
+                    "unknown sparsity: " + sparsity);
+        }
+
+        final Random rnd = new Random(seed);
+        final SWCMorphology morphology = new SWCMorphology(nrBranches * size + 1);
+        final float center = size / 2.0f;
+        final float lo = radius + 1;
+        final float hi = size - radius - 2;
+
+        // soma
+        morphology.add(1, 1, center, center, center, 2 * radius, -1);
+        int id = 1;
+
+        for (int b = 0; b < nrBranches; b++) {
+            float x = center;
+            float y = center;
+            float z = center;
+            float dx = (float) rnd.nextGaussian();
+            float dy = (float) rnd.nextGaussian();
+            float dz = (float) rnd.nextGaussian();
+            int parent = 1;
+
+            for (int i = 0; i < size; i++) {
+                // persistent direction with some noise
+                dx = 0.8f * dx + 0.2f * (float) rnd.nextGaussian();
+                dy = 0.8f * dy + 0.2f * (float) rnd.nextGaussian();
+                dz = 0.8f * dz + 0.2f * (float) rnd.nextGaussian();
+                final float length = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+                if (length > 0) {
+                    dx /= length;
+                    dy /= length;
+                    dz /= length;
+                }
+
+                // reflect at the boundary
+                if (x + dx < lo || x + dx > hi) {
+                    dx = -dx;
+                }
+                if (y + dy < lo || y + dy > hi) {
+                    dy = -dy;
+                }
+                if (z + dz < lo || z + dz > hi) {
+                    dz = -dz;
+                }
+
+                x += dx;
+                y += dy;
+                z += dz;
+
+                id++;
+                morphology.add(id, 3, x, y, z, radius, parent);
+                parent = id;
+            }
+        }
+
+        return morphology;
+    }
+
+    /**
+     * Rasterizes the specified morphology to a container of the specified
+     * size.
+     *
+     * @param morphology morphology to rasterize
+     * @param size edge length of the container
+     * @return the container
+     */
+    public static DataContainer rasterize(SWCMorphology morphology, int size) {
+        final DataContainer cnt = new DataContainer(size, size, size);
+        cnt.createLayer(byte.class,
+                new MemTopo(cnt.gridTopo().nrEntities(), 1, false));
+
+        final SWCRasterizer rasterizer = new SWCRasterizer(cnt.gridTopo(),
+                cnt.layer(0).v1, ((ByteBuffer) cnt.layer(0).v2).array());
+        rasterizer.rasterize(morphology);
+
+        return cnt;
+    }
+
+    /**
+     * Returns the voxels of the samples of the specified morphology as
+     * packed positions (x,y,z triples).
+     *
+     * @param morphology morphology
+     * @return the packed positions
+     */
+    public static int[] positions(SWCMorphology morphology) {
+        final int[] result = new int[3 * morphology.size()];
+        for (int i = 0; i < morphology.size(); i++) {
+            result[3 * i] = Math.round(morphology.x(i));
+            result[3 * i + 1] = Math.round(morphology.y(i));
+            result[3 * i + 2] = Math.round(morphology.z(i));
+        }
+        return result;
+    }
+
+    /**
+     * Writes the specified morphology to a temporary SWC file that is
+     * deleted on exit.
+     *
+     * @param morphology morphology to write
+     * @return the file
+     * @throws IOException if the file cannot be written
+     */
+    public static File writeTempSWC(SWCMorphology morphology) throws IOException {
+        final File f = File.createTempFile("neuron", ".swc");
+        f.deleteOnExit();
+
+        final Writer out = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+        try {
+            for (int i = 0; i < morphology.size(); i++) {
+                out.write(String.format(Locale.US, "%d %d %.3f %.3f %.3f %.3f %d%n",
+                        morphology.id(i), morphology.type(i),
+                        morphology.x(i), morphology.y(i), morphology.z(i),
+                        morphology.radius(i), morphology.parent(i)));
+            }
+        } finally {
+            out.close();
+        }
+
+        return f;
+    }
+}
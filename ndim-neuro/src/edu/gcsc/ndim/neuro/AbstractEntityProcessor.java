@@ -35,7 +35,7 @@ import org.ndim.DataContainer;
  * for custom implementations of the processor interface.
  * @author Michael Hoffer <info@michaelhoffer.de>
  */
-public class AbstractEntityProcessor implements EntityProcessor{
+public class AbstractEntityProcessor implements BatchEntityProcessor{
     
     EntityProcessor input;
 
@@ -46,6 +46,62 @@ public class AbstractEntityProcessor implements EntityProcessor{
         }
     }
 
+    /**
+     * Processes the specified entities by calling
+     * {@link #process(org.ndim.DataContainer, int[]) } for each entity.
+     * Processors that can do better should override this method and call
+     * {@link #processAllInput(org.ndim.DataContainer, int[], int) } first.
+     */
+    @Override
+    public void processAll(DataContainer cnt, int[] packedPositions, int count) {
+        final int dim = cnt.gridTopo().nrDims();
+        final int[] pos = new int[dim];
+
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(packedPositions, i * dim, pos, 0, dim);
+            process(cnt, pos);
+        }
+    }
+
+    /**
+     * Lets the input processor (if any) process the specified entities.
+     * @param cnt data container
+     * @param packedPositions positions of the entities
+     * @param count number of entities
+     */
+    protected void processAllInput(DataContainer cnt, int[] packedPositions, int count) {
+        if (input!=null) {
+            processAll(input, cnt, packedPositions, count);
+        }
+    }
+
+    /**
+     * Lets the specified processor process the specified entities, i.e.,
+     * calls {@link BatchEntityProcessor#processAll(org.ndim.DataContainer, int[], int) }
+     * if supported and
+     * {@link EntityProcessor#process(org.ndim.DataContainer, int[]) } for
+     * each entity otherwise.
+     * @param p processor
+     * @param cnt data container
+     * @param packedPositions positions of the entities
+     * @param count number of entities
+     */
+    static void processAll(EntityProcessor p, DataContainer cnt,
+            int[] packedPositions, int count) {
+        if (p instanceof BatchEntityProcessor) {
+            ((BatchEntityProcessor) p).processAll(cnt, packedPositions, count);
+            return;
+        }
+
+        final int dim = cnt.gridTopo().nrDims();
+        final int[] pos = new int[dim];
+
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(packedPositions, i * dim, pos, 0, dim);
+            p.process(cnt, pos);
+        }
+    }
+
     @Override
     public void setInput(EntityProcessor input) {
         this.input = input;
@@ -29,7 +29,11 @@
 package edu.gcsc.ndim.neuro;
 
 import java.nio.ByteBuffer;
-import org.ndim.*;
+import java.util.Arrays;
+import org.ndim.AddrOp;
+import org.ndim.DataContainer;
+import org.ndim.GridTopo;
+import org.ndim.MemTopo;
 
 
 /**
@@ -37,9 +41,13 @@ import org.ndim.*;
  * each voxel.
  * @author Michael Hoffer <info@michaelhoffer.de>
  */
-public class AddNeigboursProcessor extends AbstractEntityProcessor {
+public class AddNeigboursProcessor extends AbstractEntityProcessor
+        implements SlabEntityProcessor, SparseEntityProcessor {
+
+    private static final int PACKING_BIAS = 1 << 20;
 
     private int cubeSize;
+    private volatile Geometry geometry;
 
     /**
      * Constructor.
@@ -55,50 +63,198 @@ public class AddNeigboursProcessor extends AbstractEntityProcessor {
         
         super.process(cnt, pos);
 
-        byte[] data = validateInput(cnt);
+        paint(geometry(cnt), pos[0], pos[1], pos[2],
+                Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Paints the cubes of all specified voxels. The addressing is set up
+     * once and the voxels are painted in memory order.
+     */
+    @Override
+    public void processAll(DataContainer cnt, int[] packedPositions, int count) {
+
+        processAllInput(cnt, packedPositions, count);
+
+        final Geometry g = geometry(cnt);
+
+        // sort by z, y, x (21 bit each) for cache locality
+        final long[] keys = new long[count];
+
+        for (int i = 0; i < count; i++) {
+            final int x = packedPositions[i * 3];
+            final int y = packedPositions[i * 3 + 1];
+            final int z = packedPositions[i * 3 + 2];
+
+            if (!inPackingRange(x) || !inPackingRange(y) || !inPackingRange(z)) {
+                // cannot be packed, paint unsorted
+                for (int j = 0; j < count; j++) {
+                    paint(g, packedPositions[j * 3],
+                            packedPositions[j * 3 + 1],
+                            packedPositions[j * 3 + 2],
+                            Integer.MIN_VALUE, Integer.MAX_VALUE);
+                }
+                return;
+            }
+
+            keys[i] = ((long) (z + PACKING_BIAS) << 42)
+                    | ((long) (y + PACKING_BIAS) << 21)
+                    | (x + PACKING_BIAS);
+        }
+
+        Arrays.sort(keys);
+
+        final int mask = (1 << 21) - 1;
 
-        GridTopo gridTopo = cnt.gridTopo();
-        MemTopo memTopo = cnt.layer(0).v1;
-        AddrOp addrOp = new AddrOp(gridTopo, memTopo);
+        for (int i = 0; i < count; i++) {
+            final long key = keys[i];
+            paint(g,
+                    (int) (key & mask) - PACKING_BIAS,
+                    (int) ((key >>> 21) & mask) - PACKING_BIAS,
+                    (int) (key >>> 42) - PACKING_BIAS,
+                    Integer.MIN_VALUE, Integer.MAX_VALUE);
+        }
+    }
 
-        int dim = gridTopo.nrDims();
-        int[] size = gridTopo.extent();
+    @Override
+    public int getHalo() {
+        int halo = cubeSize;
 
-        int stencilSize = cubeSize * 2 + 1;
+        if (getInput() instanceof SlabEntityProcessor) {
+            halo = Math.max(halo, ((SlabEntityProcessor) getInput()).getHalo());
+        }
 
-        // include neigbour voxel
-        Stencil st = new Stencil(stencilSize, stencilSize, stencilSize);
-        int[] index = new int[dim];
+        return halo;
+    }
 
-        int[] values = new int[dim];
+    @Override
+    public void processSlab(DataContainer cnt, int[] packedPositions,
+            int offset, int count, int minZ, int maxZ) {
+
+        if (getInput() != null) {
+            if (!(getInput() instanceof SlabEntityProcessor)) {
+                throw new IllegalStateException(
+                        "input processor does not support slabs!");
+            }
 
-        while (st.hasNext(index)) {
+            ((SlabEntityProcessor) getInput()).processSlab(
+                    cnt, packedPositions, offset, count, minZ, maxZ);
+        }
+
+        final Geometry g = geometry(cnt);
+
+        for (int i = offset; i < offset + count; i++) {
+            paint(g, packedPositions[i * 3],
+                    packedPositions[i * 3 + 1],
+                    packedPositions[i * 3 + 2],
+                    minZ, maxZ);
+        }
+    }
+
+    @Override
+    public void processAll(BrickedVolume volume, int[] packedPositions, int count) {
+
+        if (getInput() != null) {
+            if (!(getInput() instanceof SparseEntityProcessor)) {
+                throw new IllegalStateException(
+                        "input processor does not support sparse volumes!");
+            }
 
-            st.next(index);
+            ((SparseEntityProcessor) getInput()).processAll(
+                    volume, packedPositions, count);
+        }
 
-            boolean inRange = false;
+        final int[] size = volume.extent();
+        final byte value = (byte) 255;
 
-            for (int i = 0; i < dim; i++) {
-                values[i] = pos[i] + (index[i] - cubeSize);
+        for (int i = 0; i < count; i++) {
+            final int px = packedPositions[i * 3];
+            final int py = packedPositions[i * 3 + 1];
+            final int pz = packedPositions[i * 3 + 2];
 
-                inRange = values[i] > 0 && values[i] < size[i] - 1;
+            // clip the cube once, borders stay free
+            final int minX = Math.max(px - cubeSize, 1);
+            final int maxX = Math.min(px + cubeSize, size[0] - 2);
+            final int minY = Math.max(py - cubeSize, 1);
+            final int maxY = Math.min(py + cubeSize, size[1] - 2);
+            final int minZ = Math.max(pz - cubeSize, 1);
+            final int maxZ = Math.min(pz + cubeSize, size[2] - 2);
 
-                if (!inRange) {
-                    break;
+            for (int z = minZ; z <= maxZ; z++) {
+                for (int y = minY; y <= maxY; y++) {
+                    volume.fillRow(minX, maxX + 1, y, z, value);
                 }
             }
+        }
+    }
+
+    private static boolean inPackingRange(int v) {
+        return v >= -PACKING_BIAS && v < PACKING_BIAS;
+    }
+
+    /**
+     * Paints the cube around the specified voxel.
+     *
+     * @param g addressing of the container
+     * @param px x coordinate of the voxel
+     * @param py y coordinate of the voxel
+     * @param pz z coordinate of the voxel
+     * @param slabMinZ first z coordinate that may be written
+     * @param slabMaxZ last z coordinate that may be written
+     */
+    private void paint(Geometry g, int px, int py, int pz,
+            int slabMinZ, int slabMaxZ) {
 
-            if (inRange) {
-                int nIdx = addrOp.addr(values, 0);
-                
-//                int nIdx = gridTopo.addr(values)
-//                        * memTopo.tupleIncr() + memTopo.elementIncr(0);
+        // clip the cube once, borders stay free
+        final int minX = Math.max(px - cubeSize, 1);
+        final int maxX = Math.min(px + cubeSize, g.sizeX - 2);
+        final int minY = Math.max(py - cubeSize, 1);
+        final int maxY = Math.min(py + cubeSize, g.sizeY - 2);
+        final int minZ = Math.max(Math.max(pz - cubeSize, 1), slabMinZ);
+        final int maxZ = Math.min(Math.min(pz + cubeSize, g.sizeZ - 2), slabMaxZ);
 
-                data[nIdx] = (byte) 255;
+        if (minX > maxX) {
+            return;
+        }
+
+        final byte[] data = g.data;
+        final byte value = (byte) 255;
+
+        for (int z = minZ; z <= maxZ; z++) {
+            for (int y = minY; y <= maxY; y++) {
+                final int rowAddr = g.origin + y * g.incrY + z * g.incrZ;
+
+                if (g.incrX == 1) {
+                    Arrays.fill(data, rowAddr + minX, rowAddr + maxX + 1, value);
+                } else {
+                    for (int x = minX; x <= maxX; x++) {
+                        data[rowAddr + x * g.incrX] = value;
+                    }
+                }
             }
         }
     }
 
+    /**
+     * Returns the addressing of the specified container. It is only
+     * recomputed if the container changes.
+     *
+     * @param cnt container
+     * @return the addressing of the specified container
+     */
+    private Geometry geometry(DataContainer cnt) {
+        Geometry g = geometry;
+
+        if (g == null || g.cnt != cnt
+                || g.memTopo != cnt.layer(0).v1
+                || g.buffer != cnt.layer(0).v2) {
+            g = new Geometry(cnt, validateInput(cnt));
+            geometry = g;
+        }
+
+        return g;
+    }
+
     private byte[] validateInput(final DataContainer cnt) {
         if (cnt.nrLayers() < 1) {
             throw new IllegalArgumentException(
@@ -122,4 +278,47 @@ public class AddNeigboursProcessor extends AbstractEntityProcessor {
 
         return data;
     }
+
+    /**
+     * Addressing of a data container.
+     */
+    private static final class Geometry {
+
+        final DataContainer cnt;
+        final MemTopo memTopo;
+        final Object buffer;
+        final byte[] data;
+        final int origin;
+        final int incrX;
+        final int incrY;
+        final int incrZ;
+        final int sizeX;
+        final int sizeY;
+        final int sizeZ;
+
+        Geometry(DataContainer cnt, byte[] data) {
+            final GridTopo gridTopo = cnt.gridTopo();
+
+            if (gridTopo.nrDims() != 3) {
+                throw new IllegalArgumentException(
+                        "only 3D grids are supported!");
+            }
+
+            this.cnt = cnt;
+            this.memTopo = cnt.layer(0).v1;
+            this.buffer = cnt.layer(0).v2;
+            this.data = data;
+
+            final AddrOp addrOp = new AddrOp(gridTopo, memTopo);
+            final int[] size = gridTopo.extent();
+
+            origin = addrOp.addr(new int[3], 0);
+            incrX = addrOp.incr(GridTopo.X);
+            incrY = addrOp.incr(GridTopo.Y);
+            incrZ = addrOp.incr(GridTopo.Z);
+            sizeX = size[GridTopo.X];
+            sizeY = size[GridTopo.Y];
+            sizeZ = size[GridTopo.Z];
+        }
+    }
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+import org.ndim.AddrOp;
+import org.ndim.GridTopo;
+import org.ndim.MemTopo;
+
+/**
+ * Volume source that reads from a byte array, e.g., the layer of a
+ * data container.
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public class ArrayVolumeSource implements VolumeSource {
+
+    private final int[] extent;
+    private final byte[] data;
+    private final int origin;
+    private final int incrX;
+    private final int incrY;
+    private final int incrZ;
+
+    /**
+     * Constructor.
+     *
+     * @param gridTopo grid topology of the volume
+     * @param memTopo memory topology of the volume
+     * @param data samples of the volume
+     */
+    public ArrayVolumeSource(GridTopo gridTopo, MemTopo memTopo, byte[] data) {
+        if (gridTopo.nrDims() != 3) {
+            throw new IllegalArgumentException(
+                    "only 3D grids are supported!");
+        }
+
+        this.extent = gridTopo.extent();
+        this.data = data;
+
+        final AddrOp op = new AddrOp(gridTopo, memTopo);
+        origin = op.addr(new int[gridTopo.nrDims()], 0);
+        incrX = op.incr(GridTopo.X);
+        incrY = op.incr(GridTopo.Y);
+        incrZ = op.incr(GridTopo.Z);
+    }
+
+    @Override
+    public int[] extent() {
+        return extent.clone();
+    }
+
+    @Override
+    public void readPlane(int z, byte[] dst) {
+        final int nx = extent[GridTopo.X];
+        final int ny = extent[GridTopo.Y];
+        final int addr = origin + z * incrZ;
+
+        if (incrX == 1 && incrY == nx) {
+            System.arraycopy(data, addr, dst, 0, nx * ny);
+            return;
+        }
+
+        for (int y = 0; y < ny; y++) {
+            for (int x = 0; x < nx; x++) {
+                dst[x + y * nx] = data[addr + x * incrX + y * incrY];
+            }
+        }
+    }
+}
@@ -0,0 +1,532 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import org.ndim.DataContainer;
+
+/**
+ * Converts many SWC files to TIFF stacks and OBJ meshes concurrently.
+ * Each file is converted by a single thread of a bounded pool. Before a
+ * file is rendered its memory consumption is estimated from the bounding
+ * box of the morphology and reserved from a memory budget, i.e., large
+ * files wait until enough memory is available instead of causing an
+ * {@link OutOfMemoryError}. Files whose outputs are newer than the input
+ * are skipped.
+ *
+ * <p>Outputs are named after the input, e.g., <code>cell.swc</code> is
+ * converted to <code>cell.tif</code> and <code>cell.obj</code> in the
+ * output directory.</p>
+ *
+ * <p>Meshes are streamed to the OBJ file while they are triangulated, so
+ * the mesh does not count against the memory budget. Streamed meshes have
+ * no vertex normals (<code>vn</code> lines). This differs from the single
+ * file mode of {@link NdimNeuro}, which keeps the mesh in memory and
+ * writes normals unless <code>--stream-mesh</code> is specified.</p>
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public class BatchConverter {
+
+    /**
+     * Conversion status of a file.
+     */
+    public static enum Status {
+
+        CONVERTED, SKIPPED, FAILED
+    }
+    private final File outputDir;
+    private int nrThreads = Runtime.getRuntime().availableProcessors();
+    private long memoryBudget = Runtime.getRuntime().maxMemory() / 4 * 3;
+    private int cubeSize;
+    private float[] spacing = {1, 1, 1};
+    private boolean rasterizeSegments;
+    private TiffWriter.Compression compression = TiffWriter.Compression.NONE;
+    private boolean writeTiff = true;
+    private boolean writeMesh = true;
+
+    /**
+     * Constructor.
+     *
+     * @param outputDir directory the outputs are written to
+     */
+    public BatchConverter(File outputDir) {
+        this.outputDir = outputDir;
+    }
+
+    /**
+     * Defines the number of files that are converted concurrently
+     * (default is the number of processors).
+     * @param nrThreads number of threads
+     */
+    public void setNrThreads(int nrThreads) {
+        if (nrThreads < 1) {
+            throw new IllegalArgumentException(
+                    "at least one thread is required!");
+        }
+        this.nrThreads = nrThreads;
+    }
+
+    /**
+     * Defines the memory that may be used by concurrent conversions
+     * (default is 75% of the maximum heap size). Files whose estimate
+     * exceeds the budget fail.
+     * @param bytes memory budget in bytes
+     */
+    public void setMemoryBudget(long bytes) {
+        this.memoryBudget = bytes;
+    }
+
+    /**
+     * Defines the cube size of the {@link AddNeigboursProcessor} (default
+     * is <code>0</code>, i.e., no neighbours are added).
+     * @param cubeSize cube size
+     */
+    public void setCubeSize(int cubeSize) {
+        this.cubeSize = cubeSize;
+    }
+
+    /**
+     * Defines the voxel spacing (see {@link RenderConfig#setSpacing(
+     * float, float, float) }).
+     * @param sx spacing in x direction
+     * @param sy spacing in y direction
+     * @param sz spacing in z direction
+     */
+    public void setSpacing(float sx, float sy, float sz) {
+        // validates the spacing
+        new RenderConfig().setSpacing(sx, sy, sz);
+        this.spacing = new float[]{sx, sy, sz};
+    }
+
+    /**
+     * Defines whether segments are rasterized as truncated cones (see
+     * {@link RenderConfig#setRasterizeSegments(boolean) }).
+     * @param rasterizeSegments defines whether to rasterize segments
+     */
+    public void setRasterizeSegments(boolean rasterizeSegments) {
+        this.rasterizeSegments = rasterizeSegments;
+    }
+
+    /**
+     * Defines the compression of the TIFF files.
+     * @param compression compression of the image data
+     */
+    public void setCompression(TiffWriter.Compression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Defines whether to write TIFF files (default is <code>true</code>).
+     * @param writeTiff defines whether to write TIFF files
+     */
+    public void setWriteTiff(boolean writeTiff) {
+        this.writeTiff = writeTiff;
+    }
+
+    /**
+     * Defines whether to write OBJ meshes (default is <code>true</code>).
+     * @param writeMesh defines whether to write OBJ meshes
+     */
+    public void setWriteMesh(boolean writeMesh) {
+        this.writeMesh = writeMesh;
+    }
+
+    /**
+     * Returns the SWC files to convert. If the specified file is a
+     * directory, all SWC files of the directory are returned. Otherwise it
+     * is read as manifest with one SWC file per line. Relative paths are
+     * resolved against the directory of the manifest, empty lines and
+     * lines starting with <code>#</code> are ignored.
+     *
+     * @param input directory or manifest
+     * @return the SWC files to convert
+     * @throws IOException if the manifest cannot be read
+     */
+    public static List<File> collectInputs(File input) throws IOException {
+        final List<File> result = new ArrayList<File>();
+
+        if (input.isDirectory()) {
+            final File[] files = input.listFiles(new FileFilter() {
+                @Override
+                public boolean accept(File f) {
+                    return f.isFile()
+                            && f.getName().toLowerCase(Locale.US).endsWith(".swc");
+                }
+            });
+
+            if (files == null) {
+                throw new IOException("cannot list directory: " + input);
+            }
+
+            Arrays.sort(files);
+            result.addAll(Arrays.asList(files));
+            return result;
+        }
+
+        final BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(input), "UTF-8"));
+
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                File f = new File(line);
+                if (!f.isAbsolute()) {
+                    f = new File(input.getAbsoluteFile().getParentFile(), line);
+                }
+                result.add(f);
+            }
+        } finally {
+            reader.close();
+        }
+
+        return result;
+    }
+
+    /**
+     * Converts the specified files.
+     *
+     * @param inputs SWC files to convert
+     * @return the results in the order of the inputs
+     * @throws InterruptedException if interrupted while waiting for the
+     *         conversions
+     */
+    public List<Result> convert(List<File> inputs) throws InterruptedException {
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IllegalArgumentException(
+                    "cannot create output directory: " + outputDir);
+        }
+
+        // permits are megabytes
+        final int budget = (int) Math.min(Integer.MAX_VALUE, memoryBudget >> 20);
+        final Semaphore memory = new Semaphore(budget, true);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+        final List<Future<Result>> futures = new ArrayList<Future<Result>>();
+
+        try {
+            for (final File f : inputs) {
+                futures.add(executor.submit(new Callable<Result>() {
+                    @Override
+                    public Result call() throws InterruptedException {
+                        return convert(f, memory, budget);
+                    }
+                }));
+            }
+
+            final List<Result> results = new ArrayList<Result>(inputs.size());
+            for (Future<Result> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) ex.getCause();
+                    }
+                    throw new IllegalStateException(ex.getCause());
+                }
+            }
+
+            return results;
+        } finally {
+            for (Future<Result> future : futures) {
+                future.cancel(true);
+            }
+            executor.shutdown();
+        }
+    }
+
+    private Result convert(File f, Semaphore memory, int budget)
+            throws InterruptedException {
+        final long start = System.currentTimeMillis();
+        final String name = f.getName().replaceFirst("(?i)\\.swc$", "");
+        final File tiff = new File(outputDir, name + ".tif");
+        final File obj = new File(outputDir, name + ".obj");
+
+        if (isUpToDate(f, tiff, obj)) {
+            return new Result(f, Status.SKIPPED, 0, 0, "up to date");
+        }
+
+        // outputs are renamed when complete, i.e., an aborted conversion
+        // is never mistaken for an up to date one
+        final File partTiff = new File(outputDir, tiff.getName() + ".part");
+        final File partObj = new File(outputDir, obj.getName() + ".part");
+        long estimate = 0;
+
+        try {
+            final SWCMorphology morphology = SWCMorphology.read(f);
+
+            final RenderConfig config = new RenderConfig();
+            config.setSpacing(spacing[0], spacing[1], spacing[2]);
+            config.setRasterizeSegments(rasterizeSegments);
+
+            estimate = estimateMemory(morphology, config);
+            final int permits = (int) Math.max(1, (estimate + (1 << 20) - 1) >> 20);
+
+            if (permits > budget) {
+                return new Result(f, Status.FAILED,
+                        System.currentTimeMillis() - start, estimate,
+                        "exceeds memory budget");
+            }
+
+            memory.acquire(permits);
+            try {
+                final DataContainer cnt = SWC2Image.renderSWC(morphology,
+                        cubeSize > 0 ? new AddNeigboursProcessor(cubeSize) : null,
+                        null, null, config);
+
+                if (writeTiff) {
+                    SWC2Image.container2Tiff(cnt, partTiff, compression, null);
+                }
+
+                if (writeMesh) {
+                    final MarchingCubes mc = new MarchingCubes(0.0f, 1, 1, 1);
+                    config.apply(mc);
+
+                    final OutputStream out = new FileOutputStream(partObj);
+                    try {
+                        mc.exec(cnt.gridTopo(), cnt.layer(0).v1,
+                                ((ByteBuffer) cnt.layer(0).v2).array(),
+                                new ObjMeshSink(out));
+                    } finally {
+                        out.close();
+                    }
+                }
+            } finally {
+                memory.release(permits);
+            }
+
+            if (writeTiff) {
+                rename(partTiff, tiff);
+            }
+            if (writeMesh) {
+                rename(partObj, obj);
+            }
+        } catch (IOException ex) {
+            return new Result(f, Status.FAILED,
+                    System.currentTimeMillis() - start, estimate, ex.getMessage());
+        } catch (RuntimeException ex) {
+            return new Result(f, Status.FAILED,
+                    System.currentTimeMillis() - start, estimate, ex.toString());
+        } finally {
+            partTiff.delete();
+            partObj.delete();
+        }
+
+        return new Result(f, Status.CONVERTED,
+                System.currentTimeMillis() - start, estimate, "");
+    }
+
+    private static void rename(File from, File to) throws IOException {
+        to.delete();
+        if (!from.renameTo(to)) {
+            throw new IOException("cannot rename " + from + " to " + to);
+        }
+    }
+
+    private boolean isUpToDate(File input, File tiff, File obj) {
+        final long modified = input.lastModified();
+
+        return (!writeTiff || (tiff.isFile() && tiff.lastModified() >= modified))
+                && (!writeMesh || (obj.isFile() && obj.lastModified() >= modified));
+    }
+
+    /**
+     * Estimates the memory that is necessary to convert the specified
+     * morphology, i.e., the container, the voxel hash set, the voxel
+     * positions, the sort keys and the plane buffers of the TIFF writer and
+     * of marching cubes.
+     *
+     * @param morphology morphology to convert
+     * @param config render configuration
+     * @return the estimated memory consumption (bytes)
+     */
+    public static long estimateMemory(SWCMorphology morphology, RenderConfig config) {
+        final float[] spacing = config.getSpacing();
+        final float[] origin = config.getOrigin();
+        final boolean segments = config.isRasterizeSegments();
+        final float minRadius = SWCRasterizer.minRadius(
+                spacing[0], spacing[1], spacing[2]);
+
+        // same bounding box as SWC2Image, i.e., including the voxel of the
+        // origin (and the cones plus a border of one voxel)
+        final long[] min = new long[3];
+        final long[] max = new long[3];
+
+        for (int i = 0; i < morphology.size(); i++) {
+            final float[] p = {morphology.x(i), morphology.y(i), morphology.z(i)};
+            final float r = segments
+                    ? Math.max(morphology.radius(i), minRadius) : 0;
+            for (int d = 0; d < 3; d++) {
+                final float v =
+                        (p[d] - (origin != null ? origin[d] : 0)) / spacing[d];
+                if (segments) {
+                    min[d] = Math.min(min[d],
+                            (long) Math.floor(v - r / spacing[d]) - 1);
+                    max[d] = Math.max(max[d],
+                            (long) Math.ceil(v + r / spacing[d]) + 1);
+                } else {
+                    min[d] = Math.min(min[d], Math.round(v));
+                    max[d] = Math.max(max[d], Math.round(v));
+                }
+            }
+        }
+
+        final long planeSize = (max[0] - min[0] + 1) * (max[1] - min[1] + 1);
+        final long nrVoxels = planeSize * (max[2] - min[2] + 1);
+
+        // the morphology itself has already been loaded, rendering
+        // allocates the hash set of the distinct voxels, their positions
+        // (3 ints) and the sort keys of the neighbour processor (1 long)
+        final int nrSamples = morphology.size();
+        final long hashSet = 8L * VoxelHashSet.capacity(nrSamples);
+
+        return nrVoxels + hashSet + 12L * nrSamples + 8L * nrSamples
+                + 24L * planeSize;
+    }
+
+    /**
+     * Prints a summary of the specified results.
+     *
+     * @param results results to print
+     * @param out stream to print to
+     */
+    public static void printSummary(List<Result> results, PrintStream out) {
+        int converted = 0;
+        int skipped = 0;
+        int failed = 0;
+        long millis = 0;
+
+        out.println("# file,status,time [ms],estimated memory [MB],message");
+
+        for (Result r : results) {
+            // paths and exception messages may contain commas
+            out.println(quote(r.getInput().getPath()) + "," + r.getStatus()
+                    + "," + r.getMillis() + "," + (r.getEstimatedMemory() >> 20)
+                    + "," + quote(r.getMessage()));
+
+            switch (r.getStatus()) {
+                case CONVERTED:
+                    converted++;
+                    break;
+                case SKIPPED:
+                    skipped++;
+                    break;
+                default:
+                    failed++;
+            }
+            millis += r.getMillis();
+        }
+
+        // sum of the wall clock times per file (including the waits for the
+        // memory budget), i.e., not the cpu time
+        out.println("# converted: " + converted + ", skipped: " + skipped
+                + ", failed: " + failed + ", total file time: " + millis + " ms");
+    }
+
+    /**
+     * Quotes the specified CSV field, i.e., encloses it in double quotes and
+     * doubles the quotes it contains.
+     */
+    private static String quote(String field) {
+        return "\"" + (field != null ? field.replace("\"", "\"\"") : "") + "\"";
+    }
+
+    /**
+     * Conversion result of a single file.
+     */
+    public static final class Result {
+
+        private final File input;
+        private final Status status;
+        private final long millis;
+        private final long estimatedMemory;
+        private final String message;
+
+        private Result(File input, Status status, long millis,
+                long estimatedMemory, String message) {
+            this.input = input;
+            this.status = status;
+            this.millis = millis;
+            this.estimatedMemory = estimatedMemory;
+            this.message = message;
+        }
+
+        public File getInput() {
+            return input;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * Returns the conversion time (including waiting for memory).
+         * @return the conversion time in milliseconds
+         */
+        public long getMillis() {
+            return millis;
+        }
+
+        /**
+         * Returns the estimated memory consumption.
+         * @return the estimated memory consumption (bytes)
+         */
+        public long getEstimatedMemory() {
+            return estimatedMemory;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+}
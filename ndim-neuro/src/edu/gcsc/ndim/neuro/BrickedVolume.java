@@ -0,0 +1,434 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.ndim.AddrOp;
+import org.ndim.DataContainer;
+import org.ndim.GridTopo;
+import org.ndim.MemTopo;
+
+/**
+ * Sparse byte volume. The volume is divided into cubic bricks that are
+ * allocated on first write. Voxels of missing bricks are <code>0</code>.
+ * Bricks are stored in a hash map, i.e., memory only depends on the
+ * number of non-empty bricks and not on the extent of the volume.
+ *
+ * <p>Reading and writing from different threads is supported. Existing
+ * bricks are looked up without locking, only the allocation of bricks is
+ * synchronized. Concurrent writes to the same voxel are not
+ * synchronized.</p>
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public class BrickedVolume implements VolumeSource {
+
+    /**
+     * Default brick size.
+     */
+    public static final int DEFAULT_BRICK_SIZE = 16;
+
+    private static final long EMPTY = -1;
+
+    private final int[] extent;
+    private final int brickSize;
+    private final int brickShift;
+    private final int brickMask;
+    private final long nrBricksX;
+    private final long nrBricksY;
+
+    // open addressing hash map brick key -> brick, replaced (and thus
+    // republished) when it grows
+    private volatile Table table;
+    private int nrBricks;
+
+    /**
+     * Constructor.
+     *
+     * @param sizeX size in x direction
+     * @param sizeY size in y direction
+     * @param sizeZ size in z direction
+     */
+    public BrickedVolume(int sizeX, int sizeY, int sizeZ) {
+        this(sizeX, sizeY, sizeZ, DEFAULT_BRICK_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param sizeX size in x direction
+     * @param sizeY size in y direction
+     * @param sizeZ size in z direction
+     * @param brickSize edge length of the bricks (power of two)
+     */
+    public BrickedVolume(int sizeX, int sizeY, int sizeZ, int brickSize) {
+        if (sizeX < 1 || sizeY < 1 || sizeZ < 1) {
+            throw new IllegalArgumentException(
+                    "invalid size: " + sizeX + ", " + sizeY + ", " + sizeZ);
+        }
+
+        if (brickSize < 1 || brickSize > 256
+                || Integer.bitCount(brickSize) != 1) {
+            throw new IllegalArgumentException(
+                    "brick size must be a power of two <= 256!");
+        }
+
+        this.extent = new int[]{sizeX, sizeY, sizeZ};
+        this.brickSize = brickSize;
+        this.brickShift = Integer.numberOfTrailingZeros(brickSize);
+        this.brickMask = brickSize - 1;
+        this.nrBricksX = (sizeX + brickMask) >> brickShift;
+        this.nrBricksY = (sizeY + brickMask) >> brickShift;
+
+        table = new Table(64);
+    }
+
+    @Override
+    public int[] extent() {
+        return extent.clone();
+    }
+
+    /**
+     * Returns the brick size.
+     * @return the brick size
+     */
+    public int brickSize() {
+        return brickSize;
+    }
+
+    /**
+     * Returns the number of allocated bricks.
+     * @return the number of allocated bricks
+     */
+    public synchronized int nrBricks() {
+        return nrBricks;
+    }
+
+    /**
+     * Returns the value of the specified voxel.
+     *
+     * @param x x coordinate
+     * @param y y coordinate
+     * @param z z coordinate
+     * @return the value of the specified voxel
+     */
+    public byte get(int x, int y, int z) {
+        checkRange(x, y, z);
+
+        final byte[] brick = brick(x >> brickShift, y >> brickShift,
+                z >> brickShift, false);
+
+        return brick == null ? 0 : brick[index(x, y, z)];
+    }
+
+    /**
+     * Defines the value of the specified voxel.
+     *
+     * @param x x coordinate
+     * @param y y coordinate
+     * @param z z coordinate
+     * @param value value to set
+     */
+    public void set(int x, int y, int z, byte value) {
+        checkRange(x, y, z);
+
+        final byte[] brick = brick(x >> brickShift, y >> brickShift,
+                z >> brickShift, value != 0);
+
+        if (brick != null) {
+            brick[index(x, y, z)] = value;
+        }
+    }
+
+    /**
+     * Fills the voxels <code>[fromX, toX)</code> of the specified row.
+     * Each brick is only looked up once.
+     *
+     * @param fromX first x coordinate (inclusive)
+     * @param toX last x coordinate (exclusive)
+     * @param y y coordinate
+     * @param z z coordinate
+     * @param value value to set
+     */
+    public void fillRow(int fromX, int toX, int y, int z, byte value) {
+        if (fromX >= toX) {
+            return;
+        }
+
+        checkRange(fromX, y, z);
+        checkRange(toX - 1, y, z);
+
+        final int rowOffset = ((z & brickMask) * brickSize
+                + (y & brickMask)) * brickSize;
+
+        for (int x = fromX; x < toX;) {
+            final int end = Math.min(toX, ((x >> brickShift) + 1) << brickShift);
+
+            final byte[] brick = brick(x >> brickShift, y >> brickShift,
+                    z >> brickShift, value != 0);
+
+            if (brick != null) {
+                Arrays.fill(brick, rowOffset + (x & brickMask),
+                        rowOffset + ((end - 1) & brickMask) + 1, value);
+            }
+
+            x = end;
+        }
+    }
+
+    @Override
+    public void readPlane(int z, byte[] dst) {
+        final int nx = extent[0];
+        final int ny = extent[1];
+
+        Arrays.fill(dst, 0, nx * ny, (byte) 0);
+
+        final int bz = z >> brickShift;
+        final int planeOffset = (z & brickMask) * brickSize * brickSize;
+
+        for (int by = 0; by < nrBricksY; by++) {
+            final int y0 = by << brickShift;
+            final int rows = Math.min(brickSize, ny - y0);
+
+            for (int bx = 0; bx < nrBricksX; bx++) {
+                final byte[] brick = brick(bx, by, bz, false);
+
+                if (brick == null) {
+                    continue;
+                }
+
+                final int x0 = bx << brickShift;
+                final int columns = Math.min(brickSize, nx - x0);
+
+                for (int ly = 0; ly < rows; ly++) {
+                    System.arraycopy(brick, planeOffset + ly * brickSize,
+                            dst, (y0 + ly) * nx + x0, columns);
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts this volume to a dense data container with one byte layer,
+     * e.g., to write it with a codec.
+     *
+     * @return a dense copy of this volume
+     * @throws IllegalStateException if the volume is too large for a
+     *         dense container
+     */
+    public DataContainer toDataContainer() {
+        final long nrVoxels = (long) extent[0] * extent[1] * extent[2];
+
+        if (nrVoxels > Integer.MAX_VALUE) {
+            throw new IllegalStateException(
+                    "volume too large for a dense container: "
+                    + extent[0] + ", " + extent[1] + ", " + extent[2]);
+        }
+
+        final DataContainer cnt =
+                new DataContainer(extent[0], extent[1], extent[2]);
+
+        cnt.createLayer(byte.class,
+                new MemTopo(cnt.gridTopo().nrEntities(), 1, false));
+
+        final ByteBuffer buffer = (ByteBuffer) cnt.layer(0).v2;
+
+        if (!buffer.hasArray()) {
+            throw new IllegalArgumentException(
+                    "ByteBuffer of layer 0 does not contain an array!");
+        }
+
+        final byte[] data = buffer.array();
+        final AddrOp addrOp = new AddrOp(cnt.gridTopo(), cnt.layer(0).v1);
+        final int origin = addrOp.addr(new int[3], 0);
+        final int incrX = addrOp.incr(GridTopo.X);
+        final int incrY = addrOp.incr(GridTopo.Y);
+        final int incrZ = addrOp.incr(GridTopo.Z);
+
+        synchronized (this) {
+            final long[] keys = table.keys;
+            final byte[][] bricks = table.bricks;
+
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == EMPTY) {
+                    continue;
+                }
+
+                final byte[] brick = bricks[i];
+                final int bx = (int) (keys[i] % nrBricksX);
+                final int by = (int) ((keys[i] / nrBricksX) % nrBricksY);
+                final int bz = (int) (keys[i] / nrBricksX / nrBricksY);
+
+                final int x0 = bx << brickShift;
+                final int y0 = by << brickShift;
+                final int z0 = bz << brickShift;
+                final int columns = Math.min(brickSize, extent[0] - x0);
+                final int rows = Math.min(brickSize, extent[1] - y0);
+                final int layers = Math.min(brickSize, extent[2] - z0);
+
+                for (int lz = 0; lz < layers; lz++) {
+                    for (int ly = 0; ly < rows; ly++) {
+                        final int src = (lz * brickSize + ly) * brickSize;
+                        final int dst = origin + x0 * incrX
+                                + (y0 + ly) * incrY + (z0 + lz) * incrZ;
+
+                        if (incrX == 1) {
+                            System.arraycopy(brick, src, data, dst, columns);
+                        } else {
+                            for (int lx = 0; lx < columns; lx++) {
+                                data[dst + lx * incrX] = brick[src + lx];
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        return cnt;
+    }
+
+    private int index(int x, int y, int z) {
+        return ((z & brickMask) * brickSize + (y & brickMask)) * brickSize
+                + (x & brickMask);
+    }
+
+    private void checkRange(int x, int y, int z) {
+        if (x < 0 || y < 0 || z < 0
+                || x >= extent[0] || y >= extent[1] || z >= extent[2]) {
+            throw new IndexOutOfBoundsException(
+                    "voxel out of range: " + x + ", " + y + ", " + z);
+        }
+    }
+
+    /**
+     * Returns the specified brick. Existing bricks are looked up without
+     * locking.
+     *
+     * @param bx brick index in x direction
+     * @param by brick index in y direction
+     * @param bz brick index in z direction
+     * @param create defines whether to allocate missing bricks
+     * @return the brick or <code>null</code> if it does not exist and
+     *         <code>create</code> is <code>false</code>
+     */
+    private byte[] brick(int bx, int by, int bz, boolean create) {
+        final long key = bx + nrBricksX * (by + nrBricksY * bz);
+        final Table t = table;
+        final int i = t.find(key);
+
+        if (t.keys[i] == key) {
+            final byte[] brick = t.bricks[i];
+            // the brick may not be visible yet if it is being created
+            if (brick != null) {
+                return brick;
+            }
+        } else if (!create) {
+            return null;
+        }
+
+        return brickLocked(key, create);
+    }
+
+    /**
+     * Looks up the specified brick while holding the lock, i.e., checks
+     * again before creating it.
+     */
+    private synchronized byte[] brickLocked(long key, boolean create) {
+        final Table t = table;
+        final int i = t.find(key);
+
+        if (t.keys[i] == key) {
+            return t.bricks[i];
+        }
+
+        if (!create) {
+            return null;
+        }
+
+        final byte[] brick = new byte[brickSize * brickSize * brickSize];
+        t.bricks[i] = brick;
+        t.keys[i] = key;
+        nrBricks++;
+
+        if (2 * nrBricks > t.keys.length) {
+            rehash();
+        }
+
+        return brick;
+    }
+
+    private void rehash() {
+        final Table oldTable = table;
+        final Table newTable = new Table(oldTable.keys.length * 2);
+
+        for (int j = 0; j < oldTable.keys.length; j++) {
+            if (oldTable.keys[j] == EMPTY) {
+                continue;
+            }
+
+            final int i = newTable.find(oldTable.keys[j]);
+            newTable.keys[i] = oldTable.keys[j];
+            newTable.bricks[i] = oldTable.bricks[j];
+        }
+
+        // publishes the filled table to the lock-free readers
+        table = newTable;
+    }
+
+    /**
+     * Open addressing hash table of the bricks.
+     */
+    private static final class Table {
+
+        final long[] keys;
+        final byte[][] bricks;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            bricks = new byte[capacity][];
+            Arrays.fill(keys, EMPTY);
+        }
+
+        /**
+         * Returns the slot of the specified key or the empty slot where
+         * it would be inserted.
+         */
+        int find(long key) {
+            final int mask = keys.length - 1;
+
+            int i = VoxelHashSet.hash(key) & mask;
+            while (keys[i] != EMPTY && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+
+            return i;
+        }
+    }
+}
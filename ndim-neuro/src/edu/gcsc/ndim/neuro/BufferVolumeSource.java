@@ -0,0 +1,173 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import org.ndim.GridTopo;
+
+/**
+ * Volume source that reads from one or more byte buffers, e.g., direct or
+ * memory-mapped buffers. Samples are stored densely with X running
+ * fastest. Each buffer contains a whole number of consecutive planes, so
+ * the volume may be larger than a single buffer (2 GB).
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public class BufferVolumeSource implements VolumeSource {
+
+    private final int[] extent;
+    private final ByteBuffer[] chunks;
+    // Index of the first plane of each chunk.
+    private final int[] firstPlane;
+
+    /**
+     * Constructor.
+     *
+     * @param nx extent in X direction
+     * @param ny extent in Y direction
+     * @param nz extent in Z direction
+     * @param chunks non-empty buffers that contain the planes of the
+     *               volume in ascending order, starting at their position
+     */
+    public BufferVolumeSource(int nx, int ny, int nz, ByteBuffer... chunks) {
+        final long planeSize = (long) nx * ny;
+
+        if (nx < 0 || ny < 0 || nz < 0) {
+            throw new IllegalArgumentException(
+                    "negative sizes not allowed!");
+        }
+
+        if (planeSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    "planes must not exceed 2^31 samples!");
+        }
+
+        this.extent = new int[]{nx, ny, nz};
+        this.chunks = new ByteBuffer[chunks.length];
+        this.firstPlane = new int[chunks.length];
+
+        int nrPlanes = 0;
+        for (int i = 0; i < chunks.length; i++) {
+            this.chunks[i] = chunks[i].slice();
+            firstPlane[i] = nrPlanes;
+
+            if (planeSize > 0) {
+                // empty chunks would share their first plane with the next
+                // chunk, i.e., the plane lookup could select them
+                if (this.chunks[i].capacity() == 0) {
+                    throw new IllegalArgumentException(
+                            "chunk " + i + " is empty!");
+                }
+                if (this.chunks[i].capacity() % planeSize != 0) {
+                    throw new IllegalArgumentException(
+                            "chunk " + i + " does not contain whole planes!");
+                }
+                nrPlanes += (int) (this.chunks[i].capacity() / planeSize);
+            }
+        }
+
+        if (planeSize > 0 && nrPlanes < nz) {
+            throw new IllegalArgumentException(
+                    "chunks contain " + nrPlanes + " planes, "
+                    + nz + " planes required!");
+        }
+    }
+
+    /**
+     * Maps a raw volume file into memory. The file is mapped in chunks of
+     * whole planes, hence it may be larger than 2 GB.
+     *
+     * @param f file to map
+     * @param offset offset of the first sample in the file, e.g., the size
+     *               of a header
+     * @param nx extent in X direction
+     * @param ny extent in Y direction
+     * @param nz extent in Z direction
+     * @return the volume source
+     * @throws IOException if the file cannot be mapped
+     */
+    public static BufferVolumeSource map(
+            File f, long offset, int nx, int ny, int nz) throws IOException {
+        final long planeSize = Math.max(1, (long) nx * ny);
+        final int planesPerChunk = (int) Math.max(1, Integer.MAX_VALUE / planeSize);
+        final int nrChunks = (nz + planesPerChunk - 1) / planesPerChunk;
+
+        final ByteBuffer[] chunks = new ByteBuffer[nrChunks];
+
+        RandomAccessFile file = null;
+
+        try {
+            file = new RandomAccessFile(f, "r");
+            final FileChannel channel = file.getChannel();
+
+            if (channel.size() < offset + planeSize * nz) {
+                throw new IOException("file too small for volume: " + f);
+            }
+
+            for (int i = 0; i < nrChunks; i++) {
+                final int nrPlanes = Math.min(planesPerChunk, nz - i * planesPerChunk);
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        offset + (long) i * planesPerChunk * planeSize,
+                        nrPlanes * planeSize);
+            }
+        } finally {
+            // mappings stay valid after the channel has been closed
+            if (file != null) {
+                file.close();
+            }
+        }
+
+        return new BufferVolumeSource(nx, ny, nz, chunks);
+    }
+
+    @Override
+    public int[] extent() {
+        return extent.clone();
+    }
+
+    @Override
+    public void readPlane(int z, byte[] dst) {
+        final int planeSize = extent[GridTopo.X] * extent[GridTopo.Y];
+
+        int chunk = Arrays.binarySearch(firstPlane, z);
+        if (chunk < 0) {
+            chunk = -chunk - 2;
+        }
+
+        // work on a duplicate to support concurrent reads
+        final ByteBuffer buffer = chunks[chunk].duplicate();
+        buffer.position((z - firstPlane[chunk]) * planeSize);
+        buffer.get(dst, 0, planeSize);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+/**
+ * Row-at-a-time cell classification for {@link MarchingCubes}. Each plane
+ * of samples is classified once into a bit mask (one bit per sample, set
+ * if the sample is below the threshold, 64 samples per word). The cube
+ * case indices of a row of cells are then derived word by word from the
+ * masks of two adjacent rows in the lower and in the upper plane. Words
+ * of cells whose corners are all inside or all outside are skipped at
+ * once, i.e., only active cells are visited.
+ *
+ * <p>The classification of a sample is a table lookup, hence it is
+ * branch-free and exactly matches <code>sample &lt; threshold</code> for
+ * every threshold.</p>
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+final class CellClassifier {
+
+    private final int nx;
+    private final int ny;
+    private final int wordsPerRow;
+    // 1 if the (signed) sample is below the threshold, indexed by the
+    // unsigned sample
+    private final long[] inside = new long[256];
+    // mask of the valid cells of the last word of a row
+    private final long lastWordMask;
+
+    /**
+     * Constructor.
+     *
+     * @param nx number of samples in X direction
+     * @param ny number of samples in Y direction
+     * @param threshold isosurface threshold
+     */
+    CellClassifier(int nx, int ny, float threshold) {
+        this.nx = nx;
+        this.ny = ny;
+        this.wordsPerRow = (nx + 63) >>> 6;
+
+        for (int s = 0; s < 256; s++) {
+            inside[s] = (byte) s < threshold ? 1 : 0;
+        }
+
+        // cells 0 .. nx - 2
+        final int nrCellsLastWord = (nx - 1) - ((wordsPerRow - 1) << 6);
+        lastWordMask = nrCellsLastWord >= 64
+                ? -1L : (1L << Math.max(0, nrCellsLastWord)) - 1;
+    }
+
+    /**
+     * Returns the number of mask words per row of samples.
+     * @return the number of words per row
+     */
+    int wordsPerRow() {
+        return wordsPerRow;
+    }
+
+    /**
+     * Returns the mask of the valid cells (X edges) of the specified word
+     * of a row.
+     * @param w index of the word within the row
+     * @return the mask of the valid cells
+     */
+    long cellMask(int w) {
+        return w == wordsPerRow - 1 ? lastWordMask : -1L;
+    }
+
+    /**
+     * Returns a new (empty) mask for one plane.
+     * @return a new mask
+     */
+    long[] newMask() {
+        return new long[ny * wordsPerRow];
+    }
+
+    /**
+     * Classifies the samples of the specified plane.
+     *
+     * @param plane samples of the plane, X running fastest
+     * @param mask destination mask
+     */
+    void classify(byte[] plane, long[] mask) {
+        for (int y = 0; y < ny; y++) {
+            final int rowStart = y * nx;
+            final int maskStart = y * wordsPerRow;
+
+            for (int w = 0; w < wordsPerRow; w++) {
+                final int x0 = w << 6;
+                final int x1 = Math.min(nx, x0 + 64);
+                long bits = 0;
+
+                for (int x = x0; x < x1; x++) {
+                    bits |= inside[plane[rowStart + x] & 0xFF] << (x - x0);
+                }
+
+                mask[maskStart + w] = bits;
+            }
+        }
+    }
+
+    /**
+     * Computes the active cells of the specified row of cells, i.e.,
+     * cells whose corners are neither all inside nor all outside, in
+     * ascending X order.
+     *
+     * @param lower mask of the lower plane of the cell layer
+     * @param upper mask of the upper plane of the cell layer
+     * @param y Y coordinate of the row of cells
+     * @param cellX receives the X coordinates of the active cells
+     *              (length at least <code>nx - 1</code>)
+     * @param cellCase receives the cube case indices of the active cells
+     * @return the number of active cells
+     */
+    int activeCells(long[] lower, long[] upper, int y,
+            int[] cellX, int[] cellCase) {
+        final int row0 = y * wordsPerRow;
+        final int row1 = row0 + wordsPerRow;
+        int count = 0;
+
+        for (int w = 0; w < wordsPerRow; w++) {
+            final boolean last = w == wordsPerRow - 1;
+
+            // corners (x, y), (x, y + 1) of the lower and upper plane
+            final long a = lower[row0 + w];
+            final long b = lower[row1 + w];
+            final long c = upper[row0 + w];
+            final long d = upper[row1 + w];
+
+            // corners (x + 1, ...), i.e., the masks shifted by one sample
+            final long an = (a >>> 1) | (last ? 0 : lower[row0 + w + 1] << 63);
+            final long bn = (b >>> 1) | (last ? 0 : lower[row1 + w + 1] << 63);
+            final long cn = (c >>> 1) | (last ? 0 : upper[row0 + w + 1] << 63);
+            final long dn = (d >>> 1) | (last ? 0 : upper[row1 + w + 1] << 63);
+
+            final long any = a | b | c | d | an | bn | cn | dn;
+            final long all = a & b & c & d & an & bn & cn & dn;
+            long active = (any & ~all) & (last ? lastWordMask : -1L);
+
+            while (active != 0) {
+                final int bit = Long.numberOfTrailingZeros(active);
+                active &= active - 1;
+
+                // corner order of MarchingCubes.cornerOffsets
+                cellX[count] = (w << 6) + bit;
+                cellCase[count] = (int) ((a >>> bit) & 1)
+                        | (int) ((b >>> bit) & 1) << 1
+                        | (int) ((bn >>> bit) & 1) << 2
+                        | (int) ((an >>> bit) & 1) << 3
+                        | (int) ((c >>> bit) & 1) << 4
+                        | (int) ((d >>> bit) & 1) << 5
+                        | (int) ((dn >>> bit) & 1) << 6
+                        | (int) ((cn >>> bit) & 1) << 7;
+                count++;
+            }
+        }
+
+        return count;
+    }
+}
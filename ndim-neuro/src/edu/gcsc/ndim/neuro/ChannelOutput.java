@@ -0,0 +1,267 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Locale;
+
+/**
+ * Buffered output to a byte channel. Provides fast ASCII encoding of
+ * numbers (without <code>java.util.Formatter</code>) and binary output in
+ * a configurable byte order, including bulk transfers from buffers.
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public class ChannelOutput {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    // Values with a larger magnitude are formatted with java.util.Formatter.
+    private static final double MAX_FAST_FLOAT = 1e12;
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    // Scratch space for digits, filled from the end.
+    private final byte[] digits = new byte[20];
+
+    /**
+     * Constructor.
+     *
+     * @param channel channel to write to
+     */
+    public ChannelOutput(WritableByteChannel channel) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    /**
+     * Defines the byte order of binary output.
+     * @param order byte order
+     * @return this output
+     */
+    public ChannelOutput order(ByteOrder order) {
+        buffer.order(order);
+        return this;
+    }
+
+    private void ensureRemaining(int n) throws IOException {
+        if (buffer.remaining() < n) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the buffered content to the channel. The channel is not closed.
+     * @throws IOException if writing fails
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Writes the specified string (ASCII characters only).
+     * @param s string to write
+     * @return this output
+     * @throws IOException if writing fails
+     */
+    public ChannelOutput ascii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            ensureRemaining(1);
+            buffer.put((byte) s.charAt(i));
+        }
+        return this;
+    }
+
+    /**
+     * Writes the specified character (ASCII only).
+     * @param c character to write
+     * @return this output
+     * @throws IOException if writing fails
+     */
+    public ChannelOutput ascii(char c) throws IOException {
+        ensureRemaining(1);
+        buffer.put((byte) c);
+        return this;
+    }
+
+    /**
+     * Writes the decimal representation of the specified integer.
+     * @param v value to write
+     * @return this output
+     * @throws IOException if writing fails
+     */
+    public ChannelOutput ascii(long v) throws IOException {
+        if (v == Long.MIN_VALUE) {
+            return ascii(Long.toString(v));
+        }
+
+        ensureRemaining(digits.length + 1);
+
+        if (v < 0) {
+            buffer.put((byte) '-');
+            v = -v;
+        }
+
+        int i = digits.length;
+        do {
+            digits[--i] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+
+        buffer.put(digits, i, digits.length - i);
+        return this;
+    }
+
+    /**
+     * Writes the specified value with six decimal places, i.e., as
+     * <code>"%f"</code> would format it.
+     * @param v value to write
+     * @return this output
+     * @throws IOException if writing fails
+     */
+    public ChannelOutput ascii(float v) throws IOException {
+        final double d = v;
+
+        if (Double.isNaN(d) || Math.abs(d) >= MAX_FAST_FLOAT) {
+            return ascii(String.format(Locale.US, "%f", d));
+        }
+
+        final long scaled = Math.round(Math.abs(d) * 1e6);
+
+        if (d < 0 || (d == 0 && 1 / d < 0)) {
+            ascii('-');
+        }
+
+        ascii(scaled / 1000000);
+        ensureRemaining(7);
+        buffer.put((byte) '.');
+        long fraction = scaled % 1000000;
+        for (int i = 6; i > 0; i--) {
+            digits[i] = (byte) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+        buffer.put(digits, 1, 6);
+        return this;
+    }
+
+    /**
+     * Writes the specified byte.
+     * @param v value to write
+     * @return this output
+     * @throws IOException if writing fails
+     */
+    public ChannelOutput put(byte v) throws IOException {
+        ensureRemaining(1);
+        buffer.put(v);
+        return this;
+    }
+
+    /**
+     * Writes the specified short in binary form.
+     * @param v value to write
+     * @return this output
+     * @throws IOException if writing fails
+     */
+    public ChannelOutput putShort(short v) throws IOException {
+        ensureRemaining(2);
+        buffer.putShort(v);
+        return this;
+    }
+
+    /**
+     * Writes the specified integer in binary form.
+     * @param v value to write
+     * @return this output
+     * @throws IOException if writing fails
+     */
+    public ChannelOutput putInt(int v) throws IOException {
+        ensureRemaining(4);
+        buffer.putInt(v);
+        return this;
+    }
+
+    /**
+     * Writes the specified float in binary form.
+     * @param v value to write
+     * @return this output
+     * @throws IOException if writing fails
+     */
+    public ChannelOutput putFloat(float v) throws IOException {
+        ensureRemaining(4);
+        buffer.putFloat(v);
+        return this;
+    }
+
+    /**
+     * Writes the remaining floats of the specified buffer in binary form.
+     * @param src values to write
+     * @return this output
+     * @throws IOException if writing fails
+     */
+    public ChannelOutput putFloats(FloatBuffer src) throws IOException {
+        src = src.slice();
+        while (src.hasRemaining()) {
+            ensureRemaining(4);
+            final int n = Math.min(src.remaining(), buffer.remaining() / 4);
+            final FloatBuffer chunk = src.duplicate();
+            chunk.limit(chunk.position() + n);
+            buffer.asFloatBuffer().put(chunk);
+            buffer.position(buffer.position() + 4 * n);
+            src.position(src.position() + n);
+        }
+        return this;
+    }
+
+    /**
+     * Writes the remaining integers of the specified buffer in binary form.
+     * @param src values to write
+     * @return this output
+     * @throws IOException if writing fails
+     */
+    public ChannelOutput putInts(IntBuffer src) throws IOException {
+        src = src.slice();
+        while (src.hasRemaining()) {
+            ensureRemaining(4);
+            final int n = Math.min(src.remaining(), buffer.remaining() / 4);
+            final IntBuffer chunk = src.duplicate();
+            chunk.limit(chunk.position() + n);
+            buffer.asIntBuffer().put(chunk);
+            buffer.position(buffer.position() + 4 * n);
+            src.position(src.position() + n);
+        }
+        return this;
+    }
+}
@@ -0,0 +1,502 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.ndim.AddrOp;
+import org.ndim.GridTopo;
+import org.ndim.MemTopo;
+
+/**
+ * Flying edges isosurface extraction. Produces the same surface as
+ * {@link MarchingCubes} (same vertex positions, same triangles in the same
+ * order) but numbers the vertices row by row, so the size of the output
+ * is known before any vertex is created. The extraction runs in four
+ * passes over the rows of samples (X running fastest):
+ * <ol>
+ * <li>classify the samples of each plane into bit masks (see
+ * {@link CellClassifier}) and count the intersected X edges of each
+ * row,</li>
+ * <li>count the intersected Y and Z edges of each row and the triangles
+ * of each row of cells,</li>
+ * <li>prefix sum the counts, i.e., assign the first vertex and the first
+ * triangle of each row,</li>
+ * <li>compute the vertices and triangles directly into the preallocated
+ * buffers of the mesh.</li>
+ * </ol>
+ * Passes 1, 2 and 4 run in parallel over ranges of Z planes. Each task
+ * writes disjoint parts of the per-row arrays and of the mesh, hence no
+ * synchronization is involved apart from the barriers between the passes.
+ *
+ * <p>Edges and cells are found word by word in the masks, 64 samples at a
+ * time, i.e., uniform parts of the volume are skipped at once. Vertex ids
+ * are derived from counters (one per row and edge direction) that are
+ * advanced by the intersected left edges of each active cell.</p>
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+final class FlyingEdges {
+
+    // The edges of a row of cells are numbered by counters: the X edges of
+    // the four sample rows (y + 2 * z), the Y edges of the rows at y
+    // (4 + z) and the Z edges of the rows at z (6 + y).
+    private static final int NR_COUNTERS = 8;
+    // counter of each cell edge
+    private static final int[] edgeCounter = new int[12];
+    // 1 if the edge lies on the right (x + 1) face of the cell
+    private static final int[] edgeRight = new int[12];
+    // bit c is set if the left edge of counter c is intersected
+    private static final int[] caseCounters = new int[256];
+    private static final int[] triangleCount = new int[256];
+
+    static {
+        final int[][] counterCorners = new int[NR_COUNTERS][];
+        for (int i = 0; i < 12; i++) {
+            final int oy = MarchingCubes.edgeOffsetY[i];
+            final int oz = MarchingCubes.edgeOffsetZ[i];
+            final int axis = MarchingCubes.edgeAxis[i];
+            if (axis == GridTopo.X) {
+                edgeCounter[i] = oy + 2 * oz;
+            } else if (axis == GridTopo.Y) {
+                edgeCounter[i] = 4 + oz;
+            } else {
+                edgeCounter[i] = 6 + oy;
+            }
+            edgeRight[i] = MarchingCubes.edgeOffsetX[i];
+            if (edgeRight[i] == 0) {
+                counterCorners[edgeCounter[i]] = MarchingCubes.edgeCorners[i];
+            }
+        }
+
+        for (int c = 0; c < 256; c++) {
+            for (int k = 0; k < NR_COUNTERS; k++) {
+                caseCounters[c] |= (((c >> counterCorners[k][0])
+                        ^ (c >> counterCorners[k][1])) & 1) << k;
+            }
+            while (MarchingCubes.triangleLUT[c][3 * triangleCount[c]] != -1) {
+                triangleCount[c]++;
+            }
+        }
+    }
+    private final float threshold;
+    private final float[] h;
+    private final float[] offs;
+    private final boolean directBuffers;
+    // samples of the volume
+    private byte[] data;
+    private ArrayVolumeSource source;
+    private int origin;
+    private int incrX;
+    private int incrY;
+    private int incrZ;
+    private int nx;
+    private int ny;
+    private int nz;
+    private CellClassifier classifier;
+    private int wordsPerRow;
+    // classification of each plane
+    private long[][] masks;
+    // per row (y + ny * z): number of intersected X, Y and Z edges and
+    // number of triangles of the row of cells (y, z)
+    private int[] nrX;
+    private int[] nrY;
+    private int[] nrZ;
+    private int[] nrTriangles;
+    // per row: first vertex and first triangle
+    private int[] firstVertex;
+    private int[] firstTriangle;
+    private Mesh mesh;
+
+    /**
+     * Constructor.
+     *
+     * @param threshold isosurface threshold
+     * @param h cell length in x, y and z direction
+     * @param offs offset to add to the vertices
+     * @param directBuffers defines whether the mesh is allocated outside
+     *                      of the heap
+     */
+    FlyingEdges(float threshold, float[] h, float[] offs, boolean directBuffers) {
+        this.threshold = threshold;
+        this.h = h.clone();
+        this.offs = offs.clone();
+        this.directBuffers = directBuffers;
+    }
+
+    /**
+     * Extracts the isosurface of the specified volume. Normals are not
+     * computed.
+     *
+     * @param gridTopo grid topology of the volume
+     * @param memTopo memory topology of the volume
+     * @param data samples of the volume
+     * @param executor executor that runs the passes, <code>null</code> to
+     *                 run them on the calling thread
+     * @param nrTasks number of tasks per pass
+     * @return the isosurface
+     * @throws InterruptedException if interrupted while waiting
+     */
+    Mesh exec(GridTopo gridTopo, MemTopo memTopo, byte[] data,
+            ExecutorService executor, int nrTasks) throws InterruptedException {
+        source = new ArrayVolumeSource(gridTopo, memTopo, data);
+
+        final int[] extent = gridTopo.extent();
+        nx = extent[GridTopo.X];
+        ny = extent[GridTopo.Y];
+        nz = extent[GridTopo.Z];
+        if (nx < 2 || ny < 2 || nz < 2) {
+            // no cells
+            source = null;
+            return new Mesh(0, 0, directBuffers);
+        }
+
+        this.data = data;
+        final AddrOp op = new AddrOp(gridTopo, memTopo);
+        origin = op.addr(new int[3], 0);
+        incrX = op.incr(GridTopo.X);
+        incrY = op.incr(GridTopo.Y);
+        incrZ = op.incr(GridTopo.Z);
+
+        classifier = new CellClassifier(nx, ny, threshold);
+        wordsPerRow = classifier.wordsPerRow();
+        masks = new long[nz][];
+
+        final int nrRows = ny * nz;
+        nrX = new int[nrRows];
+        nrY = new int[nrRows];
+        nrZ = new int[nrRows];
+        nrTriangles = new int[nrRows];
+        firstVertex = new int[nrRows];
+        firstTriangle = new int[nrRows];
+
+        nrTasks = Math.max(1, Math.min(nrTasks, nz));
+
+        // pass 1
+        run(executor, nrTasks, new Pass() {
+
+            @Override
+            public void run(int z0, int z1) {
+                classifyPlanes(z0, z1);
+            }
+        });
+
+        // pass 2
+        run(executor, nrTasks, new Pass() {
+
+            @Override
+            public void run(int z0, int z1) {
+                countRows(z0, z1);
+            }
+        });
+
+        // pass 3
+        int nrVertices = 0;
+        int nrTris = 0;
+        for (int r = 0; r < nrRows; r++) {
+            firstVertex[r] = nrVertices;
+            firstTriangle[r] = nrTris;
+            nrVertices += nrX[r] + nrY[r] + nrZ[r];
+            nrTris += nrTriangles[r];
+        }
+        mesh = new Mesh(nrVertices, nrTris, directBuffers);
+
+        // pass 4
+        run(executor, nrTasks, new Pass() {
+
+            @Override
+            public void run(int z0, int z1) {
+                fillRows(z0, z1);
+            }
+        });
+
+        final Mesh result = mesh;
+        release();
+        return result;
+    }
+
+    // Drops the references to the volume and to the intermediate arrays.
+    private void release() {
+        data = null;
+        source = null;
+        classifier = null;
+        masks = null;
+        nrX = null;
+        nrY = null;
+        nrZ = null;
+        nrTriangles = null;
+        firstVertex = null;
+        firstTriangle = null;
+        mesh = null;
+    }
+
+    /**
+     * Work of one pass on the rows of a range of Z planes.
+     */
+    private interface Pass {
+
+        void run(int z0, int z1);
+    }
+
+    // Runs the pass on nrTasks ranges of Z planes and waits for all of them.
+    private void run(ExecutorService executor, int nrTasks,
+            final Pass pass) throws InterruptedException {
+        if (executor == null) {
+            pass.run(0, nz);
+            return;
+        }
+
+        final List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(nrTasks);
+        for (int i = 0; i < nrTasks; i++) {
+            final int z0 = (int) ((long) i * nz / nrTasks);
+            final int z1 = (int) ((long) (i + 1) * nz / nrTasks);
+            tasks.add(new Callable<Object>() {
+
+                @Override
+                public Object call() {
+                    pass.run(z0, z1);
+                    return null;
+                }
+            });
+        }
+
+        for (Future<Object> f : executor.invokeAll(tasks)) {
+            try {
+                f.get();
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                }
+                throw new IllegalStateException(ex.getCause());
+            }
+        }
+    }
+
+    // Intersected X edges of word w of the row starting at mask word row.
+    private long xEdges(long[] mask, int row, int w) {
+        final long a = mask[row + w];
+        final long next = w < wordsPerRow - 1 ? mask[row + w + 1] << 63 : 0;
+        return (a ^ ((a >>> 1) | next)) & classifier.cellMask(w);
+    }
+
+    // Pass 1: classifies the planes and counts the intersected X edges of
+    // each row.
+    private void classifyPlanes(int z0, int z1) {
+        final byte[] plane = new byte[nx * ny];
+        for (int z = z0; z < z1; z++) {
+            source.readPlane(z, plane);
+            final long[] mask = classifier.newMask();
+            classifier.classify(plane, mask);
+            masks[z] = mask;
+
+            for (int y = 0; y < ny; y++) {
+                final int row = y * wordsPerRow;
+                int n = 0;
+                for (int w = 0; w < wordsPerRow; w++) {
+                    n += Long.bitCount(xEdges(mask, row, w));
+                }
+                nrX[y + ny * z] = n;
+            }
+        }
+    }
+
+    // Number of samples that are classified differently in the row
+    // starting at word rowA of maskA and in the row starting at word rowB
+    // of maskB, i.e., the number of intersected edges between the rows.
+    private int countPair(long[] maskA, int rowA, long[] maskB, int rowB) {
+        int n = 0;
+        for (int w = 0; w < wordsPerRow; w++) {
+            n += Long.bitCount(maskA[rowA + w] ^ maskB[rowB + w]);
+        }
+        return n;
+    }
+
+    // Pass 2: counts the intersected Y and Z edges of each row and the
+    // triangles of each row of cells.
+    private void countRows(int z0, int z1) {
+        final int[] cellX = new int[nx - 1];
+        final int[] cellCase = new int[nx - 1];
+
+        for (int z = z0; z < z1; z++) {
+            final long[] mask = masks[z];
+            final long[] upper = z < nz - 1 ? masks[z + 1] : null;
+
+            for (int y = 0; y < ny; y++) {
+                final int r = y + ny * z;
+                final int row = y * wordsPerRow;
+                nrY[r] = y < ny - 1 ? countPair(mask, row, mask, row + wordsPerRow) : 0;
+                nrZ[r] = upper != null ? countPair(mask, row, upper, row) : 0;
+
+                if (y == ny - 1 || upper == null) {
+                    continue;
+                }
+
+                final int nrActive = classifier.activeCells(mask, upper, y, cellX, cellCase);
+                int n = 0;
+                for (int i = 0; i < nrActive; i++) {
+                    n += triangleCount[cellCase[i]];
+                }
+                nrTriangles[r] = n;
+            }
+        }
+    }
+
+    // Pass 4: computes the vertices of each row and the triangles of each
+    // row of cells.
+    private void fillRows(int z0, int z1) {
+        final FloatBuffer vertices = mesh.vertices();
+        final IntBuffer triangles = mesh.triangles();
+        final int[] cellX = new int[nx - 1];
+        final int[] cellCase = new int[nx - 1];
+        final int[] counters = new int[NR_COUNTERS];
+        final int[] vertexID = new int[12];
+
+        for (int z = z0; z < z1; z++) {
+            final long[] mask = masks[z];
+            final long[] upper = z < nz - 1 ? masks[z + 1] : null;
+
+            for (int y = 0; y < ny; y++) {
+                final int r = y + ny * z;
+                final int row = y * wordsPerRow;
+                final int addr = origin + y * incrY + z * incrZ;
+                int id = firstVertex[r];
+
+                // X edges
+                for (int w = 0; w < wordsPerRow; w++) {
+                    long edges = xEdges(mask, row, w);
+                    while (edges != 0) {
+                        final int x = (w << 6) + Long.numberOfTrailingZeros(edges);
+                        edges &= edges - 1;
+                        final int i = addr + x * incrX;
+                        addVertex(vertices, id++, x, y, z, GridTopo.X, data[i], data[i + incrX]);
+                    }
+                }
+
+                // Y edges
+                if (y < ny - 1) {
+                    for (int w = 0; w < wordsPerRow; w++) {
+                        long edges = mask[row + w] ^ mask[row + wordsPerRow + w];
+                        while (edges != 0) {
+                            final int x = (w << 6) + Long.numberOfTrailingZeros(edges);
+                            edges &= edges - 1;
+                            final int i = addr + x * incrX;
+                            addVertex(vertices, id++, x, y, z, GridTopo.Y, data[i], data[i + incrY]);
+                        }
+                    }
+                }
+
+                // Z edges
+                if (upper != null) {
+                    for (int w = 0; w < wordsPerRow; w++) {
+                        long edges = mask[row + w] ^ upper[row + w];
+                        while (edges != 0) {
+                            final int x = (w << 6) + Long.numberOfTrailingZeros(edges);
+                            edges &= edges - 1;
+                            final int i = addr + x * incrX;
+                            addVertex(vertices, id++, x, y, z, GridTopo.Z, data[i], data[i + incrZ]);
+                        }
+                    }
+                }
+
+                if (y < ny - 1 && upper != null) {
+                    final int nrActive = classifier.activeCells(mask, upper, y, cellX, cellCase);
+                    fillTriangles(r, nrActive, cellX, cellCase, triangles, counters, vertexID);
+                }
+            }
+        }
+    }
+
+    // Triangulates the active cells of the row of cells r. An intersected
+    // left edge always belongs to an active cell, hence the counters only
+    // have to be advanced at active cells.
+    private void fillTriangles(int r, int nrActive, int[] cellX, int[] cellCase,
+            IntBuffer triangles, int[] counters, int[] vertexID) {
+        final int r1 = r + 1;
+        final int r2 = r + ny;
+        final int r3 = r + ny + 1;
+        counters[0] = firstVertex[r];
+        counters[1] = firstVertex[r1];
+        counters[2] = firstVertex[r2];
+        counters[3] = firstVertex[r3];
+        counters[4] = firstVertex[r] + nrX[r];
+        counters[5] = firstVertex[r2] + nrX[r2];
+        counters[6] = firstVertex[r] + nrX[r] + nrY[r];
+        counters[7] = firstVertex[r1] + nrX[r1] + nrY[r1];
+
+        int t = 3 * firstTriangle[r];
+        for (int a = 0; a < nrActive; a++) {
+            final int tableIndex = cellCase[a];
+            final int flags = caseCounters[tableIndex];
+
+            int edges = MarchingCubes.edgeLUT[tableIndex];
+            while (edges != 0) {
+                final int i = Integer.numberOfTrailingZeros(edges);
+                edges &= edges - 1;
+                final int c = edgeCounter[i];
+                vertexID[i] = counters[c] + (edgeRight[i] & (flags >> c));
+            }
+
+            for (int i = tableIndex << 4; MarchingCubes.flatTriangleLUT[i] != -1; i++) {
+                triangles.put(t++, vertexID[MarchingCubes.flatTriangleLUT[i]]);
+            }
+
+            for (int c = 0; c < NR_COUNTERS; c++) {
+                counters[c] += (flags >> c) & 1;
+            }
+        }
+    }
+
+    // Computes the intersection of the edge from sample (x, y, z) in the
+    // specified direction exactly like MarchingCubes.intersect().
+    private void addVertex(FloatBuffer vertices, int id, int x, int y, int z,
+            int axis, float lower, float upper) {
+        final float mu = (threshold - lower) / (upper - lower);
+
+        float px = x * h[GridTopo.X];
+        float py = y * h[GridTopo.Y];
+        float pz = z * h[GridTopo.Z];
+        if (axis == GridTopo.X) {
+            px += mu * h[GridTopo.X];
+        } else if (axis == GridTopo.Y) {
+            py += mu * h[GridTopo.Y];
+        } else {
+            pz += mu * h[GridTopo.Z];
+        }
+
+        vertices.put(3 * id, px + offs[0]);
+        vertices.put(3 * id + 1, py + offs[1]);
+        vertices.put(3 * id + 2, pz + offs[2]);
+    }
+}
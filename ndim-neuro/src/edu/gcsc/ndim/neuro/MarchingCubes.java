@@ -33,18 +33,19 @@
  */
 package edu.gcsc.ndim.neuro;
 
-import java.io.FileWriter;
+import java.io.File;
 import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.util.*;
-import java.util.Map.Entry;
-import org.ndim.AddrOp;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.ndim.GridTopo;
 import org.ndim.MemTopo;
-import org.ndim.Stencil;
-import org.ndim.math.Vec;
 import org.ndim.Arrays.Algo;
-import org.ndim.improc.Point3f;
-import org.ndim.improc.Vector3f;
 
 /**
  *
@@ -52,35 +53,80 @@ import org.ndim.improc.Vector3f;
  */
 public class MarchingCubes {
 
-    protected static final class Node3f extends Point3f {
-
-        public int id;
+    // Isosurface extraction algorithms, see exec(..., Engine).
+    public enum Engine {
+
+        // Classic marching cubes sweep, see execSlab().
+        MARCHING_CUBES,
+        // Multi-pass flying edges, see FlyingEdges. The vertices are
+        // numbered differently, the surface is the same.
+        FLYING_EDGES,
+        // Surface nets, see SurfaceNets. One vertex per active cell, i.e.,
+        // a coarser and smoother surface.
+        SURFACE_NETS
+    }
 
-        public Node3f() {
-            super();
+    // A range of cell layers [zStart, zEnd) which is triangulated
+    // independently of the other slabs. Vertices are numbered in the order
+    // of their creation and are stored packed (x, y, z).
+    protected static final class Slab {
+
+        public final int zStart;
+        public final int zEnd;
+        public float[] vertices = new float[3 * 1024];
+        public int nrVertices;
+        // Id of the first vertex in vertices. Only streaming moves it.
+        public int vertexBase;
+        // Local vertex indices, three per triangle.
+        public int[] triangles = new int[3 * 1024];
+        public int nrTriangles;
+        // Edge -> vertex caches of the X and Y edges in the first and in
+        // the last grid plane of the slab. Used for stitching.
+        public int[] bottomX;
+        public int[] bottomY;
+        public int[] topX;
+        public int[] topY;
+        // Local -> global vertex indices, assigned while stitching.
+        public int[] globalID;
+
+        public Slab(int zStart, int zEnd) {
+            this.zStart = zStart;
+            this.zEnd = zEnd;
         }
 
-        public Node3f(float x, float y, float z) {
-            super(x, y, z);
+        public int addVertex(float x, float y, float z) {
+            if (3 * nrVertices + 3 > vertices.length) {
+                vertices = Arrays.copyOf(vertices, 2 * vertices.length);
+            }
+            vertices[3 * nrVertices] = x;
+            vertices[3 * nrVertices + 1] = y;
+            vertices[3 * nrVertices + 2] = z;
+            return vertexBase + nrVertices++;
         }
-    }
-
-    protected static final class Triangle {
 
-        public int n0;
-        public int n1;
-        public int n2;
-
-        public Triangle(int id0, int id1, int id2) {
-            n0 = id0;
-            n1 = id1;
-            n2 = id2;
+        public void addTriangle(int id0, int id1, int id2) {
+            if (3 * nrTriangles + 3 > triangles.length) {
+                triangles = Arrays.copyOf(triangles, 2 * triangles.length);
+            }
+            triangles[3 * nrTriangles] = id0;
+            triangles[3 * nrTriangles + 1] = id1;
+            triangles[3 * nrTriangles + 2] = id2;
+            nrTriangles++;
         }
 
-        public final void copyTo(int startIdx, int[] array) {
-            array[startIdx] = n0;
-            array[startIdx + 1] = n1;
-            array[startIdx + 2] = n2;
+        // Hands the vertices and triangles created since the last flush
+        // to the sink. Vertex ids keep counting across flushes.
+        public void flush(MeshSink sink, float[] offs) throws IOException {
+            for (int i = 0; i < 3 * nrVertices; i += 3) {
+                vertices[i] += offs[0];
+                vertices[i + 1] += offs[1];
+                vertices[i + 2] += offs[2];
+            }
+            sink.addVertices(vertices, nrVertices);
+            sink.addTriangles(triangles, nrTriangles);
+            vertexBase += nrVertices;
+            nrVertices = 0;
+            nrTriangles = 0;
         }
     }
     // Cell length in x, y, and z directions.
@@ -91,16 +137,18 @@ public class MarchingCubes {
     protected float threshold;
     // Indicates whether a valid surface is present.
     protected boolean isEmpty;
-    // The vertices which make up the isosurface.
-    protected Point3f[] vertices;
-    // The indices of the vertices which make up the triangles.
-    protected int[] triangles;
-    // The normals.
-    protected Vector3f[] normals;
+    // The vertices, normals and triangles which make up the isosurface.
+    protected Mesh mesh;
+    // Indicates whether the mesh shall be allocated outside of the heap.
+    private boolean directBuffers = false;
+    // Optional min/max index of the volume for empty-block skipping.
+    private MinMaxIndex minMaxIndex;
     // Switch debug output
     private boolean debug = false;
     // The number of sub samples to take
     private int samples;
+    // The number of Z-slabs used by the parallel exec
+    private int nrSlabs = Runtime.getRuntime().availableProcessors();
 
     public MarchingCubes() {
         setGridSpacing(1.0f, 1.0f, 1.0f);
@@ -167,6 +215,41 @@ public class MarchingCubes {
         return samples;
     }
 
+    public final void setNrSlabs(int nrSlabs) {
+        if (nrSlabs < 1) {
+            throw new IllegalArgumentException(
+                    "at least one slab is required!");
+        }
+        this.nrSlabs = nrSlabs;
+    }
+
+    public final int getNrSlabs() {
+        return nrSlabs;
+    }
+
+    public final boolean getDirectBuffers() {
+        return directBuffers;
+    }
+
+    public final void setDirectBuffers(boolean directBuffers) {
+        this.directBuffers = directBuffers;
+    }
+
+    public final MinMaxIndex getMinMaxIndex() {
+        return minMaxIndex;
+    }
+
+    // Defines the min/max index of the volume passed to exec(), which is
+    // used to skip empty blocks. Pass null to visit every cell.
+    public final void setMinMaxIndex(MinMaxIndex minMaxIndex) {
+        this.minMaxIndex = minMaxIndex;
+    }
+
+    // Returns the isosurface or null if no valid surface is present.
+    public final Mesh getMesh() {
+        return mesh;
+    }
+
     // Returns false if a valid surface has been generated.
     public final boolean isEmpty() {
         return isEmpty;
@@ -174,455 +257,657 @@ public class MarchingCubes {
 
     // Deletes the isosurface.
     public final void clear() {
-        vertices = null;
-        triangles = null;
-        normals = null;
+        mesh = null;
         isEmpty = true;
     }
 
     // Generates the isosurface from the scalar field contained in the
     // buffer ptScalarField[].
     public void exec(final GridTopo gridTopo, final MemTopo memTopo, final byte[] data) {
-        // List of POINT3Ds which form the isosurface.
-        HashMap<Integer, MarchingCubes.Node3f> vertexMap = new HashMap<Integer, MarchingCubes.Node3f>();
-        // List of TRIANGLES which form the triangulation of the isosurface.
-        ArrayList<MarchingCubes.Triangle> triangleList = new ArrayList<MarchingCubes.Triangle>();
+        exec(new ArrayVolumeSource(gridTopo, memTopo, data));
+    }
 
+    // Generates the isosurface from the specified volume, which is read
+    // plane by plane. Hence the volume does not have to fit into memory.
+    public void exec(final VolumeSource volume) {
         if (!isEmpty) {
             clear();
         }
 
+        mesh = extract(volume, new float[]{threshold})[0];
+        isEmpty = false;
+    }
 
-        final GridTopo cropTopo = gridTopo.trimEnd(1);
-        final Stencil stencil = new Stencil(cropTopo.extent());
-        final AddrOp op = new AddrOp(cropTopo, memTopo);
+    // Generates the isosurface and streams it to the specified sink. The
+    // vertices and triangles of each cell layer are handed over as soon as
+    // the layer is finished, so the mesh is never held in memory. Normals
+    // are not computed in this mode.
+    public void exec(final GridTopo gridTopo, final MemTopo memTopo, final byte[] data,
+            final MeshSink sink) throws IOException {
+        exec(new ArrayVolumeSource(gridTopo, memTopo, data), sink);
+    }
 
+    // Streams the isosurface of the specified volume to the sink. Neither
+    // the volume nor the mesh have to fit into memory.
+    public void exec(final VolumeSource volume, final MeshSink sink) throws IOException {
+        if (!isEmpty) {
+            clear();
+        }
 
-        float[] elem = new float[8];
-        int[] edgeID = new int[12];
-
-        // Generate isosurface.
-        final int incrX = op.incr(GridTopo.X);
-        final int incrY = op.incr(GridTopo.Y);
-        final int incrZ = op.incr(GridTopo.Z);
-        int addr;
-        final float[] posf = Algo.fill(new float[cropTopo.nrDims()], 0.0f);
-        final int[] pos = Algo.fill(new int[cropTopo.nrDims()], 0);
-        while (stencil.hasNext(pos)) {
-            addr = op.addr(pos, 0);
-
-            elem[0] = data[addr];
-            elem[1] = data[addr + incrY];
-            elem[2] = data[addr + incrX + incrY];
-            elem[3] = data[addr + incrX];
-            elem[4] = data[addr + incrZ];
-            elem[5] = data[addr + incrY + incrZ];
-            elem[6] = data[addr + incrX + incrY + incrZ];
-            elem[7] = data[addr + incrX + incrZ];
-
-            for (int i = 0; i < edgeID.length; i++) {
-                edgeID[i] = getEdgeID(addr, incrX, incrY, incrZ, i);
-            }
+        exec(volume, new float[]{threshold}, new MeshSink[]{sink});
+    }
 
-            posf[GridTopo.X] = pos[GridTopo.X];
-            posf[GridTopo.Y] = pos[GridTopo.Y];
-            posf[GridTopo.Z] = pos[GridTopo.Z];
-            Vec.elementwiseMul(posf, h);
-            triangulateCell(posf, stencil.atEnd(pos), elem, edgeID, vertexMap, triangleList);
+    // Generates the isosurface in parallel. The grid is split into
+    // Z-slabs which are triangulated independently by the specified
+    // executor. Stitching the slabs in Z order yields exactly the mesh of
+    // the serial exec().
+    public void exec(final GridTopo gridTopo, final MemTopo memTopo, final byte[] data,
+            final ExecutorService executor) throws InterruptedException {
+        exec(new ArrayVolumeSource(gridTopo, memTopo, data), executor);
+    }
 
-            stencil.next(pos);
+    // Generates the isosurface of the specified volume in parallel.
+    public void exec(final VolumeSource volume,
+            final ExecutorService executor) throws InterruptedException {
+        if (!isEmpty) {
+            clear();
         }
 
-        transcribeVerticesAndTriangles(vertexMap, triangleList);
+        mesh = extract(volume, new float[]{threshold}, executor)[0];
         isEmpty = false;
-
     }
 
-    private void triangulateCell(float[] pos, int atEnd, float[] elem, int[] edgeID,
-            HashMap<Integer, MarchingCubes.Node3f> vertexMap, ArrayList<MarchingCubes.Triangle> triangleList) {
-        int tableIndex = getTableIndex(elem, threshold);
-        if (edgeLUT[tableIndex] != 0) {
-            if ((edgeLUT[tableIndex] & 8) > 0) {
-                vertexMap.put(edgeID[3], intersect(pos, elem, 3));
-            }
-            if ((edgeLUT[tableIndex] & 1) > 0) {
-                vertexMap.put(edgeID[0], intersect(pos, elem, 0));
-            }
-            if ((edgeLUT[tableIndex] & 256) > 0) {
-                vertexMap.put(edgeID[8], intersect(pos, elem, 8));
-            }
-
-            if ((atEnd & 0x1) > 0) // X
-            {
-                if ((edgeLUT[tableIndex] & 4) > 0) {
-                    vertexMap.put(edgeID[2], intersect(pos, elem, 2));
-                }
-                if ((edgeLUT[tableIndex] & 2048) > 0) {
-                    vertexMap.put(edgeID[11], intersect(pos, elem, 11));
-                }
-            }
-            if ((atEnd & 0x2) > 0) // Y
-            {
-                if ((edgeLUT[tableIndex] & 2) > 0) {
-                    vertexMap.put(edgeID[1], intersect(pos, elem, 1));
-                }
-                if ((edgeLUT[tableIndex] & 512) > 0) {
-                    vertexMap.put(edgeID[9], intersect(pos, elem, 9));
-                }
-            }
-            if ((atEnd & 0x4) > 0) // Z
-            {
-                if ((edgeLUT[tableIndex] & 16) > 0) {
-                    vertexMap.put(edgeID[4], intersect(pos, elem, 4));
-                }
-                if ((edgeLUT[tableIndex] & 128) > 0) {
-                    vertexMap.put(edgeID[7], intersect(pos, elem, 7));
-                }
-            }
-            if ((atEnd & 0x3) > 0) // XY
-            {
-                if ((edgeLUT[tableIndex] & 1024) > 0) {
-                    vertexMap.put(edgeID[10], intersect(pos, elem, 10));
-                }
-            }
-            if ((atEnd & 0x5) > 0) // XZ
-            {
-                if ((edgeLUT[tableIndex] & 64) > 0) {
-                    vertexMap.put(edgeID[6], intersect(pos, elem, 6));
-                }
-            }
-            if ((atEnd & 0x6) > 0) // YZ
-            {
-                if ((edgeLUT[tableIndex] & 32) > 0) {
-                    vertexMap.put(edgeID[5], intersect(pos, elem, 5));
-                }
-            }
+    // Generates the isosurface in parallel using a temporary thread pool
+    // with the specified number of threads.
+    public void exec(final GridTopo gridTopo, final MemTopo memTopo, final byte[] data,
+            final int nrThreads) throws InterruptedException {
+        exec(new ArrayVolumeSource(gridTopo, memTopo, data), nrThreads);
+    }
 
-            for (int i = 0; triangleLUT[tableIndex][i] != -1; i += 3) {
-                triangleList.add(
-                        new MarchingCubes.Triangle(
-                        edgeID[triangleLUT[tableIndex][i]],
-                        edgeID[triangleLUT[tableIndex][i + 1]],
-                        edgeID[triangleLUT[tableIndex][i + 2]]));
-            }
+    // Generates the isosurface of the specified volume in parallel using a
+    // temporary thread pool with the specified number of threads.
+    public void exec(final VolumeSource volume, final int nrThreads) throws InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+        try {
+            exec(volume, executor);
+        } finally {
+            executor.shutdown();
         }
     }
 
-    public void writeSurfaceObj(String fileName) throws IOException {
-        FileWriter fw = new FileWriter(fileName);
-        Formatter formatter = new Formatter(fw, Locale.US);
+    // Generates the isosurface with the specified engine. The flying edges
+    // and surface nets engines do not use the min/max index.
+    public void exec(final GridTopo gridTopo, final MemTopo memTopo, final byte[] data,
+            final Engine engine) {
+        if (engine == Engine.MARCHING_CUBES) {
+            exec(gridTopo, memTopo, data);
+            return;
+        }
 
-        // Writer vertices
-        for (int i = 0; i < vertices.length; i++) {
-            //fw.write(String.format("v %f %f %f\n", vertices[i].x, vertices[i].y, vertices[i].z));
-            formatter.format("v %f %f %f\n", vertices[i].x, vertices[i].y, vertices[i].z);
+        if (!isEmpty) {
+            clear();
         }
 
-        // Write normals
-        for (int i = 0; i < normals.length; i++) {
-            //fw.write(String.format("vn %f %f %f\n", normals[i].x, normals[i].y, normals[i].z));
-            formatter.format("vn %f %f %f\n", normals[i].x, normals[i].y, normals[i].z);
+        try {
+            mesh = extract(gridTopo, memTopo, data, null, 1, engine);
+        } catch (InterruptedException ex) {
+            // only thrown by executors
+            throw new IllegalStateException(ex);
         }
+        MeshNormals.compute(mesh);
+        isEmpty = false;
+    }
 
-        // Write triangles
-        for (int i = 0; i < triangles.length; i += 3) {
-//            fw.write(String.format("f %d//%d %d//%d %d//%d\n",
-//                    triangles[i] + 1, triangles[i] + 1,
-//                    triangles[i + 1] + 1, triangles[i + 1] + 1,
-//                    triangles[i + 2] + 1, triangles[i + 2] + 1));
-//            formatter.format("f %d//%d %d//%d %d//%d\n",
-//                    triangles[i] + 1, triangles[i] + 1,
-//                    triangles[i + 1] + 1, triangles[i + 1] + 1,
-//                    triangles[i + 2] + 1, triangles[i + 2] + 1);
-
-            formatter.format("f %d %d %d\n",
-                    triangles[i] + 1,
-                    triangles[i + 1] + 1,
-                    triangles[i + 2] + 1);
+    // Generates the isosurface in parallel with the specified engine.
+    public void exec(final GridTopo gridTopo, final MemTopo memTopo, final byte[] data,
+            final ExecutorService executor, final Engine engine) throws InterruptedException {
+        if (engine == Engine.MARCHING_CUBES) {
+            exec(gridTopo, memTopo, data, executor);
+            return;
+        }
 
+        if (!isEmpty) {
+            clear();
         }
-        fw.flush();
+
+        mesh = extract(gridTopo, memTopo, data, executor, nrSlabs, engine);
+        MeshNormals.compute(mesh, executor, nrSlabs);
+        isEmpty = false;
     }
 
-    public void writeSurfaceVTK(String fileName, String dataSetName) throws IOException {
-        FileWriter fw = new FileWriter(fileName);
-        Formatter formatter = new Formatter(fw, Locale.US);
+    // Extraction with the multi-pass engines.
+    private Mesh extract(final GridTopo gridTopo, final MemTopo memTopo, final byte[] data,
+            final ExecutorService executor, final int nrTasks,
+            final Engine engine) throws InterruptedException {
+        if (engine == Engine.SURFACE_NETS) {
+            return new SurfaceNets(threshold, h, offs, directBuffers).exec(
+                    gridTopo, memTopo, data, executor, nrTasks);
+        }
+        return new FlyingEdges(threshold, h, offs, directBuffers).exec(
+                gridTopo, memTopo, data, executor, nrTasks);
+    }
 
-        fw.write("# vtk DataFile Version 1.0\n");
-        fw.write(dataSetName + "\n");
-        fw.write("ASCII\n\n");
+    // Generates one isosurface per threshold in a single sweep over the
+    // scalar field, i.e., each plane is read once and the traversal is
+    // shared by all thresholds. Returns the meshes in the order of the
+    // thresholds. The isosurface of this instance (see getMesh()) and its
+    // threshold are not changed.
+    public Mesh[] exec(final GridTopo gridTopo, final MemTopo memTopo, final byte[] data,
+            final float[] thresholds) {
+        return exec(new ArrayVolumeSource(gridTopo, memTopo, data), thresholds);
+    }
 
-        fw.write("DATASET POLYDATA\n");
+    // Generates one isosurface per threshold from the specified volume in
+    // a single sweep.
+    public Mesh[] exec(final VolumeSource volume, final float[] thresholds) {
+        validateThresholds(thresholds);
+        return extract(volume, thresholds);
+    }
 
-        // Write vertices
-        //fw.write(String.format("POINTS %d float\n", vertices.length));
-        formatter.format("POINTS %d float\n", vertices.length);
+    // Generates one isosurface per threshold in parallel. Each Z-slab is
+    // swept once for all thresholds.
+    public Mesh[] exec(final VolumeSource volume, final float[] thresholds,
+            final ExecutorService executor) throws InterruptedException {
+        validateThresholds(thresholds);
+        return extract(volume, thresholds, executor);
+    }
 
-        for (int i = 0; i < vertices.length; i++) {
-            //fw.write(String.format("%f %f %f\n", vertices[i].x, vertices[i].y, vertices[i].z));
-            formatter.format("%f %f %f\n", vertices[i].x, vertices[i].y, vertices[i].z);
+    // Streams one isosurface per threshold to the corresponding sink in a
+    // single sweep over the volume. Normals are not computed in this mode.
+    public void exec(final VolumeSource volume, final float[] thresholds,
+            final MeshSink[] sinks) throws IOException {
+        validateThresholds(thresholds);
+        if (sinks.length != thresholds.length) {
+            throw new IllegalArgumentException(
+                    "one sink per threshold is required!");
         }
 
-        // Write triangles
-        //fw.write(String.format("POLYGONS %d %d\n", (triangles.length/3), (triangles.length/3)*4));
-        formatter.format("POLYGONS %d %d\n", (triangles.length / 3), (triangles.length / 3) * 4);
-        for (int i = 0; i < triangles.length; i += 3) {
-            //fw.write(String.format("3 %d %d %d\n", triangles[i], triangles[i + 1], triangles[i + 2]));
-            formatter.format("3 %d %d %d\n", triangles[i], triangles[i + 1], triangles[i + 2]);
+        validateIndex(volume);
+
+        final int nrCellsZ = volume.extent()[GridTopo.Z] - 1;
+        final MarchingCubes.Slab[] slabs = new MarchingCubes.Slab[thresholds.length];
+        for (int i = 0; i < thresholds.length; i++) {
+            slabs[i] = new MarchingCubes.Slab(0, nrCellsZ);
+        }
+        execSlab(volume, thresholds, slabs, sinks);
+        for (MeshSink sink : sinks) {
+            sink.finish();
         }
-        fw.flush();
     }
 
-    // Returns the edge ID.
-    private static int getEdgeID(int addr, int incrX, int incrY, int incrZ, int nEdgeNo) {
-        switch (nEdgeNo) {
-            case 0:
-                return 3 * addr + 1;
-            case 1:
-                return 3 * (addr + incrY);
-            case 2:
-                return 3 * (addr + incrX) + 1;
-            case 3:
-                return 3 * addr;
-            case 4:
-                return 3 * (addr + incrZ) + 1;
-            case 5:
-                return 3 * (addr + incrY + incrZ);
-            case 6:
-                return 3 * (addr + incrX + incrZ) + 1;
-            case 7:
-                return 3 * (addr + incrZ);
-            case 8:
-                return 3 * addr + 2;
-            case 9:
-                return 3 * (addr + incrY) + 2;
-            case 10:
-                return 3 * (addr + incrX + incrY) + 2;
-            case 11:
-                return 3 * (addr + incrX) + 2;
-            default:
-                // Invalid edge no.
-                return -1;
+    private static void validateThresholds(final float[] thresholds) {
+        if (thresholds.length == 0) {
+            throw new IllegalArgumentException(
+                    "at least one threshold is required!");
         }
+    }
 
+    private void validateIndex(final VolumeSource volume) {
+        if (minMaxIndex != null
+                && !Arrays.equals(minMaxIndex.extent(), volume.extent())) {
+            throw new IllegalArgumentException(
+                    "min/max index does not match the volume!");
+        }
     }
 
-    // Calculates the intersection point of the isosurface with an
-    // edge.
-    protected MarchingCubes.Node3f intersect(float[] pos, float[] elem, int nEdgeNo) {
-        float x1 = pos[GridTopo.X], y1 = pos[GridTopo.Y], z1 = pos[GridTopo.Z];
-        float x2 = pos[GridTopo.X], y2 = pos[GridTopo.Y], z2 = pos[GridTopo.Z];
-        int idx1 = 0, idx2 = 0;
-
-        switch (nEdgeNo) {
-            case 0:
-                y2 += h[GridTopo.Y];
-                idx1 = 0;
-                idx2 = 1;
-                break;
-            case 1:
-                y1 += h[GridTopo.Y];
-                x2 += h[GridTopo.X];
-                y2 += h[GridTopo.Y];
-                idx1 = 1;
-                idx2 = 2;
-                break;
-            case 2:
-                x1 += h[GridTopo.X];
-                y1 += h[GridTopo.Y];
-                x2 += h[GridTopo.X];
-                idx1 = 2;
-                idx2 = 3;
-                break;
-            case 3:
-                x1 += h[GridTopo.X];
-                idx1 = 3;
-                idx2 = 0;
-                break;
-            case 4:
-                z1 += h[GridTopo.Z];
-                y2 += h[GridTopo.Y];
-                z2 += h[GridTopo.Z];
-                idx1 = 4;
-                idx2 = 5;
-                break;
-            case 5:
-                y1 += h[GridTopo.Y];
-                z1 += h[GridTopo.Z];
-                x2 += h[GridTopo.X];
-                y2 += h[GridTopo.Y];
-                z2 += h[GridTopo.Z];
-                idx1 = 5;
-                idx2 = 6;
-                break;
-            case 6:
-                x1 += h[GridTopo.X];
-                y1 += h[GridTopo.Y];
-                z1 += h[GridTopo.Z];
-                x2 += h[GridTopo.X];
-                z2 += h[GridTopo.Z];
-                idx1 = 6;
-                idx2 = 7;
-                break;
-            case 7:
-                x1 += h[GridTopo.X];
-                z1 += h[GridTopo.Z];
-                z2 += h[GridTopo.Z];
-                idx1 = 7;
-                idx2 = 4;
-                break;
-            case 8:
-                z2 += h[GridTopo.Z];
-                idx1 = 0;
-                idx2 = 4;
-                break;
-            case 9:
-                y1 += h[GridTopo.Y];
-                y2 += h[GridTopo.Y];
-                z2 += h[GridTopo.Z];
-                idx1 = 1;
-                idx2 = 5;
-                break;
-            case 10:
-                x1 += h[GridTopo.X];
-                y1 += h[GridTopo.Y];
-                x2 += h[GridTopo.X];
-                y2 += h[GridTopo.Y];
-                z2 += h[GridTopo.Z];
-                idx1 = 2;
-                idx2 = 6;
-                break;
-            case 11:
-                x1 += h[GridTopo.X];
-                x2 += h[GridTopo.X];
-                z2 += h[GridTopo.Z];
-                idx1 = 3;
-                idx2 = 7;
-                break;
+    // Serial extraction of the isosurfaces of the specified thresholds.
+    private Mesh[] extract(final VolumeSource volume, final float[] thresholds) {
+        validateIndex(volume);
+
+        final int nrCellsZ = volume.extent()[GridTopo.Z] - 1;
+        final MarchingCubes.Slab[] slabs = new MarchingCubes.Slab[thresholds.length];
+        for (int i = 0; i < thresholds.length; i++) {
+            slabs[i] = new MarchingCubes.Slab(0, nrCellsZ);
+        }
+        try {
+            execSlab(volume, thresholds, slabs, null);
+        } catch (IOException ex) {
+            // only thrown by mesh sinks
+            throw new IllegalStateException(ex);
         }
 
-        return interpolate(x1, y1, z1, x2, y2, z2, elem[idx1], elem[idx2], threshold);
+        final Mesh[] meshes = new Mesh[thresholds.length];
+        for (int i = 0; i < thresholds.length; i++) {
+            meshes[i] = transcribeVerticesAndTriangles(
+                    Collections.singletonList(slabs[i]));
+            MeshNormals.compute(meshes[i]);
+        }
+        return meshes;
     }
 
-    // Interpolates between two grid points to produce the point at which
-    // the isosurface intersects an edge.
-    private static MarchingCubes.Node3f interpolate(float fX1, float fY1, float fZ1, float fX2, float fY2, float fZ2, float tVal1, float tVal2, float tIsoLevel) {
-        float mu = (tIsoLevel - tVal1) / (tVal2 - tVal1);
-        return new MarchingCubes.Node3f(fX1 + mu * (fX2 - fX1), fY1 + mu * (fY2 - fY1), fZ1 + mu * (fZ2 - fZ1));
-    }
+    // Parallel extraction of the isosurfaces of the specified thresholds.
+    // Each task sweeps one Z-slab for all thresholds.
+    private Mesh[] extract(final VolumeSource volume, final float[] thresholds,
+            final ExecutorService executor) throws InterruptedException {
+        validateIndex(volume);
 
-    // Renames vertices and triangles so that they can be accessed more
-    // efficiently.
-    private void transcribeVerticesAndTriangles(HashMap<Integer, MarchingCubes.Node3f> vertexMap, ArrayList<MarchingCubes.Triangle> triangleList) {
-        int idIter = 0;
+        final int nrCellsZ = volume.extent()[GridTopo.Z] - 1;
+        final int nrSlabs = Math.max(1, Math.min(this.nrSlabs, nrCellsZ));
 
-        Iterator<Entry<Integer, MarchingCubes.Node3f>> mapIterator = vertexMap.entrySet().iterator();
-        Entry<Integer, MarchingCubes.Node3f> currentEntry;
-        Iterator<MarchingCubes.Triangle> vecIterator = triangleList.iterator();
-        MarchingCubes.Triangle currentTri;
+        // slabs per threshold
+        final List<List<MarchingCubes.Slab>> slabs =
+                new ArrayList<List<MarchingCubes.Slab>>(thresholds.length);
+        for (int t = 0; t < thresholds.length; t++) {
+            slabs.add(new ArrayList<MarchingCubes.Slab>(nrSlabs));
+        }
+        final List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(nrSlabs);
+        for (int i = 0; i < nrSlabs; i++) {
+            final int zStart = (int) ((long) i * nrCellsZ / nrSlabs);
+            final int zEnd = (int) ((long) (i + 1) * nrCellsZ / nrSlabs);
+            final MarchingCubes.Slab[] levelSlabs = new MarchingCubes.Slab[thresholds.length];
+            for (int t = 0; t < thresholds.length; t++) {
+                levelSlabs[t] = new MarchingCubes.Slab(zStart, zEnd);
+                slabs.get(t).add(levelSlabs[t]);
+            }
+            tasks.add(new Callable<Object>() {
 
-        // Rename vertices.
-        while (mapIterator.hasNext()) {
-            currentEntry = mapIterator.next();
-            currentEntry.getValue().id = idIter;
-            idIter++;
+                @Override
+                public Object call() throws IOException {
+                    execSlab(volume, thresholds, levelSlabs, null);
+                    return null;
+                }
+            });
         }
 
-        // Now rename triangles.
-        while (vecIterator.hasNext()) {
-            currentTri = vecIterator.next();
-            currentTri.n0 = vertexMap.get(currentTri.n0).id;
-            currentTri.n1 = vertexMap.get(currentTri.n1).id;
-            currentTri.n2 = vertexMap.get(currentTri.n2).id;
+        for (Future<Object> f : executor.invokeAll(tasks)) {
+            try {
+                f.get();
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                }
+                throw new IllegalStateException(ex.getCause());
+            }
         }
 
-        // Copy all the vertices and triangles into two arrays so that they
-        // can be efficiently accessed.
-        // Copy vertices.
-        mapIterator = vertexMap.entrySet().iterator();
-        vertices = new Point3f[vertexMap.size()];
-        for (int i = 0; i < vertices.length; i++) {
-            currentEntry = mapIterator.next();
-            vertices[i] = new Point3f(currentEntry.getValue().x + offs[0],
-                    currentEntry.getValue().y + offs[1],
-                    currentEntry.getValue().z + offs[2]);
+        final Mesh[] meshes = new Mesh[thresholds.length];
+        for (int t = 0; t < thresholds.length; t++) {
+            meshes[t] = transcribeVerticesAndTriangles(slabs.get(t));
+            MeshNormals.compute(meshes[t], executor, nrSlabs);
         }
-        // Copy vertex indices which make triangles.
-        vecIterator = triangleList.iterator();
-        triangles = new int[triangleList.size() * 3];
-        for (int i = 0; i < triangles.length; i += 3) {
-            currentTri = vecIterator.next();
-            currentTri.copyTo(i, triangles);
+        return meshes;
+    }
+
+    // Triangulates the volume in the specified number of Z-slabs on the
+    // calling thread but does not transcribe the slabs. Together with
+    // transcribe() this allows to measure the transcription separately.
+    List<MarchingCubes.Slab> extractSlabs(final VolumeSource volume, final int nrSlabs) {
+        validateIndex(volume);
+
+        final int nrCellsZ = volume.extent()[GridTopo.Z] - 1;
+        final int n = Math.max(1, Math.min(nrSlabs, nrCellsZ));
+        final List<MarchingCubes.Slab> slabs = new ArrayList<MarchingCubes.Slab>(n);
+        for (int i = 0; i < n; i++) {
+            final MarchingCubes.Slab slab = new MarchingCubes.Slab(
+                    (int) ((long) i * nrCellsZ / n),
+                    (int) ((long) (i + 1) * nrCellsZ / n));
+            try {
+                execSlab(volume, new float[]{threshold},
+                        new MarchingCubes.Slab[]{slab}, null);
+            } catch (IOException ex) {
+                // only thrown by mesh sinks
+                throw new IllegalStateException(ex);
+            }
+            slabs.add(slab);
         }
+        return slabs;
+    }
 
+    // Stitches the specified slabs (see extractSlabs()) into a mesh
+    // without normals. Only the global vertex ids of the slabs are
+    // reassigned, i.e., they can be transcribed repeatedly.
+    Mesh transcribe(final List<MarchingCubes.Slab> slabs) {
+        return transcribeVerticesAndTriangles(slabs);
+    }
 
-        // Calculate normals.
-        Vector3f vec1 = new Vector3f();
-        Vector3f vec2 = new Vector3f();
-        Vector3f normal = new Vector3f();
+    // State of one threshold while a slab is triangulated: the bit masks
+    // of the planes and the edge -> vertex caches.
+    private static final class Level {
+
+        final float threshold;
+        final MarchingCubes.Slab slab;
+        final MeshSink sink;
+        final CellClassifier classifier;
+        long[] lowerMask;
+        long[] upperMask;
+        int[] lowerX;
+        int[] lowerY;
+        int[] upperX;
+        int[] upperY;
+        final int[][] cache = new int[5][];
+
+        Level(float threshold, MarchingCubes.Slab slab, MeshSink sink,
+                int nx, int ny) {
+            this.threshold = threshold;
+            this.slab = slab;
+            this.sink = sink;
+            this.classifier = new CellClassifier(nx, ny, threshold);
+            this.lowerMask = classifier.newMask();
+            this.upperMask = classifier.newMask();
+            final int planeSize = nx * ny;
+            this.lowerX = Algo.fill(new int[planeSize], -1);
+            this.lowerY = Algo.fill(new int[planeSize], -1);
+            this.upperX = Algo.fill(new int[planeSize], -1);
+            this.upperY = Algo.fill(new int[planeSize], -1);
+            slab.bottomX = lowerX;
+            slab.bottomY = lowerY;
+            cache[CACHE_Z] = new int[planeSize];
+        }
 
-        int id0;
-        int id1;
-        int id2;
+        // Advances to the next cell layer: the upper plane of the caches
+        // becomes the lower one. The bottom plane of the slab is kept for
+        // stitching.
+        void nextLayer() {
+            final int planeSize = lowerX.length;
+            final int[] freeX = lowerX == slab.bottomX ? new int[planeSize] : lowerX;
+            final int[] freeY = lowerY == slab.bottomY ? new int[planeSize] : lowerY;
+            lowerX = upperX;
+            lowerY = upperY;
+            upperX = Algo.fill(freeX, -1);
+            upperY = Algo.fill(freeY, -1);
+        }
 
-        normals = new Vector3f[vertices.length];
+        void swapMasks() {
+            final long[] freeMask = lowerMask;
+            lowerMask = upperMask;
+            upperMask = freeMask;
+        }
 
-        // Set all normals to 0.
-        for (int i = 0; i < normals.length; i++) {
-            normals[i] = new Vector3f(0, 0, 0);
+        void bindCaches() {
+            Algo.fill(cache[CACHE_Z], -1);
+            cache[CACHE_LOWER_X] = lowerX;
+            cache[CACHE_LOWER_Y] = lowerY;
+            cache[CACHE_UPPER_X] = upperX;
+            cache[CACHE_UPPER_Y] = upperY;
         }
+    }
 
-        // Calculate normals.
-        for (int i = 0; i < triangles.length; i += 3) {
-            id0 = triangles[i];
-            id1 = triangles[i + 1];
-            id2 = triangles[i + 2];
+    // Triangulates the cells of the specified slabs, one slab per
+    // threshold (all slabs cover the same cell layers). The volume is read
+    // plane by plane, two planes of samples at a time, and each plane is
+    // shared by all thresholds. Shared vertices are found through edge ->
+    // vertex caches which hold the X and Y edges of the lower and the
+    // upper plane of the current cell layer and the Z edges of the layer
+    // itself. The caches are recycled from layer to layer, so only two
+    // planes of edge state per threshold are alive at any time. If sinks
+    // are specified, each slab is flushed to its sink after each layer. If
+    // a min/max index is present, layers and rows of blocks that cannot
+    // contain any of the isosurfaces are skipped (and their planes are not
+    // read at all). Within a row only active cells are visited, these are
+    // found from bit masks of the planes (see CellClassifier).
+    private void execSlab(final VolumeSource volume, final float[] thresholds,
+            final MarchingCubes.Slab[] slabs, final MeshSink[] sinks) throws IOException {
+        final int[] extent = volume.extent();
+        final int nx = extent[GridTopo.X];
+        final int ny = extent[GridTopo.Y];
+        final int planeSize = nx * ny;
+        final int zStart = slabs[0].zStart;
+        final int zEnd = slabs[0].zEnd;
+
+        final MinMaxIndex index = minMaxIndex;
+        // without index all cells form a single block
+        final int blockSize = index != null
+                ? index.blockSize() : Math.max(nx, Math.max(ny, extent[GridTopo.Z]));
+
+        byte[] lowerPlane = new byte[planeSize];
+        byte[] upperPlane = new byte[planeSize];
+        final int[] cellX = new int[Math.max(0, nx - 1)];
+        final int[] cellCase = new int[Math.max(0, nx - 1)];
+
+        // offset of the cache entry of each edge relative to the cell
+        final int[] edgeCellOffset = new int[12];
+        for (int i = 0; i < 12; i++) {
+            edgeCellOffset[i] = edgeOffsetX[i] + nx * edgeOffsetY[i];
+        }
+        // planes currently held by lowerPlane and upperPlane
+        int lowerZ = -1;
+        int upperZ = -1;
+
+        final Level[] levels = new Level[thresholds.length];
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = new Level(thresholds[i], slabs[i],
+                    sinks != null ? sinks[i] : null, nx, ny);
+        }
+        final Level[] layerLevels = new Level[levels.length];
+        final Level[] rowLevels = new Level[levels.length];
 
-            vec1.sub(vertices[id1], vertices[id0]);
-            vec2.sub(vertices[id2], vertices[id0]);
-            normal.cross(vec2, vec1);
+        float[] elem = new float[8];
+        int[] vertexID = new int[12];
+        int idx;
+
+        // Generate isosurfaces.
+        for (int z = zStart; z < zEnd; z++) {
+            if (z > zStart) {
+                for (Level level : levels) {
+                    level.nextLayer();
+                }
+            }
 
-            normals[id0].add(normal);
-            normals[id1].add(normal);
-            normals[id2].add(normal);
-        }
+            final int bz = z / blockSize;
+            boolean layerActive = index == null;
+            for (int i = 0; i < levels.length && !layerActive; i++) {
+                layerActive = index.isLayerActive(bz, levels[i].threshold);
+            }
 
-        // Normalize normals.
-        for (int i = 0; i < normals.length; i++) {
-            normals[i].normalize();
-        }
+            if (!layerActive) {
+                continue;
+            }
 
-    }
+            // load the planes of the layer
+            if (upperZ == z) {
+                final byte[] freePlane = lowerPlane;
+                lowerPlane = upperPlane;
+                upperPlane = freePlane;
+                for (Level level : levels) {
+                    level.swapMasks();
+                }
+                lowerZ = upperZ;
+            }
+            if (lowerZ != z) {
+                volume.readPlane(z, lowerPlane);
+                for (Level level : levels) {
+                    level.classifier.classify(lowerPlane, level.lowerMask);
+                }
+                lowerZ = z;
+            }
+            volume.readPlane(z + 1, upperPlane);
+            for (Level level : levels) {
+                level.classifier.classify(upperPlane, level.upperMask);
+            }
+            upperZ = z + 1;
+
+            // levels to triangulate in this layer
+            int nrLayerLevels = 0;
+            for (Level level : levels) {
+                if (index == null || index.isLayerActive(bz, level.threshold)) {
+                    level.bindCaches();
+                    layerLevels[nrLayerLevels++] = level;
+                }
+            }
 
-    private static int getTableIndex(float[] elem, float threshold) {
-        int tableIndex = 0;
-        if (elem[0] < threshold) {
-            tableIndex |= 1;
-        }
-        if (elem[1] < threshold) {
-            tableIndex |= 2;
+            for (int y0 = 0, by = 0; y0 < ny - 1; y0 += blockSize, by++) {
+                // levels to triangulate in this row of blocks
+                int nrRowLevels = 0;
+                for (int l = 0; l < nrLayerLevels; l++) {
+                    if (index == null || index.isRowActive(by, bz, layerLevels[l].threshold)) {
+                        rowLevels[nrRowLevels++] = layerLevels[l];
+                    }
+                }
+                if (nrRowLevels == 0) {
+                    continue;
+                }
+                final int y1 = Math.min(y0 + blockSize, ny - 1);
+
+                // cells are visited row by row in ascending X order, i.e.,
+                // the order of vertices and triangles does not depend on
+                // the index. Blocks that are inactive according to the
+                // index contain no active cells. The rows of all
+                // thresholds are swept one after another, so the samples
+                // of a row are still cached for the next threshold.
+                for (int y = y0; y < y1; y++) {
+                    for (int l = 0; l < nrRowLevels; l++) {
+                        final Level level = rowLevels[l];
+                        final int nrActive = level.classifier.activeCells(
+                                level.lowerMask, level.upperMask, y, cellX, cellCase);
+
+                        int prevX = -2;
+                        for (int i = 0; i < nrActive; i++) {
+                            final int x = cellX[i];
+                            idx = x + nx * y;
+
+                            // the right face of the previous cell is the
+                            // left face of this one
+                            if (x == prevX + 1) {
+                                elem[0] = elem[3];
+                                elem[1] = elem[2];
+                                elem[4] = elem[7];
+                                elem[5] = elem[6];
+                            } else {
+                                elem[0] = lowerPlane[idx];
+                                elem[1] = lowerPlane[idx + nx];
+                                elem[4] = upperPlane[idx];
+                                elem[5] = upperPlane[idx + nx];
+                            }
+                            elem[2] = lowerPlane[idx + 1 + nx];
+                            elem[3] = lowerPlane[idx + 1];
+                            elem[6] = upperPlane[idx + 1 + nx];
+                            elem[7] = upperPlane[idx + 1];
+                            prevX = x;
+
+                            triangulateCell(x, y, z, idx, cellCase[i], level.threshold,
+                                    elem, level.cache, edgeCellOffset, vertexID, level.slab);
+                        }
+                    }
+                }
+            }
+
+            for (int l = 0; l < nrLayerLevels; l++) {
+                final Level level = layerLevels[l];
+                if (level.sink != null) {
+                    level.slab.flush(level.sink, offs);
+                }
+            }
         }
-        if (elem[2] < threshold) {
-            tableIndex |= 4;
+
+        for (Level level : levels) {
+            level.slab.topX = level.upperX;
+            level.slab.topY = level.upperY;
         }
-        if (elem[3] < threshold) {
-            tableIndex |= 8;
+    }
+
+    // Triangulates a cell. Only the intersected edges are visited, their
+    // vertices are looked up in (or added to) the edge -> vertex caches,
+    // i.e., intersections computed by neighbouring cells are reused.
+    private void triangulateCell(int x, int y, int z, int cellIdx, int tableIndex,
+            float threshold, float[] elem, int[][] cache, int[] edgeCellOffset,
+            int[] vertexID, MarchingCubes.Slab slab) {
+        int edges = edgeLUT[tableIndex];
+        while (edges != 0) {
+            final int i = Integer.numberOfTrailingZeros(edges);
+            edges &= edges - 1;
+
+            final int[] edgeCache = cache[edgeCaches[i]];
+            final int idx = cellIdx + edgeCellOffset[i];
+            int id = edgeCache[idx];
+            if (id < 0) {
+                id = intersect(x, y, z, threshold, elem, i, slab);
+                edgeCache[idx] = id;
+            }
+            vertexID[i] = id;
         }
-        if (elem[4] < threshold) {
-            tableIndex |= 16;
+
+        for (int i = tableIndex << 4; flatTriangleLUT[i] != -1; i += 3) {
+            slab.addTriangle(vertexID[flatTriangleLUT[i]],
+                    vertexID[flatTriangleLUT[i + 1]], vertexID[flatTriangleLUT[i + 2]]);
         }
-        if (elem[5] < threshold) {
-            tableIndex |= 32;
+    }
+
+    // Writes the isosurface as Wavefront OBJ file.
+    // See MeshWriter for further formats.
+    public void writeSurfaceObj(String fileName) throws IOException {
+        MeshWriter.writeObj(mesh, new File(fileName));
+    }
+
+    // Writes the isosurface as legacy VTK file (ASCII).
+    public void writeSurfaceVTK(String fileName, String dataSetName) throws IOException {
+        MeshWriter.writeVTK(mesh, new File(fileName), dataSetName);
+    }
+
+    // Calculates the intersection point of the isosurface with an
+    // edge and appends it to the vertices of the slab. Edges are always
+    // interpolated from their lower to their upper corner, hence the vertex
+    // does not depend on the cell which created it.
+    private int intersect(int x, int y, int z, float threshold, float[] elem, int nEdgeNo,
+            MarchingCubes.Slab slab) {
+        final float lower = elem[edgeLowerCorner[nEdgeNo]];
+        final float mu = (threshold - lower) / (elem[edgeUpperCorner[nEdgeNo]] - lower);
+        final int axis = edgeAxis[nEdgeNo];
+
+        float px = (x + edgeOffsetX[nEdgeNo]) * h[GridTopo.X];
+        float py = (y + edgeOffsetY[nEdgeNo]) * h[GridTopo.Y];
+        float pz = (z + edgeOffsetZ[nEdgeNo]) * h[GridTopo.Z];
+        if (axis == GridTopo.X) {
+            px += mu * h[GridTopo.X];
+        } else if (axis == GridTopo.Y) {
+            py += mu * h[GridTopo.Y];
+        } else {
+            pz += mu * h[GridTopo.Z];
         }
-        if (elem[6] < threshold) {
-            tableIndex |= 64;
+
+        return slab.addVertex(px, py, pz);
+    }
+
+    // Renames vertices and triangles so that they can be accessed more
+    // efficiently. Vertices on the bottom plane of a slab have also been
+    // created by the previous slab and are mapped onto these.
+    private Mesh transcribeVerticesAndTriangles(List<MarchingCubes.Slab> slabs) {
+        int nrVertices = 0;
+        int nrTriangles = 0;
+
+        // Rename vertices.
+        MarchingCubes.Slab prev = null;
+        for (MarchingCubes.Slab slab : slabs) {
+            slab.globalID = Algo.fill(new int[slab.nrVertices], -1);
+            if (prev != null) {
+                for (int i = 0; i < slab.bottomX.length; i++) {
+                    if (slab.bottomX[i] >= 0) {
+                        slab.globalID[slab.bottomX[i]] = prev.globalID[prev.topX[i]];
+                    }
+                    if (slab.bottomY[i] >= 0) {
+                        slab.globalID[slab.bottomY[i]] = prev.globalID[prev.topY[i]];
+                    }
+                }
+            }
+            for (int i = 0; i < slab.nrVertices; i++) {
+                if (slab.globalID[i] < 0) {
+                    slab.globalID[i] = nrVertices++;
+                }
+            }
+            nrTriangles += slab.nrTriangles;
+            prev = slab;
         }
-        if (elem[7] < threshold) {
-            tableIndex |= 128;
+
+        // Copy all the vertices and triangles into the packed buffers of
+        // the mesh so that they can be efficiently accessed.
+        final Mesh mesh = new Mesh(nrVertices, nrTriangles, directBuffers);
+        final FloatBuffer vertices = mesh.vertices();
+        final IntBuffer triangles = mesh.triangles();
+        int triIdx = 0;
+        for (MarchingCubes.Slab slab : slabs) {
+            for (int i = 0; i < slab.nrVertices; i++) {
+                final int id = slab.globalID[i];
+                vertices.put(3 * id, slab.vertices[3 * i] + offs[0]);
+                vertices.put(3 * id + 1, slab.vertices[3 * i + 1] + offs[1]);
+                vertices.put(3 * id + 2, slab.vertices[3 * i + 2] + offs[2]);
+            }
+            for (int i = 0; i < 3 * slab.nrTriangles; i++) {
+                triangles.put(triIdx++, slab.globalID[slab.triangles[i]]);
+            }
         }
-        return tableIndex;
 
+        return mesh;
     }
+
     static final int[] edgeLUT = {
         0x0, 0x109, 0x203, 0x30a, 0x406, 0x50f, 0x605, 0x70c,
         0x80c, 0x905, 0xa0f, 0xb06, 0xc0a, 0xd03, 0xe09, 0xf00,
@@ -657,6 +942,35 @@ public class MarchingCubes {
         0xf00, 0xe09, 0xd03, 0xc0a, 0xb06, 0xa0f, 0x905, 0x80c,
         0x70c, 0x605, 0x50f, 0x406, 0x30a, 0x203, 0x109, 0x0
     };
+    // Indices of the edge -> vertex caches used by execSlab().
+    private static final int CACHE_LOWER_X = 0;
+    private static final int CACHE_LOWER_Y = 1;
+    private static final int CACHE_UPPER_X = 2;
+    private static final int CACHE_UPPER_Y = 3;
+    private static final int CACHE_Z = 4;
+    // Corner positions relative to the cell origin (X, Y, Z).
+    static final int[][] cornerOffsets = {
+        {0, 0, 0}, {0, 1, 0}, {1, 1, 0}, {1, 0, 0},
+        {0, 0, 1}, {0, 1, 1}, {1, 1, 1}, {1, 0, 1}
+    };
+    // Corners of the edges, the lower corner first.
+    static final int[][] edgeCorners = {
+        {0, 1}, {1, 2}, {3, 2}, {0, 3},
+        {4, 5}, {5, 6}, {7, 6}, {4, 7},
+        {0, 4}, {1, 5}, {2, 6}, {3, 7}
+    };
+    // Direction of the edges.
+    static final int[] edgeAxis = {
+        GridTopo.Y, GridTopo.X, GridTopo.Y, GridTopo.X,
+        GridTopo.Y, GridTopo.X, GridTopo.Y, GridTopo.X,
+        GridTopo.Z, GridTopo.Z, GridTopo.Z, GridTopo.Z
+    };
+    // Edge -> vertex cache which holds the edges.
+    static final int[] edgeCaches = {
+        CACHE_LOWER_Y, CACHE_LOWER_X, CACHE_LOWER_Y, CACHE_LOWER_X,
+        CACHE_UPPER_Y, CACHE_UPPER_X, CACHE_UPPER_Y, CACHE_UPPER_X,
+        CACHE_Z, CACHE_Z, CACHE_Z, CACHE_Z
+    };
     static final int[][] triangleLUT = {
         {
             -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1
@@ -1427,4 +1741,27 @@ public class MarchingCubes {
             -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1
         }
     };
+    // Flattened views of the tables above, as used by the cell kernel:
+    // triangle list of case i starts at i << 4, lower/upper corner and
+    // cell offset of the lower corner per edge.
+    static final int[] flatTriangleLUT = new int[256 * 16];
+    static final int[] edgeLowerCorner = new int[12];
+    static final int[] edgeUpperCorner = new int[12];
+    static final int[] edgeOffsetX = new int[12];
+    static final int[] edgeOffsetY = new int[12];
+    static final int[] edgeOffsetZ = new int[12];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            System.arraycopy(triangleLUT[i], 0, flatTriangleLUT, i << 4, 16);
+        }
+        for (int i = 0; i < 12; i++) {
+            edgeLowerCorner[i] = edgeCorners[i][0];
+            edgeUpperCorner[i] = edgeCorners[i][1];
+            final int[] o = cornerOffsets[edgeCorners[i][0]];
+            edgeOffsetX[i] = o[GridTopo.X];
+            edgeOffsetY[i] = o[GridTopo.Y];
+            edgeOffsetZ[i] = o[GridTopo.Z];
+        }
+    }
 }
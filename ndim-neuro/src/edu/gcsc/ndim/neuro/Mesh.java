@@ -0,0 +1,140 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Triangle mesh stored as struct of arrays. Vertex positions and normals
+ * are packed as <code>x, y, z</code> triples, triangles as triples of
+ * vertex indices. The buffers are either heap buffers (backed by arrays)
+ * or direct buffers that live outside of the Java heap.
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public final class Mesh {
+
+    private final int nrVertices;
+    private final int nrTriangles;
+    private final FloatBuffer vertices;
+    private final FloatBuffer normals;
+    private final IntBuffer triangles;
+
+    /**
+     * Constructor. Allocates the buffers of the mesh.
+     *
+     * @param nrVertices number of vertices
+     * @param nrTriangles number of triangles
+     * @param direct defines whether to allocate direct buffers
+     */
+    public Mesh(int nrVertices, int nrTriangles, boolean direct) {
+        if (nrVertices < 0 || nrTriangles < 0) {
+            throw new IllegalArgumentException(
+                    "negative sizes not allowed!");
+        }
+
+        this.nrVertices = nrVertices;
+        this.nrTriangles = nrTriangles;
+
+        if (direct) {
+            vertices = allocateDirect(3L * nrVertices).asFloatBuffer();
+            normals = allocateDirect(3L * nrVertices).asFloatBuffer();
+            triangles = allocateDirect(3L * nrTriangles).asIntBuffer();
+        } else {
+            vertices = FloatBuffer.allocate(3 * nrVertices);
+            normals = FloatBuffer.allocate(3 * nrVertices);
+            triangles = IntBuffer.allocate(3 * nrTriangles);
+        }
+    }
+
+    private static ByteBuffer allocateDirect(long nrValues) {
+        if (4 * nrValues > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    "mesh too large for direct buffers!");
+        }
+        return ByteBuffer.allocateDirect((int) (4 * nrValues)).
+                order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Returns the number of vertices.
+     * @return the number of vertices
+     */
+    public int nrVertices() {
+        return nrVertices;
+    }
+
+    /**
+     * Returns the number of triangles.
+     * @return the number of triangles
+     */
+    public int nrTriangles() {
+        return nrTriangles;
+    }
+
+    /**
+     * Indicates whether the buffers of this mesh are direct buffers.
+     * @return <code>true</code> if the buffers are direct;
+     *         <code>false</code> otherwise
+     */
+    public boolean isDirect() {
+        return vertices.isDirect();
+    }
+
+    /**
+     * Returns the vertex positions (<code>3 * nrVertices()</code> values).
+     * The returned buffer shares its content with this mesh.
+     * @return the vertex positions
+     */
+    public FloatBuffer vertices() {
+        return vertices.duplicate();
+    }
+
+    /**
+     * Returns the vertex normals (<code>3 * nrVertices()</code> values).
+     * The returned buffer shares its content with this mesh.
+     * @return the vertex normals
+     */
+    public FloatBuffer normals() {
+        return normals.duplicate();
+    }
+
+    /**
+     * Returns the vertex indices of the triangles
+     * (<code>3 * nrTriangles()</code> values). The returned buffer shares its
+     * content with this mesh.
+     * @return the vertex indices of the triangles
+     */
+    public IntBuffer triangles() {
+        return triangles.duplicate();
+    }
+}
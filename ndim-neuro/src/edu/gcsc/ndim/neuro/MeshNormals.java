@@ -0,0 +1,234 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Computes vertex normals of meshes as the area weighted sum of the normals
+ * of the adjacent triangles.
+ * <p>
+ * The parallel version splits the triangles into ranges. Each range is
+ * accumulated into a private buffer that only covers the vertex ids the
+ * range refers to, which is a narrow window for meshes that have been
+ * generated slab by slab. The buffers are then reduced (in a fixed order,
+ * i.e., deterministically) and normalized in parallel over vertex ranges.
+ * No locks or atomics are involved and nothing is allocated per vertex.
+ * </p>
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public class MeshNormals {
+
+    /**
+     * Accumulated normals of a range of triangles.
+     */
+    private static final class Partial {
+
+        final int triangleStart;
+        final int triangleEnd;
+        // Vertex window [firstVertex, lastVertex] covered by sums.
+        int firstVertex;
+        int lastVertex;
+        float[] sums;
+
+        Partial(int triangleStart, int triangleEnd) {
+            this.triangleStart = triangleStart;
+            this.triangleEnd = triangleEnd;
+        }
+    }
+
+    /**
+     * Computes the normals of the specified mesh on the calling thread.
+     *
+     * @param mesh mesh
+     */
+    public static void compute(final Mesh mesh) {
+        final Partial partial = new Partial(0, mesh.nrTriangles());
+        accumulate(mesh, partial);
+        reduce(mesh, new Partial[]{partial}, 0, mesh.nrVertices());
+    }
+
+    /**
+     * Computes the normals of the specified mesh in parallel.
+     *
+     * @param mesh mesh
+     * @param executor executor that runs the tasks
+     * @param nrTasks number of tasks per phase, usually the number of threads
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static void compute(final Mesh mesh, final ExecutorService executor,
+            final int nrTasks) throws InterruptedException {
+        if (nrTasks < 1) {
+            throw new IllegalArgumentException(
+                    "at least one task is required!");
+        }
+
+        final int nrTriangles = mesh.nrTriangles();
+        final int nrVertices = mesh.nrVertices();
+
+        final Partial[] partials = new Partial[nrTasks];
+        final List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(nrTasks);
+        for (int i = 0; i < nrTasks; i++) {
+            final Partial partial = new Partial(
+                    (int) ((long) i * nrTriangles / nrTasks),
+                    (int) ((long) (i + 1) * nrTriangles / nrTasks));
+            partials[i] = partial;
+            tasks.add(new Callable<Object>() {
+
+                @Override
+                public Object call() {
+                    accumulate(mesh, partial);
+                    return null;
+                }
+            });
+        }
+        invokeAll(executor, tasks);
+
+        tasks.clear();
+        for (int i = 0; i < nrTasks; i++) {
+            final int start = (int) ((long) i * nrVertices / nrTasks);
+            final int end = (int) ((long) (i + 1) * nrVertices / nrTasks);
+            tasks.add(new Callable<Object>() {
+
+                @Override
+                public Object call() {
+                    reduce(mesh, partials, start, end);
+                    return null;
+                }
+            });
+        }
+        invokeAll(executor, tasks);
+    }
+
+    // Sums the triangle normals of the partial into its private buffer.
+    private static void accumulate(final Mesh mesh, final Partial partial) {
+        final FloatBuffer vertices = mesh.vertices();
+        final IntBuffer triangles = mesh.triangles();
+
+        // determine the vertex window of the triangle range
+        int first = Integer.MAX_VALUE;
+        int last = -1;
+        for (int i = 3 * partial.triangleStart; i < 3 * partial.triangleEnd; i++) {
+            first = Math.min(first, triangles.get(i));
+            last = Math.max(last, triangles.get(i));
+        }
+        partial.firstVertex = first;
+        partial.lastVertex = last;
+        partial.sums = new float[3 * Math.max(0, last - first + 1)];
+
+        final float[] sums = partial.sums;
+
+        for (int i = 3 * partial.triangleStart; i < 3 * partial.triangleEnd; i += 3) {
+            final int id0 = 3 * triangles.get(i);
+            final int id1 = 3 * triangles.get(i + 1);
+            final int id2 = 3 * triangles.get(i + 2);
+
+            final float x0 = vertices.get(id0);
+            final float y0 = vertices.get(id0 + 1);
+            final float z0 = vertices.get(id0 + 2);
+            final float x1 = vertices.get(id1) - x0;
+            final float y1 = vertices.get(id1 + 1) - y0;
+            final float z1 = vertices.get(id1 + 2) - z0;
+            final float x2 = vertices.get(id2) - x0;
+            final float y2 = vertices.get(id2 + 1) - y0;
+            final float z2 = vertices.get(id2 + 2) - z0;
+
+            // normal = (v2 - v0) x (v1 - v0)
+            final float nx = y2 * z1 - z2 * y1;
+            final float ny = z2 * x1 - x2 * z1;
+            final float nz = x2 * y1 - y2 * x1;
+
+            final int offset = 3 * first;
+            addNormal(sums, id0 - offset, nx, ny, nz);
+            addNormal(sums, id1 - offset, nx, ny, nz);
+            addNormal(sums, id2 - offset, nx, ny, nz);
+        }
+    }
+
+    private static void addNormal(float[] sums, int idx, float nx, float ny, float nz) {
+        sums[idx] += nx;
+        sums[idx + 1] += ny;
+        sums[idx + 2] += nz;
+    }
+
+    // Sums up the partials of the vertices [start, end) and normalizes the
+    // result.
+    private static void reduce(final Mesh mesh, final Partial[] partials,
+            final int start, final int end) {
+        final FloatBuffer normals = mesh.normals();
+
+        for (int v = start; v < end; v++) {
+            float nx = 0;
+            float ny = 0;
+            float nz = 0;
+
+            for (Partial p : partials) {
+                if (v >= p.firstVertex && v <= p.lastVertex) {
+                    final int idx = 3 * (v - p.firstVertex);
+                    nx += p.sums[idx];
+                    ny += p.sums[idx + 1];
+                    nz += p.sums[idx + 2];
+                }
+            }
+
+            final float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+            if (length > 0) {
+                nx /= length;
+                ny /= length;
+                nz /= length;
+            }
+
+            normals.put(3 * v, nx);
+            normals.put(3 * v + 1, ny);
+            normals.put(3 * v + 2, nz);
+        }
+    }
+
+    private static void invokeAll(ExecutorService executor,
+            List<Callable<Object>> tasks) throws InterruptedException {
+        for (Future<Object> f : executor.invokeAll(tasks)) {
+            try {
+                f.get();
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                }
+                throw new IllegalStateException(ex.getCause());
+            }
+        }
+    }
+}
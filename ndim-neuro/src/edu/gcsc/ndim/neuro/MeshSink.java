@@ -0,0 +1,66 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+import java.io.IOException;
+
+/**
+ * Receives a mesh piece by piece, e.g., from the streaming mode of
+ * {@link MarchingCubes}. Vertices are numbered consecutively in the order
+ * in which they are received, starting with <code>0</code>. Triangles only
+ * refer to vertices that have already been received.
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public interface MeshSink {
+
+    /**
+     * Adds vertices to the mesh. The array is reused by the caller, i.e.,
+     * it must not be referenced after this method returns.
+     * @param vertices packed vertex positions (<code>x, y, z</code>)
+     * @param nrVertices number of vertices to add
+     * @throws IOException if the vertices cannot be written
+     */
+    public void addVertices(float[] vertices, int nrVertices) throws IOException;
+
+    /**
+     * Adds triangles to the mesh. The array is reused by the caller, i.e.,
+     * it must not be referenced after this method returns.
+     * @param triangles packed vertex indices, three per triangle
+     * @param nrTriangles number of triangles to add
+     * @throws IOException if the triangles cannot be written
+     */
+    public void addTriangles(int[] triangles, int nrTriangles) throws IOException;
+
+    /**
+     * Indicates that the mesh is complete.
+     * @throws IOException if the mesh cannot be written
+     */
+    public void finish() throws IOException;
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Utility class that writes meshes to files. Supports Wavefront OBJ,
+ * legacy VTK (ASCII and binary), binary STL and binary PLY. All formats
+ * are written through a large buffer to a file channel.
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public class MeshWriter {
+
+    /**
+     * Writes the specified mesh as Wavefront OBJ file (vertices, normals
+     * and faces).
+     *
+     * @param mesh mesh to write
+     * @param f destination file
+     * @throws IOException if writing fails
+     */
+    public static void writeObj(final Mesh mesh, final File f) throws IOException {
+        final FileChannel channel = new FileOutputStream(f).getChannel();
+
+        try {
+            final ChannelOutput out = new ChannelOutput(channel);
+
+            writeVectors(out, "v ", mesh.vertices());
+            writeVectors(out, "vn ", mesh.normals());
+
+            final IntBuffer triangles = mesh.triangles();
+            for (int i = 0; i < triangles.limit(); i += 3) {
+                out.ascii("f ").ascii(triangles.get(i) + 1L).
+                        ascii(' ').ascii(triangles.get(i + 1) + 1L).
+                        ascii(' ').ascii(triangles.get(i + 2) + 1L).ascii('\n');
+            }
+
+            out.flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes the specified mesh as legacy VTK file (ASCII).
+     *
+     * @param mesh mesh to write
+     * @param f destination file
+     * @param dataSetName name of the data set
+     * @throws IOException if writing fails
+     */
+    public static void writeVTK(
+            final Mesh mesh, final File f, final String dataSetName) throws IOException {
+        final FileChannel channel = new FileOutputStream(f).getChannel();
+
+        try {
+            final ChannelOutput out = new ChannelOutput(channel);
+
+            out.ascii("# vtk DataFile Version 1.0\n");
+            out.ascii(dataSetName).ascii('\n');
+            out.ascii("ASCII\n\n");
+
+            out.ascii("DATASET POLYDATA\n");
+
+            // Write vertices
+            out.ascii("POINTS ").ascii(mesh.nrVertices()).ascii(" float\n");
+            writeVectors(out, "", mesh.vertices());
+
+            // Write triangles
+            out.ascii("POLYGONS ").ascii(mesh.nrTriangles()).
+                    ascii(' ').ascii(4L * mesh.nrTriangles()).ascii('\n');
+            final IntBuffer triangles = mesh.triangles();
+            for (int i = 0; i < triangles.limit(); i += 3) {
+                out.ascii("3 ").ascii(triangles.get(i)).
+                        ascii(' ').ascii(triangles.get(i + 1)).
+                        ascii(' ').ascii(triangles.get(i + 2)).ascii('\n');
+            }
+
+            out.flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes the specified mesh as legacy VTK file (binary, including the
+     * vertex normals).
+     *
+     * @param mesh mesh to write
+     * @param f destination file
+     * @param dataSetName name of the data set
+     * @throws IOException if writing fails
+     */
+    public static void writeVTKBinary(
+            final Mesh mesh, final File f, final String dataSetName) throws IOException {
+        final FileChannel channel = new FileOutputStream(f).getChannel();
+
+        try {
+            // legacy VTK files are big endian
+            final ChannelOutput out =
+                    new ChannelOutput(channel).order(ByteOrder.BIG_ENDIAN);
+
+            out.ascii("# vtk DataFile Version 3.0\n");
+            out.ascii(dataSetName).ascii('\n');
+            out.ascii("BINARY\n");
+
+            out.ascii("DATASET POLYDATA\n");
+
+            // Write vertices
+            out.ascii("POINTS ").ascii(mesh.nrVertices()).ascii(" float\n");
+            out.putFloats(mesh.vertices());
+            out.ascii('\n');
+
+            // Write triangles
+            out.ascii("POLYGONS ").ascii(mesh.nrTriangles()).
+                    ascii(' ').ascii(4L * mesh.nrTriangles()).ascii('\n');
+            final IntBuffer triangles = mesh.triangles();
+            for (int i = 0; i < triangles.limit(); i += 3) {
+                out.putInt(3).putInt(triangles.get(i)).
+                        putInt(triangles.get(i + 1)).putInt(triangles.get(i + 2));
+            }
+            out.ascii('\n');
+
+            // Write normals
+            out.ascii("POINT_DATA ").ascii(mesh.nrVertices()).ascii('\n');
+            out.ascii("NORMALS normals float\n");
+            out.putFloats(mesh.normals());
+            out.ascii('\n');
+
+            out.flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes the specified mesh as binary STL file. Facet normals are
+     * computed from the triangles. The vertices of each facet are written
+     * counter-clockwise with respect to the orientation of the mesh
+     * normals.
+     *
+     * @param mesh mesh to write
+     * @param f destination file
+     * @throws IOException if writing fails
+     */
+    public static void writeSTL(final Mesh mesh, final File f) throws IOException {
+        final FileChannel channel = new FileOutputStream(f).getChannel();
+
+        try {
+            final ChannelOutput out =
+                    new ChannelOutput(channel).order(ByteOrder.LITTLE_ENDIAN);
+
+            // 80 byte header
+            final String header = "binary STL written by ndim-neuro";
+            out.ascii(header);
+            for (int i = header.length(); i < 80; i++) {
+                out.put((byte) 0);
+            }
+
+            out.putInt(mesh.nrTriangles());
+
+            final FloatBuffer vertices = mesh.vertices();
+            final IntBuffer triangles = mesh.triangles();
+            for (int i = 0; i < triangles.limit(); i += 3) {
+                final int id0 = 3 * triangles.get(i);
+                final int id1 = 3 * triangles.get(i + 1);
+                final int id2 = 3 * triangles.get(i + 2);
+
+                final float x0 = vertices.get(id0);
+                final float y0 = vertices.get(id0 + 1);
+                final float z0 = vertices.get(id0 + 2);
+                final float x1 = vertices.get(id1) - x0;
+                final float y1 = vertices.get(id1 + 1) - y0;
+                final float z1 = vertices.get(id1 + 2) - z0;
+                final float x2 = vertices.get(id2) - x0;
+                final float y2 = vertices.get(id2 + 1) - y0;
+                final float z2 = vertices.get(id2 + 2) - z0;
+
+                // same orientation as the mesh normals: (v2 - v0) x (v1 - v0)
+                float nx = y2 * z1 - z2 * y1;
+                float ny = z2 * x1 - x2 * z1;
+                float nz = x2 * y1 - y2 * x1;
+                final float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+                if (length > 0) {
+                    nx /= length;
+                    ny /= length;
+                    nz /= length;
+                }
+
+                out.putFloat(nx).putFloat(ny).putFloat(nz);
+                writeVertex(out, vertices, id0);
+                writeVertex(out, vertices, id2);
+                writeVertex(out, vertices, id1);
+                out.putShort((short) 0);
+            }
+
+            out.flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes the specified mesh as binary little endian PLY file (vertices,
+     * normals and faces).
+     *
+     * @param mesh mesh to write
+     * @param f destination file
+     * @throws IOException if writing fails
+     */
+    public static void writePLY(final Mesh mesh, final File f) throws IOException {
+        final FileChannel channel = new FileOutputStream(f).getChannel();
+
+        try {
+            final ChannelOutput out =
+                    new ChannelOutput(channel).order(ByteOrder.LITTLE_ENDIAN);
+
+            out.ascii("ply\n");
+            out.ascii("format binary_little_endian 1.0\n");
+            out.ascii("element vertex ").ascii(mesh.nrVertices()).ascii('\n');
+            out.ascii("property float x\n");
+            out.ascii("property float y\n");
+            out.ascii("property float z\n");
+            out.ascii("property float nx\n");
+            out.ascii("property float ny\n");
+            out.ascii("property float nz\n");
+            out.ascii("element face ").ascii(mesh.nrTriangles()).ascii('\n');
+            out.ascii("property list uchar int vertex_indices\n");
+            out.ascii("end_header\n");
+
+            final FloatBuffer vertices = mesh.vertices();
+            final FloatBuffer normals = mesh.normals();
+            for (int i = 0; i < vertices.limit(); i += 3) {
+                writeVertex(out, vertices, i);
+                writeVertex(out, normals, i);
+            }
+
+            final IntBuffer triangles = mesh.triangles();
+            for (int i = 0; i < triangles.limit(); i += 3) {
+                out.put((byte) 3).putInt(triangles.get(i)).
+                        putInt(triangles.get(i + 1)).putInt(triangles.get(i + 2));
+            }
+
+            out.flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static void writeVertex(
+            ChannelOutput out, FloatBuffer values, int idx) throws IOException {
+        out.putFloat(values.get(idx)).
+                putFloat(values.get(idx + 1)).putFloat(values.get(idx + 2));
+    }
+
+    private static void writeVectors(
+            ChannelOutput out, String prefix, FloatBuffer values) throws IOException {
+        for (int i = 0; i < values.limit(); i += 3) {
+            out.ascii(prefix).ascii(values.get(i)).
+                    ascii(' ').ascii(values.get(i + 1)).
+                    ascii(' ').ascii(values.get(i + 2)).ascii('\n');
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+import java.util.Arrays;
+import org.ndim.GridTopo;
+
+/**
+ * Min/max index over blocks of cells of a volume. A block can only be
+ * intersected by an isosurface if its minimum sample is below and its
+ * maximum sample is not below the threshold. This allows
+ * {@link MarchingCubes} to skip empty regions of sparse volumes. The index
+ * does not depend on the threshold, i.e., it can be reused for different
+ * thresholds.
+ * <p>
+ * The index is hierarchical: besides the blocks it stores the range of
+ * each row of blocks (X direction) and of each layer of blocks.
+ * </p>
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public class MinMaxIndex {
+
+    /**
+     * Default block size (cells per direction).
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 8;
+    private final int[] extent;
+    private final int blockSize;
+    private final int[] nrBlocks;
+    private final byte[] blockMin;
+    private final byte[] blockMax;
+    private final byte[] rowMin;
+    private final byte[] rowMax;
+    private final byte[] layerMin;
+    private final byte[] layerMax;
+
+    /**
+     * Constructor. Builds the index with the default block size.
+     *
+     * @param volume volume to index
+     */
+    public MinMaxIndex(VolumeSource volume) {
+        this(volume, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Constructor. Builds the index by reading each plane of the volume
+     * once.
+     *
+     * @param volume volume to index
+     * @param blockSize number of cells per block and direction
+     */
+    public MinMaxIndex(VolumeSource volume, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException(
+                    "block size must be positive!");
+        }
+
+        this.extent = volume.extent();
+        this.blockSize = blockSize;
+
+        nrBlocks = new int[extent.length];
+        for (int i = 0; i < extent.length; i++) {
+            // blocks of cells, i.e., extent - 1 cells per direction
+            nrBlocks[i] = Math.max(0, (extent[i] - 1 + blockSize - 1) / blockSize);
+        }
+
+        final int nbx = nrBlocks[GridTopo.X];
+        final int nby = nrBlocks[GridTopo.Y];
+        final int nbz = nrBlocks[GridTopo.Z];
+
+        blockMin = filled(nbx * nby * nbz, Byte.MAX_VALUE);
+        blockMax = filled(nbx * nby * nbz, Byte.MIN_VALUE);
+        rowMin = filled(nby * nbz, Byte.MAX_VALUE);
+        rowMax = filled(nby * nbz, Byte.MIN_VALUE);
+        layerMin = filled(nbz, Byte.MAX_VALUE);
+        layerMax = filled(nbz, Byte.MIN_VALUE);
+
+        build(volume);
+    }
+
+    private static byte[] filled(int size, byte value) {
+        final byte[] result = new byte[size];
+        Arrays.fill(result, value);
+        return result;
+    }
+
+    // Returns the first block (in one direction) that contains the sample
+    // with the specified coordinate. A sample on a block boundary also
+    // belongs to the previous block.
+    private int firstBlock(int coord) {
+        return coord > 0 && coord % blockSize == 0
+                ? coord / blockSize - 1 : coord / blockSize;
+    }
+
+    private int lastBlock(int coord, int dim) {
+        return Math.min(coord / blockSize, nrBlocks[dim] - 1);
+    }
+
+    private void build(VolumeSource volume) {
+        final int nx = extent[GridTopo.X];
+        final int ny = extent[GridTopo.Y];
+        final int nz = extent[GridTopo.Z];
+        final int nbx = nrBlocks[GridTopo.X];
+        final int nby = nrBlocks[GridTopo.Y];
+
+        final byte[] plane = new byte[nx * ny];
+        // min/max of the blocks of the current plane
+        final byte[] planeMin = new byte[nbx * nby];
+        final byte[] planeMax = new byte[nbx * nby];
+        // blocks of the samples of a row
+        final int[] firstBlockX = new int[nx];
+        final int[] lastBlockX = new int[nx];
+        for (int x = 0; x < nx; x++) {
+            firstBlockX[x] = firstBlock(x);
+            lastBlockX[x] = lastBlock(x, GridTopo.X);
+        }
+
+        for (int z = 0; z < nz; z++) {
+            final int bz0 = firstBlock(z);
+            final int bz1 = lastBlock(z, GridTopo.Z);
+            if (bz0 > bz1) {
+                continue;
+            }
+
+            volume.readPlane(z, plane);
+            Arrays.fill(planeMin, Byte.MAX_VALUE);
+            Arrays.fill(planeMax, Byte.MIN_VALUE);
+
+            for (int y = 0; y < ny; y++) {
+                final int by0 = firstBlock(y);
+                final int by1 = lastBlock(y, GridTopo.Y);
+                for (int x = 0; x < nx; x++) {
+                    final byte v = plane[x + y * nx];
+                    for (int by = by0; by <= by1; by++) {
+                        for (int bx = firstBlockX[x]; bx <= lastBlockX[x]; bx++) {
+                            final int idx = bx + by * nbx;
+                            if (v < planeMin[idx]) {
+                                planeMin[idx] = v;
+                            }
+                            if (v > planeMax[idx]) {
+                                planeMax[idx] = v;
+                            }
+                        }
+                    }
+                }
+            }
+
+            for (int bz = bz0; bz <= bz1; bz++) {
+                for (int by = 0; by < nby; by++) {
+                    final int row = by + bz * nby;
+                    for (int bx = 0; bx < nbx; bx++) {
+                        final int idx = bx + by * nbx;
+                        final int block = idx + bz * nbx * nby;
+                        blockMin[block] = (byte) Math.min(blockMin[block], planeMin[idx]);
+                        blockMax[block] = (byte) Math.max(blockMax[block], planeMax[idx]);
+                        rowMin[row] = (byte) Math.min(rowMin[row], planeMin[idx]);
+                        rowMax[row] = (byte) Math.max(rowMax[row], planeMax[idx]);
+                    }
+                    layerMin[bz] = (byte) Math.min(layerMin[bz], rowMin[row]);
+                    layerMax[bz] = (byte) Math.max(layerMax[bz], rowMax[row]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the extent of the indexed volume.
+     * @return the extent of the indexed volume
+     */
+    public int[] extent() {
+        return extent.clone();
+    }
+
+    /**
+     * Returns the number of cells per block and direction.
+     * @return the block size
+     */
+    public int blockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Returns the number of blocks per direction.
+     * @return the number of blocks per direction
+     */
+    public int[] nrBlocks() {
+        return nrBlocks.clone();
+    }
+
+    private static boolean isActive(byte min, byte max, float threshold) {
+        return min < threshold && max >= threshold;
+    }
+
+    /**
+     * Indicates whether the specified block may contain the isosurface.
+     * @param bx block index in X direction
+     * @param by block index in Y direction
+     * @param bz block index in Z direction
+     * @param threshold threshold of the isosurface
+     * @return <code>true</code> if the block may contain the isosurface;
+     *         <code>false</code> otherwise
+     */
+    public boolean isBlockActive(int bx, int by, int bz, float threshold) {
+        final int idx = bx + nrBlocks[GridTopo.X] * (by + nrBlocks[GridTopo.Y] * bz);
+        return isActive(blockMin[idx], blockMax[idx], threshold);
+    }
+
+    /**
+     * Indicates whether the specified row of blocks may contain the
+     * isosurface.
+     * @param by block index in Y direction
+     * @param bz block index in Z direction
+     * @param threshold threshold of the isosurface
+     * @return <code>true</code> if the row may contain the isosurface;
+     *         <code>false</code> otherwise
+     */
+    public boolean isRowActive(int by, int bz, float threshold) {
+        final int idx = by + nrBlocks[GridTopo.Y] * bz;
+        return isActive(rowMin[idx], rowMax[idx], threshold);
+    }
+
+    /**
+     * Indicates whether the specified layer of blocks may contain the
+     * isosurface.
+     * @param bz block index in Z direction
+     * @param threshold threshold of the isosurface
+     * @return <code>true</code> if the layer may contain the isosurface;
+     *         <code>false</code> otherwise
+     */
+    public boolean isLayerActive(int bz, float threshold) {
+        return isActive(layerMin[bz], layerMax[bz], threshold);
+    }
+
+    /**
+     * Returns the fraction of blocks that may contain the isosurface.
+     * @param threshold threshold of the isosurface
+     * @return the fraction of active blocks
+     */
+    public double activeFraction(float threshold) {
+        int nrActive = 0;
+        for (int i = 0; i < blockMin.length; i++) {
+            if (isActive(blockMin[i], blockMax[i], threshold)) {
+                nrActive++;
+            }
+        }
+        return blockMin.length == 0 ? 0 : (double) nrActive / blockMin.length;
+    }
+}
@@ -30,9 +30,15 @@
 package edu.gcsc.ndim.neuro;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.nio.ByteBuffer;
-import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.ndim.DataContainer;
 
 /**
@@ -44,13 +50,34 @@ public class NdimNeuro {
     /**
      * @param args the command line arguments
      */
-    public static void main(String[] args) throws IOException {
+    public static void main(String[] args) throws IOException, InterruptedException {
         
-        if (args.length!=3) {
+        // --cones connects each sample to its parent by a truncated cone
+        boolean cones = args.length > 0 && args[0].equals("--cones");
+        
+        if (cones) {
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        
+        if (args.length > 0 && args[0].equals("--batch")) {
+            batch(args, cones);
+            return;
+        }
+        
+        // streaming the mesh saves memory but the obj file has no normals
+        boolean streamMesh = args.length > 0 && args[0].equals("--stream-mesh");
+        
+        if (streamMesh) {
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        
+        if (args.length!=3 && args.length!=4) {
             System.err.println(
                     ">> wrong number of arguments!");
             System.err.println(
-                    ">> Usage: java -jar neighbours ndim-neuro.jar input.swc output.tiff");
+                    ">> Usage: java -jar ndim-neuro.jar [--cones] [--stream-mesh] neighbours input.swc output.tiff [spacing]");
+            System.err.println(
+                    ">>        java -jar ndim-neuro.jar [--cones] --batch neighbours input-dir|manifest output-dir [threads] [spacing]");
             System.exit(1);
         }
         
@@ -66,25 +93,113 @@ public class NdimNeuro {
         // now we define a voxel processor that includes neighbour voxels
         AbstractEntityProcessor p = new AddNeigboursProcessor(Integer.parseInt(args[0]));
         
-        // render swc file to ndim data container
-        DataContainer cnt = 
-                SWC2Image.renderSWCFile(
-                new File(args[1]),
-//                p, po2c);
-                p, null);
+        // voxel spacing (optional), e.g., 2 renders one voxel per 2 microns
+        RenderConfig config = new RenderConfig();
+        config.setRasterizeSegments(cones);
         
-        // write data container to tiff file
-        SWC2Image.container2Image(
-                cnt, new File(args[2]), "tiff");
+        if (args.length == 4) {
+            float spacing = Float.parseFloat(args[3]);
+            config.setSpacing(spacing, spacing, spacing);
+        }
         
-        // create grid
-        MarchingCubes mc = new MarchingCubes(0.0f, 1, 1, 1);
+        // the mesh is written next to the tiff file, both files are renamed
+        // when complete, i.e., a failed render does not leave truncated files
+        File tiffFile = new File(args[2]);
+        File objFile = new File(tiffFile.getAbsoluteFile().getParentFile(),
+                tiffFile.getName().replaceFirst("\\.[^.]*$", "") + ".obj");
+        File partTiff = new File(tiffFile.getPath() + ".part");
+        File partObj = new File(objFile.getPath() + ".part");
         
-        ByteBuffer buffer = (ByteBuffer) cnt.layer(0).v2;
+        int nrThreads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+        OutputStream meshOut = null;
         
+        try {
+            // render swc file to ndim data container, the tiff file (and the
+            // streamed mesh) are written while the slabs are rendered
+            RenderPipeline pipeline = new RenderPipeline(executor, 4 * nrThreads);
+            pipeline.setProcessor(p);
+//            pipeline.setSizeConstraint(po2c);
+            pipeline.setRenderConfig(config);
+            pipeline.setTiffOutput(partTiff, TiffWriter.Compression.NONE);
+            
+            if (streamMesh) {
+                meshOut = new FileOutputStream(partObj);
+                pipeline.setMeshSink(new ObjMeshSink(meshOut));
+            }
+            
+            DataContainer cnt = pipeline.run(new File(args[1]));
+            
+            if (streamMesh) {
+                meshOut.close();
+                meshOut = null;
+            } else {
+                // create isosurface (including normals) and save it as obj
+                MarchingCubes mc = new MarchingCubes(0, 1, 1, 1);
+                config.apply(mc);
+                mc.exec(cnt.gridTopo(), cnt.layer(0).v1,
+                        ((ByteBuffer) cnt.layer(0).v2).array(), executor);
+                MeshWriter.writeObj(mc.getMesh(), partObj);
+            }
+            
+            rename(partTiff, tiffFile);
+            rename(partObj, objFile);
+        } finally {
+            if (meshOut != null) {
+                meshOut.close();
+            }
+            partTiff.delete();
+            partObj.delete();
+            executor.shutdown();
+        }
+    }
+    
+    private static void rename(File from, File to) throws IOException {
+        to.delete();
+        if (!from.renameTo(to)) {
+            throw new IOException("cannot rename " + from + " to " + to);
+        }
+    }
+    
+    /**
+     * Converts a directory (or a manifest) of SWC files.
+     * @param args the command line arguments (starting with --batch)
+     * @param cones defines whether to rasterize segments as truncated cones
+     */
+    private static void batch(String[] args, boolean cones) throws IOException, InterruptedException {
+        
+        if (args.length < 4 || args.length > 6) {
+            System.err.println(
+                    ">> wrong number of arguments!");
+            System.err.println(
+                    ">> Usage: java -jar ndim-neuro.jar [--cones] --batch neighbours input-dir|manifest output-dir [threads] [spacing]");
+            System.exit(1);
+        }
         
-        mc.exec(cnt.gridTopo(), cnt.layer(0).v1, buffer.array());
+        BatchConverter converter = new BatchConverter(new File(args[3]));
+        converter.setCubeSize(Integer.parseInt(args[1]));
+        converter.setRasterizeSegments(cones);
         
-        mc.writeSurfaceObj("/Users/miho/out.obj");
+        if (args.length > 4) {
+            converter.setNrThreads(Integer.parseInt(args[4]));
+        }
+        
+        if (args.length > 5) {
+            float spacing = Float.parseFloat(args[5]);
+            converter.setSpacing(spacing, spacing, spacing);
+        }
+        
+        List<BatchConverter.Result> results = 
+                converter.convert(BatchConverter.collectInputs(new File(args[2])));
+        
+        // summary to the console and to the output directory
+        BatchConverter.printSummary(results, System.out);
+        
+        PrintStream summary = new PrintStream(new File(args[3], "summary.csv"), "UTF-8");
+        try {
+            BatchConverter.printSummary(results, summary);
+        } finally {
+            summary.close();
+        }
     }
 }
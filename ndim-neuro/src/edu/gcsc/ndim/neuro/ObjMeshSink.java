@@ -0,0 +1,77 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+
+/**
+ * Mesh sink that writes the received mesh as Wavefront OBJ (vertices and
+ * faces) to an output stream, e.g., a file or a socket. The stream is
+ * flushed but not closed by {@link #finish()}.
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public class ObjMeshSink implements MeshSink {
+
+    private final ChannelOutput out;
+
+    /**
+     * Constructor.
+     *
+     * @param out stream to write to
+     */
+    public ObjMeshSink(OutputStream out) {
+        this.out = new ChannelOutput(Channels.newChannel(out));
+    }
+
+    @Override
+    public void addVertices(float[] vertices, int nrVertices) throws IOException {
+        for (int i = 0; i < 3 * nrVertices; i += 3) {
+            out.ascii("v ").ascii(vertices[i]).
+                    ascii(' ').ascii(vertices[i + 1]).
+                    ascii(' ').ascii(vertices[i + 2]).ascii('\n');
+        }
+    }
+
+    @Override
+    public void addTriangles(int[] triangles, int nrTriangles) throws IOException {
+        for (int i = 0; i < 3 * nrTriangles; i += 3) {
+            out.ascii("f ").ascii(triangles[i] + 1L).
+                    ascii(' ').ascii(triangles[i + 1] + 1L).
+                    ascii(' ').ascii(triangles[i + 2] + 1L).ascii('\n');
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        out.flush();
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+import org.ndim.GridTopo;
+
+/**
+ * Volume source whose planes become available one slab after another,
+ * e.g., while a volume is being rendered. Reading a plane blocks until
+ * the plane has been published via {@link #publish(int, int) }. This
+ * allows consumers like {@link TiffWriter} or the streaming mode of
+ * {@link MarchingCubes} to run concurrently with the producer.
+ *
+ * <p>The producer calls {@link #init(edu.gcsc.ndim.neuro.VolumeSource) }
+ * once the volume has been allocated, publishes planes whose samples
+ * will not change anymore and calls {@link #fail(java.lang.Throwable) }
+ * if it cannot complete the volume.</p>
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public class ProgressiveVolumeSource implements VolumeSource {
+
+    private VolumeSource volume;
+    private boolean[] published;
+    private int nrPublished;
+    private Throwable failure;
+
+    /**
+     * Defines the volume that is filled by the producer.
+     * @param volume volume to read published planes from
+     */
+    public synchronized void init(VolumeSource volume) {
+        if (this.volume != null) {
+            throw new IllegalStateException("volume already initialized!");
+        }
+
+        this.volume = volume;
+        this.published = new boolean[volume.extent()[GridTopo.Z]];
+        notifyAll();
+    }
+
+    /**
+     * Publishes the specified planes, i.e., their samples are final.
+     * @param zStart first plane (inclusive)
+     * @param zEnd last plane (exclusive)
+     */
+    public synchronized void publish(int zStart, int zEnd) {
+        if (volume == null) {
+            throw new IllegalStateException("volume not initialized!");
+        }
+
+        for (int z = zStart; z < zEnd; z++) {
+            if (!published[z]) {
+                published[z] = true;
+                nrPublished++;
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Publishes all planes.
+     */
+    public void publishAll() {
+        publish(0, extent()[GridTopo.Z]);
+    }
+
+    /**
+     * Indicates that the producer failed. Consumers that wait for planes
+     * throw an exception.
+     * @param failure cause of the failure
+     */
+    public synchronized void fail(Throwable failure) {
+        this.failure = failure;
+        notifyAll();
+    }
+
+    /**
+     * Indicates whether all planes have been published.
+     * @return <code>true</code> if all planes have been published;
+     *         <code>false</code> otherwise
+     */
+    public synchronized boolean isComplete() {
+        return volume != null && nrPublished == published.length;
+    }
+
+    /**
+     * Returns the extent of the volume. Blocks until the volume has been
+     * initialized.
+     * @return the extent of the volume
+     */
+    @Override
+    public int[] extent() {
+        return await(-1).extent();
+    }
+
+    /**
+     * Copies the specified plane to the destination array. Blocks until
+     * the plane has been published.
+     * @param z Z coordinate of the plane
+     * @param dst destination array
+     */
+    @Override
+    public void readPlane(int z, byte[] dst) {
+        await(z).readPlane(z, dst);
+    }
+
+    // waits until the volume is initialized and the specified plane is
+    // published (-1 only waits for the initialization)
+    private synchronized VolumeSource await(int z) {
+        try {
+            while (failure == null
+                    && (volume == null || (z >= 0 && !published[z]))) {
+                wait();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(
+                    "interrupted while waiting for plane " + z, ex);
+        }
+
+        if (failure != null) {
+            throw new IllegalStateException(
+                    "volume cannot be completed", failure);
+        }
+
+        return volume;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+/**
+ * Render configuration, i.e., voxel spacing and origin. The center of
+ * voxel <code>(i,j,k)</code> is located at
+ * <code>origin + (i,j,k) * spacing</code> in morphology coordinates.
+ *
+ * <p>If no origin is defined it is computed from the bounding box of the
+ * morphology. The origin that has been used for rendering is available
+ * via {@link #getEffectiveOrigin() }.</p>
+ *
+ * <p>By default each sample is painted as a single voxel. If segment
+ * rasterization is enabled, each sample is connected to its parent by a
+ * truncated cone that uses the radius column (see {@link SWCRasterizer}).</p>
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public class RenderConfig {
+
+    private final float[] spacing = {1, 1, 1};
+    private float[] origin;
+    private final float[] effectiveOrigin = new float[3];
+    private boolean rasterizeSegments;
+
+    /**
+     * Returns the voxel spacing.
+     * @return the voxel spacing
+     */
+    public float[] getSpacing() {
+        return spacing.clone();
+    }
+
+    /**
+     * Defines the voxel spacing (default is <code>1,1,1</code>, i.e., one
+     * voxel per micron).
+     * @param sx spacing in x direction
+     * @param sy spacing in y direction
+     * @param sz spacing in z direction
+     */
+    public void setSpacing(float sx, float sy, float sz) {
+        if (!(sx > 0) || !(sy > 0) || !(sz > 0)) {
+            throw new IllegalArgumentException(
+                    "spacing must be positive: " + sx + ", " + sy + ", " + sz);
+        }
+
+        spacing[0] = sx;
+        spacing[1] = sy;
+        spacing[2] = sz;
+    }
+
+    /**
+     * Returns the origin.
+     * @return the origin or <code>null</code> if the origin is computed
+     *         from the bounding box
+     */
+    public float[] getOrigin() {
+        return origin == null ? null : origin.clone();
+    }
+
+    /**
+     * Defines the origin, i.e., the location of voxel <code>(0,0,0)</code>.
+     * Samples below the origin are not rendered.
+     * @param x x coordinate
+     * @param y y coordinate
+     * @param z z coordinate
+     */
+    public void setOrigin(float x, float y, float z) {
+        origin = new float[]{x, y, z};
+    }
+
+    /**
+     * Removes the origin, i.e., the origin is computed from the bounding
+     * box of the morphology.
+     */
+    public void clearOrigin() {
+        origin = null;
+    }
+
+    /**
+     * Indicates whether segments are rasterized as truncated cones.
+     * @return <code>true</code> if segments are rasterized;
+     *         <code>false</code> if each sample is painted as a single voxel
+     */
+    public boolean isRasterizeSegments() {
+        return rasterizeSegments;
+    }
+
+    /**
+     * Defines whether segments are rasterized as truncated cones (default
+     * is <code>false</code>). The volume has a free border of one voxel
+     * around the cones, i.e., the surface is closed.
+     * @param rasterizeSegments defines whether to rasterize segments
+     */
+    public void setRasterizeSegments(boolean rasterizeSegments) {
+        this.rasterizeSegments = rasterizeSegments;
+    }
+
+    /**
+     * Returns the origin that has been used by the last render call.
+     * @return the effective origin
+     */
+    public float[] getEffectiveOrigin() {
+        return effectiveOrigin.clone();
+    }
+
+    void setEffectiveOrigin(float x, float y, float z) {
+        effectiveOrigin[0] = x;
+        effectiveOrigin[1] = y;
+        effectiveOrigin[2] = z;
+    }
+
+    /**
+     * Configures the specified marching cubes instance, i.e., sets grid
+     * spacing and offset such that meshes are created in morphology
+     * coordinates.
+     * @param mc marching cubes instance to configure
+     */
+    public void apply(MarchingCubes mc) {
+        mc.setGridSpacing(spacing);
+        mc.setOffset(effectiveOrigin);
+    }
+
+    /**
+     * Configures the specified rasterizer, i.e., sets spacing and origin
+     * such that voxels are located as defined by this configuration.
+     * @param rasterizer rasterizer to configure
+     */
+    public void apply(SWCRasterizer rasterizer) {
+        rasterizer.setSpacing(spacing[0], spacing[1], spacing[2]);
+        rasterizer.setOrigin(
+                effectiveOrigin[0], effectiveOrigin[1], effectiveOrigin[2]);
+    }
+}
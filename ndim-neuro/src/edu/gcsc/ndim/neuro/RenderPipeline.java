@@ -0,0 +1,282 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.ndim.DataContainer;
+
+/**
+ * Renders an SWC file and writes the rendered volume to a TIFF file and
+ * its isosurface to a mesh sink concurrently. The renderer publishes
+ * z-slabs as soon as they are final (see {@link ProgressiveVolumeSource}),
+ * the TIFF writer and the streaming mode of {@link MarchingCubes} consume
+ * the planes in order on their own threads. Hence the total time is
+ * close to the time of the slowest stage rather than to the sum of all
+ * stages.
+ *
+ * <p>Example:</p>
+ * <pre>
+ * RenderPipeline pipeline = new RenderPipeline(executor, 16);
+ * pipeline.setProcessor(new AddNeigboursProcessor(2));
+ * pipeline.setTiffOutput(new File("out.tif"), TiffWriter.Compression.LZW);
+ * pipeline.setMeshSink(new ObjMeshSink(new FileOutputStream("out.obj")));
+ * pipeline.run(new File("in.swc"));
+ * </pre>
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public class RenderPipeline {
+
+    private final ExecutorService executor;
+    private final int nrSlabs;
+    private EntityProcessor processor;
+    private SizeContraint sizeConstraint;
+    private RenderConfig config = new RenderConfig();
+    private File tiffFile;
+    private TiffWriter.Compression compression = TiffWriter.Compression.NONE;
+    private int nrTiffThreads = 1;
+    private MeshSink meshSink;
+    private float threshold;
+
+    /**
+     * Constructor.
+     *
+     * @param executor executor that renders the slabs
+     * @param nrSlabs number of slabs, more slabs allow the consumers to
+     *                start earlier
+     */
+    public RenderPipeline(ExecutorService executor, int nrSlabs) {
+        if (nrSlabs < 1) {
+            throw new IllegalArgumentException(
+                    "at least one slab is required!");
+        }
+
+        this.executor = executor;
+        this.nrSlabs = nrSlabs;
+    }
+
+    /**
+     * Defines the processor that manipulates the rendered voxels. Slabs
+     * can only be consumed before the whole volume has been rendered if
+     * all processors of the chain implement {@link SlabEntityProcessor}.
+     * @param processor processor (may be <code>null</code>)
+     */
+    public void setProcessor(EntityProcessor processor) {
+        this.processor = processor;
+    }
+
+    /**
+     * Defines the size constraint of the rendered volume.
+     * @param sc size constraint (may be <code>null</code>)
+     */
+    public void setSizeConstraint(SizeContraint sc) {
+        this.sizeConstraint = sc;
+    }
+
+    /**
+     * Returns the render configuration. The mesh is created in morphology
+     * coordinates as defined by this configuration.
+     * @return the render configuration
+     */
+    public RenderConfig getRenderConfig() {
+        return config;
+    }
+
+    /**
+     * Defines the render configuration.
+     * @param config render configuration
+     */
+    public void setRenderConfig(RenderConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Defines the TIFF file the volume is written to.
+     * @param f destination file (may be <code>null</code>, i.e., no TIFF
+     *          file is written)
+     * @param compression compression of the image data
+     */
+    public void setTiffOutput(File f, TiffWriter.Compression compression) {
+        this.tiffFile = f;
+        this.compression = compression;
+    }
+
+    /**
+     * Defines the number of threads that compress TIFF planes (default is
+     * <code>1</code>, i.e., the planes are compressed by the writer
+     * thread).
+     * @param nrThreads number of threads
+     */
+    public void setNrTiffThreads(int nrThreads) {
+        if (nrThreads < 1) {
+            throw new IllegalArgumentException(
+                    "at least one thread is required!");
+        }
+        this.nrTiffThreads = nrThreads;
+    }
+
+    /**
+     * Defines the sink that receives the isosurface of the volume.
+     * @param sink mesh sink (may be <code>null</code>, i.e., no mesh is
+     *             created)
+     */
+    public void setMeshSink(MeshSink sink) {
+        this.meshSink = sink;
+    }
+
+    /**
+     * Defines the isosurface threshold (default is <code>0</code>).
+     * @param threshold isosurface threshold
+     */
+    public void setThreshold(float threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Runs the pipeline.
+     *
+     * @param f SWC file to render
+     * @return data container that contains the rendered file
+     * @throws IOException if reading or writing fails
+     * @throws InterruptedException if interrupted while waiting for the
+     *         stages
+     */
+    public DataContainer run(File f) throws IOException, InterruptedException {
+        return run(f, null);
+    }
+
+    /**
+     * Runs the pipeline.
+     *
+     * @param f SWC file to render
+     * @param stats import statistics (may be <code>null</code>)
+     * @return data container that contains the rendered file
+     * @throws IOException if reading or writing fails
+     * @throws InterruptedException if interrupted while waiting for the
+     *         stages
+     */
+    public DataContainer run(File f, SWCImportStatistics stats)
+            throws IOException, InterruptedException {
+
+        final ProgressiveVolumeSource volume = new ProgressiveVolumeSource();
+        final long start = System.currentTimeMillis();
+
+        // consumers block on planes that have not been rendered yet, hence
+        // they must not run on the render executor
+        final ExecutorService stages = Executors.newCachedThreadPool();
+        final ExecutorService encoder = tiffFile != null && nrTiffThreads > 1
+                ? Executors.newFixedThreadPool(nrTiffThreads) : null;
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+        try {
+            if (tiffFile != null) {
+                futures.add(stages.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        SWC2Image.volume2Tiff(volume, tiffFile, compression, encoder);
+                        printTime("tiff", start);
+                        return null;
+                    }
+                }));
+            }
+
+            if (meshSink != null) {
+                futures.add(stages.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        // waits for the container, i.e., the effective
+                        // origin is known
+                        volume.extent();
+                        final MarchingCubes mc = new MarchingCubes(threshold, 1, 1, 1);
+                        config.apply(mc);
+                        mc.exec(volume, meshSink);
+                        printTime("mesh", start);
+                        return null;
+                    }
+                }));
+            }
+
+            final DataContainer cnt;
+            try {
+                cnt = SWC2Image.renderSWCFile(f, processor, sizeConstraint,
+                        stats, config, executor, nrSlabs, volume);
+            } catch (IOException ex) {
+                volume.fail(ex);
+                throw ex;
+            } catch (RuntimeException ex) {
+                volume.fail(ex);
+                throw ex;
+            } catch (InterruptedException ex) {
+                volume.fail(ex);
+                throw ex;
+            }
+
+            printTime("render", start);
+
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof IOException) {
+                        throw (IOException) ex.getCause();
+                    }
+                    if (ex.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) ex.getCause();
+                    }
+                    throw new IllegalStateException(ex.getCause());
+                }
+            }
+
+            printTime("total", start);
+
+            return cnt;
+        } finally {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+            stages.shutdown();
+            if (encoder != null) {
+                encoder.shutdown();
+            }
+        }
+    }
+
+    private static void printTime(String stage, long start) {
+        System.out.println(">> " + stage + " finished after "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+}
@@ -28,22 +28,38 @@
  */
 package edu.gcsc.ndim.neuro;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import org.ndim.improc.Point3i;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import org.ndim.*;
 
 /**
  * Utility class that allows to write SWC files to images.
  *
+ * <p>Samples are painted as single voxels unless segment rasterization is
+ * enabled in the {@link RenderConfig}. Then each sample is connected to
+ * its parent by a truncated cone (see {@link SWCRasterizer}). Processors
+ * are called for the voxels of the samples in both cases.</p>
+ *
+ * <p>Duplicate voxels are detected with a {@link VoxelHashSet}, hence
+ * voxel coordinates (after applying spacing and origin) are limited to
+ * <code>[-2^20, 2^20)</code>.</p>
+ *
  * @author Michael Hoffer <info@michaelhoffer.de>
  */
 public class SWC2Image {
 
+    // bounds the memory of planes that are encoded but not written yet
+    private static final int MAX_PENDING_PLANES = 32;
+    private static final long MAX_PENDING_BYTES = 64L << 20;
+
     /**
      * Writes the specified data container to an image file.
      *
@@ -62,6 +78,110 @@ public class SWC2Image {
         wr.write(cnt);
     }
 
+    /**
+     * Writes the specified data container to a multi-page TIFF file, one
+     * page per z-plane (see {@link #volume2Tiff(
+     * edu.gcsc.ndim.neuro.VolumeSource, java.io.File,
+     * edu.gcsc.ndim.neuro.TiffWriter.Compression,
+     * java.util.concurrent.ExecutorService) }).
+     *
+     * @param cnt container to write
+     * @param out image destination
+     * @param compression compression of the image data
+     * @param executor executor that encodes the planes (may be
+     *                 <code>null</code>)
+     * @throws IOException if writing fails
+     * @throws InterruptedException if interrupted while waiting for the
+     *         encoding tasks
+     */
+    public static void container2Tiff(
+            final DataContainer cnt, final File out,
+            TiffWriter.Compression compression, ExecutorService executor)
+            throws IOException, InterruptedException {
+        volume2Tiff(new ArrayVolumeSource(cnt.gridTopo(), cnt.layer(0).v1,
+                ((ByteBuffer) cnt.layer(0).v2).array()),
+                out, compression, executor);
+    }
+
+    /**
+     * Writes the specified volume to a multi-page TIFF file, one page per
+     * z-plane. The volume is streamed plane by plane, i.e., it does not
+     * have to be in memory, e.g., a {@link BrickedVolume} is written
+     * without creating a dense container. If an executor is specified,
+     * planes are read and compressed by the executor while the calling
+     * thread writes the pages that are ready. Files that may exceed 4 GB
+     * are written as BigTIFF.
+     *
+     * @param volume volume to write
+     * @param out image destination
+     * @param compression compression of the image data
+     * @param executor executor that encodes the planes (may be
+     *                 <code>null</code>)
+     * @throws IOException if writing fails
+     * @throws InterruptedException if interrupted while waiting for the
+     *         encoding tasks
+     */
+    public static void volume2Tiff(
+            final VolumeSource volume, final File out,
+            TiffWriter.Compression compression, ExecutorService executor)
+            throws IOException, InterruptedException {
+        System.out.println(">> writing volume to tiff file: " + out);
+
+        final int[] extent = volume.extent();
+        final int nz = extent[GridTopo.Z];
+        final int planeSize = extent[GridTopo.X] * extent[GridTopo.Y];
+
+        final TiffWriter writer = new TiffWriter(out,
+                extent[GridTopo.X], extent[GridTopo.Y], nz, compression);
+
+        try {
+            if (executor == null) {
+                final byte[] plane = new byte[planeSize];
+                for (int z = 0; z < nz; z++) {
+                    volume.readPlane(z, plane);
+                    writer.writePlane(plane);
+                }
+                return;
+            }
+
+            // planes that are encoded but not written yet
+            final int window = (int) Math.max(2, Math.min(
+                    MAX_PENDING_PLANES, MAX_PENDING_BYTES / Math.max(1, planeSize)));
+            final ArrayDeque<Future<TiffWriter.Page>> pending =
+                    new ArrayDeque<Future<TiffWriter.Page>>();
+
+            try {
+                int next = 0;
+                for (int z = 0; z < nz; z++) {
+                    while (next < nz && pending.size() < window) {
+                        final int planeZ = next++;
+                        pending.add(executor.submit(new Callable<TiffWriter.Page>() {
+                            @Override
+                            public TiffWriter.Page call() {
+                                final byte[] plane = new byte[planeSize];
+                                volume.readPlane(planeZ, plane);
+                                return writer.encode(plane);
+                            }
+                        }));
+                    }
+
+                    writer.write(pending.poll().get());
+                }
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                }
+                throw new IllegalStateException(ex.getCause());
+            } finally {
+                for (Future<TiffWriter.Page> future : pending) {
+                    future.cancel(true);
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
     /**
      * Renders the specified SWC file.
      *
@@ -69,69 +189,533 @@ public class SWC2Image {
      * @param processor processor that can manipulate data entity-wise
      * @return data container that contains the rendered file
      * @throws IOException if an error occured while reading the specified file
+     * @throws IllegalArgumentException if a sample is mapped to a voxel
+     *         coordinate outside of <code>[-2^20, 2^20)</code> (see
+     *         {@link VoxelHashSet#MIN_COORD}, {@link VoxelHashSet#MAX_COORD})
      */
     public static DataContainer renderSWCFile(
             final File f, EntityProcessor processor, SizeContraint sc) throws IOException {
+        return renderSWCFile(f, processor, sc, null);
+    }
 
-        StringBuilder builder = new StringBuilder();
-        BufferedReader reader = null;
+    /**
+     * Renders the specified SWC file. Samples that are mapped to the same
+     * voxel are only painted (and processed) once.
+     *
+     * @param f file to render
+     * @param processor processor that can manipulate data entity-wise
+     * @param sc size constraint (may be <code>null</code>)
+     * @param stats import statistics, e.g., the number of duplicate samples,
+     *              are written to this object (may be <code>null</code>)
+     * @return data container that contains the rendered file
+     * @throws IOException if an error occured while reading the specified file
+     * @throws IllegalArgumentException if a sample is mapped to a voxel
+     *         coordinate outside of <code>[-2^20, 2^20)</code> (see
+     *         {@link VoxelHashSet#MIN_COORD}, {@link VoxelHashSet#MAX_COORD})
+     */
+    public static DataContainer renderSWCFile(
+            final File f, EntityProcessor processor, SizeContraint sc,
+            SWCImportStatistics stats) throws IOException {
+        return renderSWCFile(f, processor, sc, stats, (RenderConfig) null);
+    }
 
-        IOException exception = null;
+    /**
+     * Renders the specified SWC file with the specified voxel spacing and
+     * origin. Samples that are mapped to the same voxel are only painted
+     * (and processed) once. The origin that has been used is written to
+     * the render configuration, use
+     * {@link RenderConfig#apply(edu.gcsc.ndim.neuro.MarchingCubes) } to
+     * create meshes in morphology coordinates.
+     *
+     * @param f file to render
+     * @param processor processor that can manipulate data entity-wise
+     * @param sc size constraint (may be <code>null</code>)
+     * @param stats import statistics (may be <code>null</code>)
+     * @param config render configuration (may be <code>null</code>, i.e.,
+     *               one voxel per micron)
+     * @return data container that contains the rendered file
+     * @throws IOException if an error occured while reading the specified file
+     * @throws IllegalArgumentException if a sample is mapped to a voxel
+     *         coordinate outside of <code>[-2^20, 2^20)</code> (see
+     *         {@link VoxelHashSet#MIN_COORD}, {@link VoxelHashSet#MAX_COORD})
+     */
+    public static DataContainer renderSWCFile(
+            final File f, EntityProcessor processor, SizeContraint sc,
+            SWCImportStatistics stats, RenderConfig config) throws IOException {
+        return renderSWC(read(f), processor, sc, stats, config);
+    }
 
-        try {
-            System.out.println(">> reading file: " + f);
-            reader = new BufferedReader(new FileReader(f));
+    /**
+     * Renders the specified morphology (see {@link #renderSWCFile(
+     * java.io.File, edu.gcsc.ndim.neuro.EntityProcessor,
+     * edu.gcsc.ndim.neuro.SizeContraint,
+     * edu.gcsc.ndim.neuro.SWCImportStatistics,
+     * edu.gcsc.ndim.neuro.RenderConfig) }).
+     *
+     * @param morphology morphology to render
+     * @param processor processor that can manipulate data entity-wise
+     * @param sc size constraint (may be <code>null</code>)
+     * @param stats import statistics (may be <code>null</code>)
+     * @param config render configuration (may be <code>null</code>)
+     * @return data container that contains the rendered morphology
+     * @throws IllegalArgumentException if a sample is mapped to a voxel
+     *         coordinate outside of <code>[-2^20, 2^20)</code> (see
+     *         {@link VoxelHashSet#MIN_COORD}, {@link VoxelHashSet#MAX_COORD})
+     */
+    public static DataContainer renderSWC(
+            final SWCMorphology morphology, EntityProcessor processor,
+            SizeContraint sc, SWCImportStatistics stats, RenderConfig config) {
+
+        final RenderInput input = prepare(morphology, sc, stats, config, true);
+        final DataContainer cnt = input.cnt;
+        final int[] values = input.positions;
+        final int nrValues = input.count;
+
+        final GridTopo gridTopo = cnt.gridTopo();
+        final MemTopo memTopo = cnt.layer(0).v1;
+        final AddrOp addrOp = new AddrOp(gridTopo, memTopo);
+        final byte[] data = ((ByteBuffer) cnt.layer(0).v2).array();
+        final int[] pos = new int[gridTopo.nrDims()];
+
+        if (input.config.isRasterizeSegments()) {
+            System.out.println(">> rasterizing " + morphology.size()
+                    + " segments");
+
+            final SWCRasterizer rasterizer =
+                    new SWCRasterizer(gridTopo, memTopo, data);
+            input.config.apply(rasterizer);
+            rasterizer.rasterize(morphology);
+        } else {
+            System.out.println(">> writing values to data-container");
+
+            for (int i = 0; i < nrValues; i++) {
+
+                pos[0] = values[i * 3];
+                pos[1] = values[i * 3 + 1];
+                pos[2] = values[i * 3 + 2];
+
+                final int idx = addrOp.addr(pos, 0);
+
+//                int idx = gridTopo.addr(pos)
+//                        * memTopo.tupleIncr() + memTopo.elementIncr(0);
 
-            while (reader.ready()) {
-                builder.append(reader.readLine()).append("\n");
+                data[idx] = (byte) 255;
             }
+        }
 
-        } catch (IOException ex) {
-            exception = ex;
-        } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException ex) {
-                    //
+        if (processor != null) {
+            // process
+            AbstractEntityProcessor.processAll(processor, cnt, values, nrValues);
+        }
+
+        return cnt;
+    }
+
+    /**
+     * Renders the specified SWC file in parallel. The container is split
+     * into z-slabs that are painted by different tasks. Each task
+     * processes the voxels of its slab and of its halo (see
+     * {@link SlabEntityProcessor#getHalo() }) but only writes to its own
+     * slab, i.e., no locking is necessary. The result is identical to
+     * {@link #renderSWCFile(java.io.File, edu.gcsc.ndim.neuro.EntityProcessor,
+     * edu.gcsc.ndim.neuro.SizeContraint, edu.gcsc.ndim.neuro.SWCImportStatistics)}.
+     *
+     * <p>If the processor chain contains processors that do not implement
+     * {@link SlabEntityProcessor} only the voxels are painted in parallel,
+     * the processors are called afterwards from the calling thread.</p>
+     *
+     * @param f file to render
+     * @param processor processor that can manipulate data entity-wise
+     * @param sc size constraint (may be <code>null</code>)
+     * @param stats import statistics (may be <code>null</code>)
+     * @param executor executor that runs the slab tasks
+     * @param nrSlabs number of slabs
+     * @return data container that contains the rendered file
+     * @throws IOException if an error occured while reading the specified file
+     * @throws InterruptedException if interrupted while waiting for the
+     *         slab tasks
+     * @throws IllegalArgumentException if a sample is mapped to a voxel
+     *         coordinate outside of <code>[-2^20, 2^20)</code> (see
+     *         {@link VoxelHashSet#MIN_COORD}, {@link VoxelHashSet#MAX_COORD})
+     */
+    public static DataContainer renderSWCFile(
+            final File f, final EntityProcessor processor, SizeContraint sc,
+            SWCImportStatistics stats, ExecutorService executor, int nrSlabs)
+            throws IOException, InterruptedException {
+        return renderSWCFile(f, processor, sc, stats, null, executor, nrSlabs);
+    }
+
+    /**
+     * Renders the specified SWC file in parallel with the specified voxel
+     * spacing and origin (see {@link #renderSWCFile(java.io.File,
+     * edu.gcsc.ndim.neuro.EntityProcessor, edu.gcsc.ndim.neuro.SizeContraint,
+     * edu.gcsc.ndim.neuro.SWCImportStatistics,
+     * java.util.concurrent.ExecutorService, int) }).
+     *
+     * @param f file to render
+     * @param processor processor that can manipulate data entity-wise
+     * @param sc size constraint (may be <code>null</code>)
+     * @param stats import statistics (may be <code>null</code>)
+     * @param config render configuration (may be <code>null</code>)
+     * @param executor executor that runs the slab tasks
+     * @param nrSlabs number of slabs
+     * @return data container that contains the rendered file
+     * @throws IOException if an error occured while reading the specified file
+     * @throws InterruptedException if interrupted while waiting for the
+     *         slab tasks
+     * @throws IllegalArgumentException if a sample is mapped to a voxel
+     *         coordinate outside of <code>[-2^20, 2^20)</code> (see
+     *         {@link VoxelHashSet#MIN_COORD}, {@link VoxelHashSet#MAX_COORD})
+     */
+    public static DataContainer renderSWCFile(
+            final File f, final EntityProcessor processor, SizeContraint sc,
+            SWCImportStatistics stats, RenderConfig config,
+            ExecutorService executor, int nrSlabs)
+            throws IOException, InterruptedException {
+        return renderSWCFile(f, processor, sc, stats, config,
+                executor, nrSlabs, null);
+    }
+
+    /**
+     * Renders the specified SWC file in parallel and publishes the planes
+     * of each slab as soon as they are final. If the processor chain does
+     * not consist of slab processors, the planes are published after the
+     * processors have been called.
+     *
+     * @param progress volume that receives the container and the
+     *                 published planes (may be <code>null</code>)
+     * @see RenderPipeline
+     */
+    static DataContainer renderSWCFile(
+            final File f, final EntityProcessor processor, SizeContraint sc,
+            SWCImportStatistics stats, RenderConfig config,
+            ExecutorService executor, int nrSlabs,
+            final ProgressiveVolumeSource progress)
+            throws IOException, InterruptedException {
+
+        if (nrSlabs < 1) {
+            throw new IllegalArgumentException(
+                    "at least one slab is required!");
+        }
+
+        final SWCMorphology morphology = read(f);
+        final RenderInput input = prepare(morphology, sc, stats, config, true);
+        final DataContainer cnt = input.cnt;
+
+        if (progress != null) {
+            progress.init(new ArrayVolumeSource(cnt.gridTopo(),
+                    cnt.layer(0).v1, ((ByteBuffer) cnt.layer(0).v2).array()));
+        }
+
+        final int[] extent = cnt.gridTopo().extent();
+        final int sizeZ = extent[GridTopo.Z];
+
+        // sort positions by z (counting sort), zOffsets[z] is the index
+        // of the first position with the specified z coordinate
+        final int[] zOffsets = new int[sizeZ + 1];
+        for (int i = 0; i < input.count; i++) {
+            zOffsets[input.positions[i * 3 + 2] + 1]++;
+        }
+        for (int z = 0; z < sizeZ; z++) {
+            zOffsets[z + 1] += zOffsets[z];
+        }
+
+        final int[] sorted = new int[input.count * 3];
+        final int[] next = java.util.Arrays.copyOf(zOffsets, sizeZ);
+        for (int i = 0; i < input.count; i++) {
+            final int j = next[input.positions[i * 3 + 2]]++;
+            System.arraycopy(input.positions, i * 3, sorted, j * 3, 3);
+        }
+
+        final boolean slabProcessing = isSlabProcessor(processor);
+        final int halo = slabProcessing
+                ? ((SlabEntityProcessor) processor).getHalo() : 0;
+        // slabs are final after their task if no other processor runs
+        final boolean publishSlabs = progress != null
+                && (processor == null || slabProcessing);
+
+        final AddrOp addrOp = new AddrOp(cnt.gridTopo(), cnt.layer(0).v1);
+        final int origin = addrOp.addr(new int[3], 0);
+        final int incrX = addrOp.incr(GridTopo.X);
+        final int incrY = addrOp.incr(GridTopo.Y);
+        final int incrZ = addrOp.incr(GridTopo.Z);
+        final byte[] data = ((ByteBuffer) cnt.layer(0).v2).array();
+
+        // each slab task rasterizes the segments that intersect its slab
+        final SWCRasterizer rasterizer;
+        if (input.config.isRasterizeSegments()) {
+            rasterizer = new SWCRasterizer(
+                    cnt.gridTopo(), cnt.layer(0).v1, data);
+            input.config.apply(rasterizer);
+        } else {
+            rasterizer = null;
+        }
+
+        nrSlabs = Math.max(1, Math.min(nrSlabs, sizeZ));
+
+        System.out.println((rasterizer != null
+                ? ">> rasterizing " + morphology.size() + " segments ("
+                : ">> writing values to data-container (")
+                + nrSlabs + " slabs)");
+
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+        for (int s = 0; s < nrSlabs; s++) {
+            final int zStart = (int) ((long) sizeZ * s / nrSlabs);
+            final int zEnd = (int) ((long) sizeZ * (s + 1) / nrSlabs);
+
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    if (rasterizer != null) {
+                        rasterizer.rasterize(morphology, zStart, zEnd - 1);
+                    } else {
+                        for (int i = zOffsets[zStart]; i < zOffsets[zEnd]; i++) {
+                            data[origin + sorted[i * 3] * incrX
+                                    + sorted[i * 3 + 1] * incrY
+                                    + sorted[i * 3 + 2] * incrZ] = (byte) 255;
+                        }
+                    }
+
+                    if (slabProcessing) {
+                        final int first = zOffsets[Math.max(0, zStart - halo)];
+                        final int last = zOffsets[Math.min(sizeZ, zEnd + halo)];
+
+                        ((SlabEntityProcessor) processor).processSlab(
+                                cnt, sorted, first, last - first,
+                                zStart, zEnd - 1);
+                    }
+
+                    if (publishSlabs) {
+                        progress.publish(zStart, zEnd);
+                    }
+
+                    return null;
                 }
+            }));
+        }
+
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IllegalStateException(ex.getCause());
+        } finally {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
             }
+        }
+
+        if (processor != null && !slabProcessing) {
+            AbstractEntityProcessor.processAll(processor, cnt,
+                    input.positions, input.count);
+        }
+
+        if (progress != null) {
+            progress.publishAll();
+        }
+
+        return cnt;
+    }
+
+    /**
+     * Renders the specified SWC file to a sparse volume. Only bricks that
+     * contain painted voxels are allocated. Use
+     * {@link BrickedVolume#toDataContainer() } to get a dense container,
+     * e.g., to write an image file.
+     *
+     * @param f file to render
+     * @param processor processor that can manipulate data entity-wise, all
+     *                  processors of the chain have to implement
+     *                  {@link SparseEntityProcessor} (may be <code>null</code>)
+     * @param sc size constraint (may be <code>null</code>)
+     * @param stats import statistics (may be <code>null</code>)
+     * @param brickSize edge length of the bricks (power of two)
+     * @return volume that contains the rendered file
+     * @throws IOException if an error occured while reading the specified file
+     * @throws IllegalArgumentException if a sample is mapped to a voxel
+     *         coordinate outside of <code>[-2^20, 2^20)</code> (see
+     *         {@link VoxelHashSet#MIN_COORD}, {@link VoxelHashSet#MAX_COORD})
+     */
+    public static BrickedVolume renderSWCFileSparse(
+            final File f, EntityProcessor processor, SizeContraint sc,
+            SWCImportStatistics stats, int brickSize) throws IOException {
+        return renderSWCFileSparse(f, processor, sc, stats, null, brickSize);
+    }
+
+    /**
+     * Renders the specified SWC file to a sparse volume with the specified
+     * voxel spacing and origin.
+     *
+     * @param f file to render
+     * @param processor processor that can manipulate data entity-wise, all
+     *                  processors of the chain have to implement
+     *                  {@link SparseEntityProcessor} (may be <code>null</code>)
+     * @param sc size constraint (may be <code>null</code>)
+     * @param stats import statistics (may be <code>null</code>)
+     * @param config render configuration (may be <code>null</code>)
+     * @param brickSize edge length of the bricks (power of two)
+     * @return volume that contains the rendered file
+     * @throws IOException if an error occured while reading the specified file
+     * @throws IllegalArgumentException if a sample is mapped to a voxel
+     *         coordinate outside of <code>[-2^20, 2^20)</code> (see
+     *         {@link VoxelHashSet#MIN_COORD}, {@link VoxelHashSet#MAX_COORD})
+     */
+    public static BrickedVolume renderSWCFileSparse(
+            final File f, EntityProcessor processor, SizeContraint sc,
+            SWCImportStatistics stats, RenderConfig config, int brickSize)
+            throws IOException {
+
+        if (processor != null && !(processor instanceof SparseEntityProcessor)) {
+            throw new IllegalArgumentException(
+                    "processor does not support sparse volumes!");
+        }
+
+        final SWCMorphology morphology = read(f);
+        final RenderInput input = prepare(morphology, sc, stats, config, false);
+
+        final BrickedVolume volume = new BrickedVolume(
+                input.sizes[0], input.sizes[1], input.sizes[2], brickSize);
 
-            if (exception != null) {
-                throw exception;
+        if (input.config.isRasterizeSegments()) {
+            System.out.println(">> rasterizing " + morphology.size()
+                    + " segments to sparse volume");
+
+            final SWCRasterizer rasterizer = new SWCRasterizer(volume);
+            input.config.apply(rasterizer);
+            rasterizer.rasterize(morphology);
+        } else {
+            System.out.println(">> writing values to sparse volume");
+
+            for (int i = 0; i < input.count; i++) {
+                volume.set(input.positions[i * 3],
+                        input.positions[i * 3 + 1],
+                        input.positions[i * 3 + 2], (byte) 255);
             }
         }
 
-        String[] lines = builder.toString().split("\n");
+        if (processor != null) {
+            ((SparseEntityProcessor) processor).processAll(
+                    volume, input.positions, input.count);
+        }
+
+        System.out.println(">> bricks: " + volume.nrBricks());
+
+        return volume;
+    }
+
+    /**
+     * Indicates whether the specified processor and all of its input
+     * processors are slab processors.
+     *
+     * @param processor processor to check
+     * @return <code>true</code> if the chain consists of slab processors;
+     *         <code>false</code> otherwise
+     */
+    private static boolean isSlabProcessor(EntityProcessor processor) {
+        if (processor == null) {
+            return false;
+        }
+
+        for (EntityProcessor p = processor; p != null; p = p.getInput()) {
+            if (!(p instanceof SlabEntityProcessor)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static SWCMorphology read(File f) throws IOException {
+        System.out.println(">> reading file: " + f);
+
+        return SWCMorphology.read(f);
+    }
+
+    /**
+     * Converts the samples of the specified morphology to voxels, removes
+     * duplicate voxels and computes the size of a container that is large
+     * enough to hold all voxels. If segments are rasterized the container
+     * is large enough to hold the cones and a free border of one voxel.
+     *
+     * @param morphology morphology to convert
+     * @param sc size constraint (may be <code>null</code>)
+     * @param stats import statistics (may be <code>null</code>)
+     * @param config render configuration (may be <code>null</code>), the
+     *               effective origin is written to this object
+     * @param allocate defines whether to create a dense container
+     * @return the container and the distinct voxel positions
+     */
+    private static RenderInput prepare(
+            final SWCMorphology morphology, SizeContraint sc,
+            SWCImportStatistics stats, RenderConfig config, boolean allocate) {
 
         int[] max = new int[3];
         int[] min = new int[3];
 
-        ArrayList<Point3i> values = new ArrayList<Point3i>();
+        // distinct voxels, packed as x,y,z triples in file order
+        final VoxelHashSet voxels = new VoxelHashSet(morphology.size());
+        final int[] values = new int[morphology.size() * 3];
+        int nrValues = 0;
+        int nrOutside = 0;
+
+        if (config == null) {
+            config = new RenderConfig();
+        }
+
+        final float[] spacing = config.getSpacing();
+        final float[] origin = config.getOrigin();
+        final boolean clip = origin != null;
+        final float originX = clip ? origin[0] : 0;
+        final float originY = clip ? origin[1] : 0;
+        final float originZ = clip ? origin[2] : 0;
+        final boolean segments = config.isRasterizeSegments();
+        final float minRadius = SWCRasterizer.minRadius(
+                spacing[0], spacing[1], spacing[2]);
 
         System.out.println(
                 ">> converting coordinates and computing dimensions");
 
-        for (String l : lines) {
-
-            // we filter comments
-            if (l.startsWith("#")) {
-                continue;
+        for (int i = 0; i < morphology.size(); i++) {
+
+            if (segments) {
+                // cones plus a free border of one voxel
+                final float r = Math.max(morphology.radius(i), minRadius);
+
+                min[0] = Math.min(min[0], (int) Math.floor(
+                        (morphology.x(i) - r - originX) / spacing[0]) - 1);
+                min[1] = Math.min(min[1], (int) Math.floor(
+                        (morphology.y(i) - r - originY) / spacing[1]) - 1);
+                min[2] = Math.min(min[2], (int) Math.floor(
+                        (morphology.z(i) - r - originZ) / spacing[2]) - 1);
+                max[0] = Math.max(max[0], (int) Math.ceil(
+                        (morphology.x(i) + r - originX) / spacing[0]) + 1);
+                max[1] = Math.max(max[1], (int) Math.ceil(
+                        (morphology.y(i) + r - originY) / spacing[1]) + 1);
+                max[2] = Math.max(max[2], (int) Math.ceil(
+                        (morphology.z(i) + r - originZ) / spacing[2]) + 1);
             }
 
-            // remove leading and trailing whitespaces
-            l = l.trim();
+            // read x,y,z values and convert them to voxel coordinates
+            int x = Math.round((morphology.x(i) - originX) / spacing[0]);
+            int y = Math.round((morphology.y(i) - originY) / spacing[1]);
+            int z = Math.round((morphology.z(i) - originZ) / spacing[2]);
 
-            // read x,y,z values
-            String[] token = l.split("\\s");
-            int x = Math.round(Float.parseFloat(token[2]));
-            int y = Math.round(Float.parseFloat(token[3]));
-            int z = Math.round(Float.parseFloat(token[4]));
-
-            Point3i p = new Point3i(x, y, z);
+            // samples below a user defined origin are not rendered
+            if (clip && (x < 0 || y < 0 || z < 0)) {
+                nrOutside++;
+                continue;
+            }
 
-            if (!values.contains(p)) {
-                values.add(p);
+            if (voxels.add(x, y, z)) {
+                values[nrValues * 3] = x;
+                values[nrValues * 3 + 1] = y;
+                values[nrValues * 3 + 2] = z;
+                nrValues++;
             }
 
             // compute min and max
@@ -142,6 +726,19 @@ public class SWC2Image {
             min[1] = Math.min(min[1], y);
             min[2] = Math.min(min[2], z);
         }
+
+        System.out.println(">> samples: " + morphology.size()
+                + ", duplicates: " + (morphology.size() - nrValues - nrOutside)
+                + ", outside: " + nrOutside);
+
+        if (stats != null) {
+            stats.set(morphology.size(), nrValues, nrOutside);
+        }
+
+        // nothing is rendered below a user defined origin
+        for (int i = 0; clip && i < min.length; i++) {
+            min[i] = Math.max(min[i], 0);
+        }
         
         int[] sizes = new int[3];
         
@@ -158,9 +755,25 @@ public class SWC2Image {
         int offsetY = -min[1];
         int offsetZ = -min[2];
 
+        config.setEffectiveOrigin(
+                originX + min[0] * spacing[0],
+                originY + min[1] * spacing[1],
+                originZ + min[2] * spacing[2]);
+
         System.out.println(">> container-size: "
                 + sizes[0] + ", " + sizes[1] + ", " + sizes[2]);
 
+        // from now on values contains container positions
+        for (int i = 0; i < nrValues; i++) {
+            values[i * 3] += offsetX;
+            values[i * 3 + 1] += offsetY;
+            values[i * 3 + 2] += offsetZ;
+        }
+
+        if (!allocate) {
+            return new RenderInput(null, config, sizes, values, nrValues);
+        }
+
         final DataContainer cnt =
                 new DataContainer(sizes[0], sizes[1], sizes[2]);
         
@@ -169,9 +782,6 @@ public class SWC2Image {
         cnt.createLayer(byte.class,
                 new MemTopo(cnt.gridTopo().nrEntities(), 1, false));
 
-        final GridTopo gridTopo = cnt.gridTopo();
-        final MemTopo memTopo = cnt.layer(0).v1;
-        final AddrOp addrOp = new AddrOp(gridTopo, memTopo);
         final ByteBuffer buffer = (ByteBuffer) cnt.layer(0).v2;
 
         if (!buffer.hasArray()) {
@@ -179,31 +789,54 @@ public class SWC2Image {
                     "FloatBuffer of layer 0 does not contain an array!");
         }
 
-        final byte[] data = buffer.array();
-        final int[] pos = new int[gridTopo.nrDims()];
-
-        System.out.println(">> writing values to data-container");
-
-        for (int i = 0; i < values.size(); i++) {
-
-            pos[0] = values.get(i).x + offsetX;
-            pos[1] = values.get(i).y + offsetY;
-            pos[2] = values.get(i).z + offsetZ;
-            
-            final int idx = addrOp.addr(pos, 0);
-
-//            int idx = gridTopo.addr(pos)
-//                    * memTopo.tupleIncr() + memTopo.elementIncr(0);
-
-            data[idx] = (byte) 255;
-
-            if (processor != null) {
-                // process
-                processor.process(cnt, pos);
-            }
+        return new RenderInput(cnt, config, sizes, values, nrValues);
+    }
 
+    /**
+     * Container and distinct voxel positions of an SWC file.
+     */
+    private static final class RenderInput {
+
+        // null if no dense container has been requested
+        final DataContainer cnt;
+        // contains the effective origin
+        final RenderConfig config;
+        final int[] sizes;
+        // x,y,z triples
+        final int[] positions;
+        final int count;
+
+        RenderInput(DataContainer cnt, RenderConfig config, int[] sizes,
+                int[] positions, int count) {
+            this.cnt = cnt;
+            this.config = config;
+            this.sizes = sizes;
+            this.positions = positions;
+            this.count = count;
         }
+    }
 
-        return cnt;
+    /**
+     * Renders the specified SWC file. In contrast to
+     * {@link #renderSWCFile(java.io.File, edu.gcsc.ndim.neuro.EntityProcessor,
+     * edu.gcsc.ndim.neuro.SizeContraint) } each sample is connected to its
+     * parent by a truncated cone whose radius is given by the radius column.
+     * The container has a free border of one voxel, i.e., the surface of
+     * the rendered morphology is closed. One voxel per micron is used,
+     * enable {@link RenderConfig#setRasterizeSegments(boolean) } to
+     * rasterize segments with other spacings or processors.
+     *
+     * @param f file to render
+     * @param sc size constraint (may be <code>null</code>)
+     * @return data container that contains the rendered file
+     * @throws IOException if an error occured while reading the specified file
+     * @see SWCRasterizer
+     */
+    public static DataContainer rasterizeSWCFile(
+            final File f, SizeContraint sc) throws IOException {
+        final RenderConfig config = new RenderConfig();
+        config.setRasterizeSegments(true);
+
+        return renderSWCFile(f, null, sc, null, config);
     }
 }
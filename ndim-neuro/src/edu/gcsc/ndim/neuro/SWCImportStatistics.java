@@ -0,0 +1,90 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+/**
+ * Statistics of an SWC import, e.g., the number of samples that have been
+ * mapped to the same voxel.
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public class SWCImportStatistics {
+
+    private int nrSamples;
+    private int nrVoxels;
+    private int nrOutside;
+
+    /**
+     * Returns the number of samples that have been read.
+     * @return the number of samples that have been read
+     */
+    public int getNrSamples() {
+        return nrSamples;
+    }
+
+    /**
+     * Returns the number of distinct voxels that have been painted.
+     * @return the number of distinct voxels that have been painted
+     */
+    public int getNrVoxels() {
+        return nrVoxels;
+    }
+
+    /**
+     * Returns the number of samples that have been skipped because they
+     * are located below the origin (see {@link RenderConfig#setOrigin(
+     * float, float, float) }).
+     * @return the number of samples below the origin
+     */
+    public int getNrOutside() {
+        return nrOutside;
+    }
+
+    /**
+     * Returns the number of samples that have been skipped because their
+     * voxel has already been painted.
+     * @return the number of duplicate samples
+     */
+    public int getNrDuplicates() {
+        return nrSamples - nrVoxels - nrOutside;
+    }
+
+    void set(int nrSamples, int nrVoxels, int nrOutside) {
+        this.nrSamples = nrSamples;
+        this.nrVoxels = nrVoxels;
+        this.nrOutside = nrOutside;
+    }
+
+    @Override
+    public String toString() {
+        return "samples: " + nrSamples + ", voxels: " + nrVoxels
+                + ", duplicates: " + getNrDuplicates()
+                + ", outside: " + nrOutside;
+    }
+}
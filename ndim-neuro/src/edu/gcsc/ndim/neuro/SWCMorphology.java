@@ -0,0 +1,212 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Morphology read from an SWC file. The samples are stored as packed
+ * primitive arrays (id, type, x, y, z, radius, parent id).
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public class SWCMorphology {
+
+    private int size;
+    private int[] ids;
+    private int[] types;
+    private float[] x;
+    private float[] y;
+    private float[] z;
+    private float[] radii;
+    private int[] parents;
+    // (id << 32 | index) sorted by id, built on demand
+    private long[] idIndex;
+
+    /**
+     * Constructor.
+     */
+    public SWCMorphology() {
+        this(1024);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param capacity initial number of samples that can be stored
+     */
+    public SWCMorphology(int capacity) {
+        capacity = Math.max(1, capacity);
+        ids = new int[capacity];
+        types = new int[capacity];
+        x = new float[capacity];
+        y = new float[capacity];
+        z = new float[capacity];
+        radii = new float[capacity];
+        parents = new int[capacity];
+    }
+
+    /**
+     * Reads the specified SWC file.
+     *
+     * @param f file to read
+     * @return the morphology
+     * @throws IOException if an error occured while reading the specified
+     *         file
+     * @see SWCReader
+     */
+    public static SWCMorphology read(File f) throws IOException {
+        return new SWCReader().read(f);
+    }
+
+    /**
+     * Adds a sample.
+     *
+     * @param id id of the sample
+     * @param type structure type, e.g., <code>1</code> for soma
+     * @param x x coordinate
+     * @param y y coordinate
+     * @param z z coordinate
+     * @param radius radius
+     * @param parent id of the parent sample, <code>-1</code> for roots
+     */
+    public void add(int id, int type, float x, float y, float z, float radius, int parent) {
+        if (size == ids.length) {
+            final int capacity = 2 * size;
+            ids = Arrays.copyOf(ids, capacity);
+            types = Arrays.copyOf(types, capacity);
+            this.x = Arrays.copyOf(this.x, capacity);
+            this.y = Arrays.copyOf(this.y, capacity);
+            this.z = Arrays.copyOf(this.z, capacity);
+            radii = Arrays.copyOf(radii, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+        }
+
+        ids[size] = id;
+        types[size] = type;
+        this.x[size] = x;
+        this.y[size] = y;
+        this.z[size] = z;
+        radii[size] = radius;
+        parents[size] = parent;
+        size++;
+        idIndex = null;
+    }
+
+    /**
+     * Returns the number of samples.
+     * @return the number of samples
+     */
+    public int size() {
+        return size;
+    }
+
+    public int id(int i) {
+        return ids[i];
+    }
+
+    public int type(int i) {
+        return types[i];
+    }
+
+    public float x(int i) {
+        return x[i];
+    }
+
+    public float y(int i) {
+        return y[i];
+    }
+
+    public float z(int i) {
+        return z[i];
+    }
+
+    public float radius(int i) {
+        return radii[i];
+    }
+
+    /**
+     * Returns the id of the parent of the specified sample.
+     * @param i sample index
+     * @return the parent id or <code>-1</code> if the sample is a root
+     */
+    public int parent(int i) {
+        return parents[i];
+    }
+
+    /**
+     * Returns the index of the parent of the specified sample.
+     * @param i sample index
+     * @return the parent index or <code>-1</code> if the sample is a root
+     *         or if the parent does not exist
+     */
+    public int parentIndex(int i) {
+        return parents[i] < 0 ? -1 : indexOf(parents[i]);
+    }
+
+    /**
+     * Returns the index of the sample with the specified id.
+     * @param id sample id
+     * @return the sample index or <code>-1</code> if no such sample exists
+     */
+    public int indexOf(int id) {
+        // fast path for the usual consecutive numbering
+        final int guess = id - (size > 0 ? ids[0] : 0);
+        if (guess >= 0 && guess < size && ids[guess] == id) {
+            return guess;
+        }
+
+        if (idIndex == null) {
+            final long[] index = new long[size];
+            for (int i = 0; i < size; i++) {
+                index[i] = ((long) ids[i] << 32) | i;
+            }
+            Arrays.sort(index);
+            idIndex = index;
+        }
+
+        int lo = 0;
+        int hi = idIndex.length - 1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            final int midId = (int) (idIndex[mid] >> 32);
+            if (midId < id) {
+                lo = mid + 1;
+            } else if (midId > id) {
+                hi = mid - 1;
+            } else {
+                return (int) idIndex[mid];
+            }
+        }
+
+        return -1;
+    }
+}
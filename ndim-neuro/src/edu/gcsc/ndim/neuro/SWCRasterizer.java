@@ -0,0 +1,293 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+import org.ndim.AddrOp;
+import org.ndim.GridTopo;
+import org.ndim.MemTopo;
+
+/**
+ * Rasterizes SWC morphologies into a byte volume. Each sample is connected
+ * to its parent by a truncated cone whose radius is interpolated linearly
+ * between the two sample radii. Both ends are closed with spheres, which
+ * fills the gaps at branch points. Roots without children are rendered
+ * as spheres.
+ *
+ * <p>Only the voxels inside the bounding box of a segment are tested.
+ * Voxel <code>(i,j,k)</code> is painted if its center lies inside the
+ * segment. The center is at <code>origin + (i,j,k) * spacing</code> in
+ * morphology coordinates (see {@link RenderConfig#apply(
+ * edu.gcsc.ndim.neuro.SWCRasterizer) }), i.e., positions and radii are
+ * given in morphology units.</p>
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public class SWCRasterizer {
+
+    /**
+     * Smallest radius that is used for rasterization (in voxels). Every
+     * point of a segment axis lies within this distance of its voxel
+     * center, i.e., thin neurites stay connected. For anisotropic spacings
+     * half of the voxel diagonal is used.
+     */
+    public static final float MIN_RADIUS = 0.8660254f;
+
+    private final byte[] data;
+    // null if a dense array is written
+    private final BrickedVolume volume;
+    private final int origin;
+    private final int incrX;
+    private final int incrY;
+    private final int incrZ;
+    private final int sizeX;
+    private final int sizeY;
+    private final int sizeZ;
+    private float originX;
+    private float originY;
+    private float originZ;
+    private float spacingX = 1;
+    private float spacingY = 1;
+    private float spacingZ = 1;
+    private float minRadius = MIN_RADIUS;
+    private byte value = (byte) 255;
+
+    /**
+     * Constructor.
+     *
+     * @param gridTopo grid topology of the volume
+     * @param memTopo memory topology of the volume
+     * @param data samples of the volume
+     */
+    public SWCRasterizer(GridTopo gridTopo, MemTopo memTopo, byte[] data) {
+        if (gridTopo.nrDims() != 3) {
+            throw new IllegalArgumentException(
+                    "only 3D grids are supported!");
+        }
+
+        this.data = data;
+        this.volume = null;
+
+        final int[] extent = gridTopo.extent();
+        sizeX = extent[GridTopo.X];
+        sizeY = extent[GridTopo.Y];
+        sizeZ = extent[GridTopo.Z];
+
+        final AddrOp op = new AddrOp(gridTopo, memTopo);
+        origin = op.addr(new int[gridTopo.nrDims()], 0);
+        incrX = op.incr(GridTopo.X);
+        incrY = op.incr(GridTopo.Y);
+        incrZ = op.incr(GridTopo.Z);
+    }
+
+    /**
+     * Constructor. Only bricks that contain painted voxels are allocated.
+     *
+     * @param volume sparse volume to paint
+     */
+    public SWCRasterizer(BrickedVolume volume) {
+        this.data = null;
+        this.volume = volume;
+
+        final int[] extent = volume.extent();
+        sizeX = extent[0];
+        sizeY = extent[1];
+        sizeZ = extent[2];
+
+        origin = incrX = incrY = incrZ = 0;
+    }
+
+    /**
+     * Defines the location of voxel <code>(0,0,0)</code> in morphology
+     * coordinates (default is <code>0,0,0</code>).
+     *
+     * @param x x coordinate
+     * @param y y coordinate
+     * @param z z coordinate
+     */
+    public void setOrigin(float x, float y, float z) {
+        originX = x;
+        originY = y;
+        originZ = z;
+    }
+
+    /**
+     * Defines the voxel spacing (default is <code>1,1,1</code>).
+     *
+     * @param sx spacing in x direction
+     * @param sy spacing in y direction
+     * @param sz spacing in z direction
+     */
+    public void setSpacing(float sx, float sy, float sz) {
+        if (!(sx > 0) || !(sy > 0) || !(sz > 0)) {
+            throw new IllegalArgumentException(
+                    "spacing must be positive: " + sx + ", " + sy + ", " + sz);
+        }
+
+        spacingX = sx;
+        spacingY = sy;
+        spacingZ = sz;
+        minRadius = minRadius(sx, sy, sz);
+    }
+
+    /**
+     * Returns the smallest radius that is used for rasterization with the
+     * specified spacing (in morphology units).
+     *
+     * @param sx spacing in x direction
+     * @param sy spacing in y direction
+     * @param sz spacing in z direction
+     * @return half of the voxel diagonal
+     */
+    static float minRadius(float sx, float sy, float sz) {
+        return 0.5f * (float) Math.sqrt(sx * sx + sy * sy + sz * sz);
+    }
+
+    /**
+     * Defines the value of painted voxels (default is <code>255</code>).
+     * @param value value to paint
+     */
+    public void setValue(byte value) {
+        this.value = value;
+    }
+
+    /**
+     * Rasterizes the specified morphology.
+     *
+     * @param morphology morphology to rasterize
+     */
+    public void rasterize(SWCMorphology morphology) {
+        rasterize(morphology, 0, sizeZ - 1);
+    }
+
+    /**
+     * Rasterizes the part of the specified morphology that lies inside the
+     * specified z range. Different z ranges can be rasterized concurrently.
+     *
+     * @param morphology morphology to rasterize
+     * @param zMin first z coordinate (voxels, inclusive)
+     * @param zMax last z coordinate (voxels, inclusive)
+     */
+    public void rasterize(SWCMorphology morphology, int zMin, int zMax) {
+        for (int i = 0; i < morphology.size(); i++) {
+            int p = morphology.parentIndex(i);
+
+            if (p < 0) {
+                p = i;
+            }
+
+            rasterizeSegment(
+                    morphology.x(p), morphology.y(p), morphology.z(p),
+                    morphology.radius(p),
+                    morphology.x(i), morphology.y(i), morphology.z(i),
+                    morphology.radius(i), zMin, zMax);
+        }
+    }
+
+    /**
+     * Rasterizes a truncated cone with spherical end caps. Both points
+     * are given in morphology coordinates.
+     *
+     * @param x0 x coordinate of the first point
+     * @param y0 y coordinate of the first point
+     * @param z0 z coordinate of the first point
+     * @param r0 radius at the first point
+     * @param x1 x coordinate of the second point
+     * @param y1 y coordinate of the second point
+     * @param z1 z coordinate of the second point
+     * @param r1 radius at the second point
+     */
+    public void rasterizeSegment(
+            float x0, float y0, float z0, float r0,
+            float x1, float y1, float z1, float r1) {
+        rasterizeSegment(x0, y0, z0, r0, x1, y1, z1, r1, 0, sizeZ - 1);
+    }
+
+    private void rasterizeSegment(
+            float x0, float y0, float z0, float r0,
+            float x1, float y1, float z1, float r1, int zMin, int zMax) {
+
+        r0 = Math.max(r0, minRadius);
+        r1 = Math.max(r1, minRadius);
+
+        // bounding box in voxel coordinates
+        final int minX = Math.max(0, (int) Math.ceil(
+                (Math.min(x0 - r0, x1 - r1) - originX) / spacingX));
+        final int minY = Math.max(0, (int) Math.ceil(
+                (Math.min(y0 - r0, y1 - r1) - originY) / spacingY));
+        final int minZ = Math.max(zMin, (int) Math.ceil(
+                (Math.min(z0 - r0, z1 - r1) - originZ) / spacingZ));
+        final int maxX = Math.min(sizeX - 1, (int) Math.floor(
+                (Math.max(x0 + r0, x1 + r1) - originX) / spacingX));
+        final int maxY = Math.min(sizeY - 1, (int) Math.floor(
+                (Math.max(y0 + r0, y1 + r1) - originY) / spacingY));
+        final int maxZ = Math.min(zMax, (int) Math.floor(
+                (Math.max(z0 + r0, z1 + r1) - originZ) / spacingZ));
+
+        final float dx = x1 - x0;
+        final float dy = y1 - y0;
+        final float dz = z1 - z0;
+        final float len2 = dx * dx + dy * dy + dz * dz;
+        final float invLen2 = len2 > 0 ? 1.0f / len2 : 0;
+        final float dr = r1 - r0;
+
+        for (int k = minZ; k <= maxZ; k++) {
+            final float qz = originZ + k * spacingZ - z0;
+
+            for (int j = minY; j <= maxY; j++) {
+                final float qy = originY + j * spacingY - y0;
+                final int rowAddr = origin + j * incrY + k * incrZ;
+
+                for (int i = minX; i <= maxX; i++) {
+                    final float qx = originX + i * spacingX - x0;
+
+                    // project onto the axis and clamp to the segment
+                    float t = (qx * dx + qy * dy + qz * dz) * invLen2;
+                    if (t < 0) {
+                        t = 0;
+                    } else if (t > 1) {
+                        t = 1;
+                    }
+
+                    final float ex = qx - t * dx;
+                    final float ey = qy - t * dy;
+                    final float ez = qz - t * dz;
+                    final float r = r0 + t * dr;
+
+                    if (ex * ex + ey * ey + ez * ez <= r * r) {
+                        if (volume == null) {
+                            data[rowAddr + i * incrX] = value;
+                        } else {
+                            volume.set(i, j, k, value);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
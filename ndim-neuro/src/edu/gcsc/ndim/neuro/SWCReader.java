@@ -0,0 +1,279 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Streaming SWC reader. The file is read in chunks from a channel and
+ * tokenized in place, i.e., no strings are created per line or per
+ * column. Only the current line is buffered, memory is therefore bounded
+ * by the size of the resulting morphology.
+ *
+ * <p>Columns after the parent column are ignored. Numbers in the common
+ * decimal notation are converted without creating strings, other
+ * notations fall back to {@link Double#parseDouble(java.lang.String)}.
+ * </p>
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public class SWCReader {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    // largest number of significant digits that a long converts exactly
+    private static final int MAX_DIGITS = 15;
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20,
+        1e21, 1e22};
+
+    private byte[] line = new byte[256];
+    private int lineLength;
+    private int pos;
+    private String name;
+    private int lineNumber;
+
+    /**
+     * Reads the specified SWC file.
+     *
+     * @param f file to read
+     * @return the morphology
+     * @throws IOException if an error occured while reading the specified
+     *         file
+     */
+    public SWCMorphology read(File f) throws IOException {
+        FileInputStream in = null;
+
+        try {
+            in = new FileInputStream(f);
+            final FileChannel channel = in.getChannel();
+
+            // roughly 40 bytes per sample
+            final int capacity = (int) Math.min(
+                    Integer.MAX_VALUE - 8, channel.size() / 40 + 16);
+
+            return read(channel, f.toString(), capacity);
+        } finally {
+            if (in != null) {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Reads SWC samples from the specified channel. The channel is not
+     * closed.
+     *
+     * @param channel channel to read
+     * @param name name that is used in error messages, e.g., the file name
+     * @param capacity expected number of samples
+     * @return the morphology
+     * @throws IOException if an error occured while reading from the
+     *         specified channel
+     */
+    public SWCMorphology read(ReadableByteChannel channel, String name,
+            int capacity) throws IOException {
+        this.name = name;
+        this.lineNumber = 0;
+        this.lineLength = 0;
+
+        final SWCMorphology result = new SWCMorphology(capacity);
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        final byte[] chunk = buffer.array();
+
+        while (channel.read(buffer) >= 0) {
+            final int n = buffer.position();
+
+            for (int i = 0; i < n; i++) {
+                final byte b = chunk[i];
+
+                if (b == '\n') {
+                    lineNumber++;
+                    parseLine(result);
+                    lineLength = 0;
+                } else {
+                    if (lineLength == line.length) {
+                        line = Arrays.copyOf(line, 2 * line.length);
+                    }
+                    line[lineLength++] = b;
+                }
+            }
+
+            buffer.clear();
+        }
+
+        // last line without line break
+        if (lineLength > 0) {
+            lineNumber++;
+            parseLine(result);
+            lineLength = 0;
+        }
+
+        return result;
+    }
+
+    private void parseLine(SWCMorphology result) throws IOException {
+        pos = 0;
+        skipWhitespace();
+
+        // we filter comments and empty lines
+        if (pos == lineLength || line[pos] == '#') {
+            return;
+        }
+
+        final int id = nextInt();
+        final int type = nextInt();
+        final float x = (float) nextNumber();
+        final float y = (float) nextNumber();
+        final float z = (float) nextNumber();
+        final float radius = (float) nextNumber();
+        final int parent = nextInt();
+
+        result.add(id, type, x, y, z, radius, parent);
+    }
+
+    private void skipWhitespace() {
+        while (pos < lineLength && isWhitespace(line[pos])) {
+            pos++;
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f';
+    }
+
+    private int nextInt() throws IOException {
+        final int start = pos;
+        final double v = nextNumber();
+
+        if (v != (int) v) {
+            throw error("integer expected", start);
+        }
+
+        return (int) v;
+    }
+
+    private double nextNumber() throws IOException {
+        skipWhitespace();
+
+        if (pos == lineLength) {
+            throw new IOException(
+                    name + ":" + lineNumber + ": expected 7 columns");
+        }
+
+        final int start = pos;
+
+        boolean negative = false;
+        if (line[pos] == '-' || line[pos] == '+') {
+            negative = line[pos] == '-';
+            pos++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean valid = false;
+
+        while (pos < lineLength && isDigit(line[pos])) {
+            mantissa = mantissa * 10 + (line[pos++] - '0');
+            if (mantissa != 0) {
+                digits++;
+            }
+            valid = true;
+        }
+
+        if (pos < lineLength && line[pos] == '.') {
+            pos++;
+            while (pos < lineLength && isDigit(line[pos])) {
+                mantissa = mantissa * 10 + (line[pos++] - '0');
+                if (mantissa != 0) {
+                    digits++;
+                }
+                exponent--;
+                valid = true;
+            }
+        }
+
+        if (valid && pos < lineLength
+                && (line[pos] == 'e' || line[pos] == 'E')) {
+            pos++;
+            boolean negativeExp = false;
+            if (pos < lineLength && (line[pos] == '-' || line[pos] == '+')) {
+                negativeExp = line[pos] == '-';
+                pos++;
+            }
+            int e = 0;
+            valid = false;
+            while (pos < lineLength && isDigit(line[pos])) {
+                e = Math.min(e * 10 + (line[pos++] - '0'), 1000);
+                valid = true;
+            }
+            exponent += negativeExp ? -e : e;
+        }
+
+        final boolean endOfToken =
+                pos == lineLength || isWhitespace(line[pos]);
+
+        if (valid && endOfToken && digits <= MAX_DIGITS
+                && exponent >= -22 && exponent <= 22) {
+            double v = exponent >= 0
+                    ? mantissa * POW10[exponent]
+                    : mantissa / POW10[-exponent];
+            return negative ? -v : v;
+        }
+
+        // uncommon notation, let the JDK decide
+        while (pos < lineLength && !isWhitespace(line[pos])) {
+            pos++;
+        }
+
+        final String token = new String(line, start, pos - start, "US-ASCII");
+
+        try {
+            return Double.parseDouble(token);
+        } catch (NumberFormatException ex) {
+            throw error("invalid number '" + token + "'", start);
+        }
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private IOException error(String msg, int column) {
+        return new IOException(
+                name + ":" + lineNumber + ":" + (column + 1) + ": " + msg);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+import org.ndim.DataContainer;
+
+/**
+ * Entity processor that can process a z-slab of a data container
+ * independently of other slabs. This allows to process disjoint slabs in
+ * parallel without locking.
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public interface SlabEntityProcessor extends EntityProcessor {
+
+    /**
+     * Returns the halo of this processor, i.e., the maximum distance in
+     * z direction between an entity and the voxels that are written when
+     * processing it. The halo includes the input processor (if any).
+     * @return the halo of this processor
+     */
+    public int getHalo();
+
+    /**
+     * Processes the specified entities but only writes voxels whose z
+     * coordinate is in the range <code>[minZ, maxZ]</code>. Entities
+     * within the halo of the slab have to be specified, too. The input
+     * processor (if any) must be a slab processor as well and has to be
+     * called with the same slab.
+     * @param cnt data container
+     * @param packedPositions positions of the entities (x,y,z triples)
+     * @param offset index of the first entity
+     * @param count number of entities
+     * @param minZ first z coordinate that may be written
+     * @param maxZ last z coordinate that may be written
+     */
+    public void processSlab(final DataContainer cnt, int[] packedPositions,
+            int offset, int count, int minZ, int maxZ);
+}
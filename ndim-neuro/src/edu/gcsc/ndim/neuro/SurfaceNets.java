@@ -0,0 +1,427 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.ndim.AddrOp;
+import org.ndim.GridTopo;
+import org.ndim.MemTopo;
+
+/**
+ * Surface nets isosurface extraction. Creates one vertex per active cell,
+ * placed at the mean of the intersections of the cell edges with the
+ * isosurface, and one quad (two triangles) per intersected edge, which
+ * connects the vertices of the four cells around the edge. Compared to
+ * {@link MarchingCubes} the triangles are well shaped (no slivers) and
+ * binary volumes yield a smoother, less staircased surface. The numbers of
+ * vertices and triangles are about the same: an intersected edge is
+ * shared by four cells, while a cell has about four intersected edges.
+ * The triangles are oriented like the triangles of {@link MarchingCubes}.
+ * Quads are only created for edges inside the volume, i.e., surfaces that
+ * touch the boundary of the volume stay open there.
+ *
+ * <p>The extraction runs in the same passes as {@link FlyingEdges}:
+ * classify the planes into bit masks (see {@link CellClassifier}), count
+ * the vertices and triangles of each row of cells, prefix sum the counts
+ * and fill the preallocated buffers of the mesh in parallel. The vertex
+ * of a neighbouring cell is found from the masks of the active cells and
+ * the first vertex of each mask word.</p>
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+final class SurfaceNets {
+
+    private final float threshold;
+    private final float[] h;
+    private final float[] offs;
+    private final boolean directBuffers;
+    // samples of the volume
+    private byte[] data;
+    private ArrayVolumeSource source;
+    private int origin;
+    private int incrX;
+    private int incrY;
+    private int incrZ;
+    private int nx;
+    private int ny;
+    private int nz;
+    private CellClassifier classifier;
+    private int wordsPerRow;
+    // classification of each plane
+    private long[][] masks;
+    // per row of cells (y + (ny - 1) * z), wordsPerRow words each: active
+    // cells and vertex of the first active cell of the word
+    private long[] active;
+    private int[] firstVertex;
+    // per row of cells: number of triangles and first triangle
+    private int[] nrTriangles;
+    private int[] firstTriangle;
+    private Mesh mesh;
+
+    /**
+     * Constructor.
+     *
+     * @param threshold isosurface threshold
+     * @param h cell length in x, y and z direction
+     * @param offs offset to add to the vertices
+     * @param directBuffers defines whether the mesh is allocated outside
+     *                      of the heap
+     */
+    SurfaceNets(float threshold, float[] h, float[] offs, boolean directBuffers) {
+        this.threshold = threshold;
+        this.h = h.clone();
+        this.offs = offs.clone();
+        this.directBuffers = directBuffers;
+    }
+
+    /**
+     * Extracts the isosurface of the specified volume. Normals are not
+     * computed.
+     *
+     * @param gridTopo grid topology of the volume
+     * @param memTopo memory topology of the volume
+     * @param data samples of the volume
+     * @param executor executor that runs the passes, <code>null</code> to
+     *                 run them on the calling thread
+     * @param nrTasks number of tasks per pass
+     * @return the isosurface
+     * @throws InterruptedException if interrupted while waiting
+     */
+    Mesh exec(GridTopo gridTopo, MemTopo memTopo, byte[] data,
+            ExecutorService executor, int nrTasks) throws InterruptedException {
+        source = new ArrayVolumeSource(gridTopo, memTopo, data);
+
+        final int[] extent = gridTopo.extent();
+        nx = extent[GridTopo.X];
+        ny = extent[GridTopo.Y];
+        nz = extent[GridTopo.Z];
+        if (nx < 2 || ny < 2 || nz < 2) {
+            // no cells
+            source = null;
+            return new Mesh(0, 0, directBuffers);
+        }
+
+        this.data = data;
+        final AddrOp op = new AddrOp(gridTopo, memTopo);
+        origin = op.addr(new int[3], 0);
+        incrX = op.incr(GridTopo.X);
+        incrY = op.incr(GridTopo.Y);
+        incrZ = op.incr(GridTopo.Z);
+
+        classifier = new CellClassifier(nx, ny, threshold);
+        wordsPerRow = classifier.wordsPerRow();
+        masks = new long[nz][];
+
+        final int nrCellRows = (ny - 1) * (nz - 1);
+        active = new long[nrCellRows * wordsPerRow];
+        firstVertex = new int[nrCellRows * wordsPerRow];
+        nrTriangles = new int[nrCellRows];
+        firstTriangle = new int[nrCellRows];
+
+        // pass 1
+        run(executor, nrTasks, nz, new Pass() {
+
+            @Override
+            public void run(int z0, int z1) {
+                classifyPlanes(z0, z1);
+            }
+        });
+
+        // pass 2
+        run(executor, nrTasks, nz - 1, new Pass() {
+
+            @Override
+            public void run(int z0, int z1) {
+                countCells(z0, z1);
+            }
+        });
+
+        // pass 3
+        int nrVertices = 0;
+        int nrTris = 0;
+        for (int r = 0; r < nrCellRows; r++) {
+            for (int w = r * wordsPerRow; w < (r + 1) * wordsPerRow; w++) {
+                firstVertex[w] = nrVertices;
+                nrVertices += Long.bitCount(active[w]);
+            }
+            firstTriangle[r] = nrTris;
+            nrTris += nrTriangles[r];
+        }
+        mesh = new Mesh(nrVertices, nrTris, directBuffers);
+
+        // pass 4
+        run(executor, nrTasks, nz - 1, new Pass() {
+
+            @Override
+            public void run(int z0, int z1) {
+                fillCells(z0, z1);
+            }
+        });
+
+        final Mesh result = mesh;
+        release();
+        return result;
+    }
+
+    // Drops the references to the volume and to the intermediate arrays.
+    private void release() {
+        data = null;
+        source = null;
+        classifier = null;
+        masks = null;
+        active = null;
+        firstVertex = null;
+        nrTriangles = null;
+        firstTriangle = null;
+        mesh = null;
+    }
+
+    /**
+     * Work of one pass on a range of Z planes (or cell layers).
+     */
+    private interface Pass {
+
+        void run(int z0, int z1);
+    }
+
+    // Runs the pass on nrTasks ranges of [0, n) and waits for all of them.
+    private void run(ExecutorService executor, int nrTasks, final int n,
+            final Pass pass) throws InterruptedException {
+        if (executor == null) {
+            pass.run(0, n);
+            return;
+        }
+
+        nrTasks = Math.max(1, Math.min(nrTasks, n));
+        final List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(nrTasks);
+        for (int i = 0; i < nrTasks; i++) {
+            final int z0 = (int) ((long) i * n / nrTasks);
+            final int z1 = (int) ((long) (i + 1) * n / nrTasks);
+            tasks.add(new Callable<Object>() {
+
+                @Override
+                public Object call() {
+                    pass.run(z0, z1);
+                    return null;
+                }
+            });
+        }
+
+        for (Future<Object> f : executor.invokeAll(tasks)) {
+            try {
+                f.get();
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                }
+                throw new IllegalStateException(ex.getCause());
+            }
+        }
+    }
+
+    // Pass 1: classifies the planes.
+    private void classifyPlanes(int z0, int z1) {
+        final byte[] plane = new byte[nx * ny];
+        for (int z = z0; z < z1; z++) {
+            source.readPlane(z, plane);
+            final long[] mask = classifier.newMask();
+            classifier.classify(plane, mask);
+            masks[z] = mask;
+        }
+    }
+
+    // Number of quads of a cell, i.e., the number of intersected edges at
+    // its lower corner that are surrounded by four cells.
+    private static int nrQuads(int x, int y, int z, int tableIndex) {
+        final int inside = tableIndex & 1;
+        int n = 0;
+        if (y > 0 && z > 0 && ((tableIndex >> 3) & 1) != inside) {
+            n++;
+        }
+        if (x > 0 && z > 0 && ((tableIndex >> 1) & 1) != inside) {
+            n++;
+        }
+        if (x > 0 && y > 0 && ((tableIndex >> 4) & 1) != inside) {
+            n++;
+        }
+        return n;
+    }
+
+    // Pass 2: finds the active cells and counts the triangles of each row
+    // of cells.
+    private void countCells(int z0, int z1) {
+        final int[] cellX = new int[nx - 1];
+        final int[] cellCase = new int[nx - 1];
+
+        for (int z = z0; z < z1; z++) {
+            for (int y = 0; y < ny - 1; y++) {
+                final int r = y + (ny - 1) * z;
+                final int nrActive = classifier.activeCells(
+                        masks[z], masks[z + 1], y, cellX, cellCase);
+                int n = 0;
+                for (int i = 0; i < nrActive; i++) {
+                    final int x = cellX[i];
+                    active[r * wordsPerRow + (x >>> 6)] |= 1L << x;
+                    n += 2 * nrQuads(x, y, z, cellCase[i]);
+                }
+                nrTriangles[r] = n;
+            }
+        }
+    }
+
+    // Vertex of the active cell (x, y, z).
+    private int vertex(int x, int y, int z) {
+        final int w = (y + (ny - 1) * z) * wordsPerRow + (x >>> 6);
+        return firstVertex[w] + Long.bitCount(active[w] & ((1L << x) - 1));
+    }
+
+    // Pass 4: computes the vertices and triangles of each row of cells.
+    private void fillCells(int z0, int z1) {
+        final FloatBuffer vertices = mesh.vertices();
+        final IntBuffer triangles = mesh.triangles();
+        final int[] cellX = new int[nx - 1];
+        final int[] cellCase = new int[nx - 1];
+        final float[] elem = new float[8];
+
+        for (int z = z0; z < z1; z++) {
+            for (int y = 0; y < ny - 1; y++) {
+                final int r = y + (ny - 1) * z;
+                final int addr = origin + y * incrY + z * incrZ;
+                final int nrActive = classifier.activeCells(
+                        masks[z], masks[z + 1], y, cellX, cellCase);
+
+                int id = nrActive > 0 ? vertex(cellX[0], y, z) : 0;
+                int t = 3 * firstTriangle[r];
+                for (int i = 0; i < nrActive; i++, id++) {
+                    final int x = cellX[i];
+                    final int tableIndex = cellCase[i];
+                    final int idx = addr + x * incrX;
+                    elem[0] = data[idx];
+                    elem[1] = data[idx + incrY];
+                    elem[2] = data[idx + incrX + incrY];
+                    elem[3] = data[idx + incrX];
+                    elem[4] = data[idx + incrZ];
+                    elem[5] = data[idx + incrY + incrZ];
+                    elem[6] = data[idx + incrX + incrY + incrZ];
+                    elem[7] = data[idx + incrX + incrZ];
+                    addVertex(vertices, id, x, y, z, tableIndex, elem);
+
+                    t = addQuads(triangles, t, id, x, y, z, tableIndex);
+                }
+            }
+        }
+    }
+
+    // Places the vertex of a cell at the mean of the intersections of its
+    // edges (interpolated like MarchingCubes.intersect()).
+    private void addVertex(FloatBuffer vertices, int id, int x, int y, int z,
+            int tableIndex, float[] elem) {
+        float sx = 0;
+        float sy = 0;
+        float sz = 0;
+        int n = 0;
+
+        int edges = MarchingCubes.edgeLUT[tableIndex];
+        while (edges != 0) {
+            final int i = Integer.numberOfTrailingZeros(edges);
+            edges &= edges - 1;
+
+            final float lower = elem[MarchingCubes.edgeLowerCorner[i]];
+            final float mu = (threshold - lower)
+                    / (elem[MarchingCubes.edgeUpperCorner[i]] - lower);
+            final int axis = MarchingCubes.edgeAxis[i];
+            sx += MarchingCubes.edgeOffsetX[i] + (axis == GridTopo.X ? mu : 0);
+            sy += MarchingCubes.edgeOffsetY[i] + (axis == GridTopo.Y ? mu : 0);
+            sz += MarchingCubes.edgeOffsetZ[i] + (axis == GridTopo.Z ? mu : 0);
+            n++;
+        }
+
+        vertices.put(3 * id, (x + sx / n) * h[GridTopo.X] + offs[0]);
+        vertices.put(3 * id + 1, (y + sy / n) * h[GridTopo.Y] + offs[1]);
+        vertices.put(3 * id + 2, (z + sz / n) * h[GridTopo.Z] + offs[2]);
+    }
+
+    // Adds the quads of the intersected edges at the lower corner of the
+    // cell (x, y, z), whose vertex is c11. The cells around an edge are
+    // ordered counterclockwise around the edge direction and reversed if
+    // the lower corner of the edge is outside, which matches the
+    // orientation of MarchingCubes.triangleLUT.
+    private int addQuads(IntBuffer triangles, int t, int c11, int x, int y, int z,
+            int tableIndex) {
+        final boolean inside = (tableIndex & 1) != 0;
+
+        // X edge, cells around it in the (y, z) plane
+        if (y > 0 && z > 0 && ((tableIndex >> 3) & 1) != (tableIndex & 1)) {
+            t = addQuad(triangles, t, inside,
+                    vertex(x, y - 1, z - 1), vertex(x, y, z - 1), c11, vertex(x, y - 1, z));
+        }
+
+        // Y edge, cells around it in the (z, x) plane
+        if (x > 0 && z > 0 && ((tableIndex >> 1) & 1) != (tableIndex & 1)) {
+            t = addQuad(triangles, t, inside,
+                    vertex(x - 1, y, z - 1), vertex(x - 1, y, z), c11, vertex(x, y, z - 1));
+        }
+
+        // Z edge, cells around it in the (x, y) plane
+        if (x > 0 && y > 0 && ((tableIndex >> 4) & 1) != (tableIndex & 1)) {
+            t = addQuad(triangles, t, inside,
+                    vertex(x - 1, y - 1, z), vertex(x, y - 1, z), c11, vertex(x - 1, y, z));
+        }
+
+        return t;
+    }
+
+    // Splits the quad (c00, c10, c11, c01) into two triangles.
+    private static int addQuad(IntBuffer triangles, int t, boolean forward,
+            int c00, int c10, int c11, int c01) {
+        if (forward) {
+            triangles.put(t++, c00);
+            triangles.put(t++, c10);
+            triangles.put(t++, c11);
+            triangles.put(t++, c00);
+            triangles.put(t++, c11);
+            triangles.put(t++, c01);
+        } else {
+            triangles.put(t++, c00);
+            triangles.put(t++, c11);
+            triangles.put(t++, c10);
+            triangles.put(t++, c00);
+            triangles.put(t++, c01);
+            triangles.put(t++, c11);
+        }
+        return t;
+    }
+}
@@ -0,0 +1,548 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Writes 8 bit grayscale image stacks as multi-page TIFF files, one page
+ * per XY plane. Pages are written as soon as they are available, i.e.,
+ * the whole stack never has to be in memory. Each page is split into
+ * strips of approximately {@link #STRIP_SIZE} bytes that are compressed
+ * independently.
+ *
+ * <p>Encoding (see {@link #encode(byte[]) }) is thread-safe and may run on
+ * several threads while another thread writes the encoded pages in
+ * order. Files that may exceed 4 GB are written as BigTIFF.</p>
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public class TiffWriter implements Closeable {
+
+    /**
+     * Uncompressed size of a strip (bytes).
+     */
+    public static final int STRIP_SIZE = 1 << 16;
+
+    /**
+     * Compression of the image data.
+     */
+    public static enum Compression {
+
+        NONE(1), LZW(5), DEFLATE(8);
+        private final int tag;
+
+        private Compression(int tag) {
+            this.tag = tag;
+        }
+    }
+
+    // classic TIFF files must not exceed this offset
+    private static final long MAX_CLASSIC_OFFSET = 0xFFFFFFFFL;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+    private static final int TYPE_LONG8 = 16;
+    private final FileChannel channel;
+    private final int width;
+    private final int height;
+    private final int rowsPerStrip;
+    private final int nrStrips;
+    private final Compression compression;
+    private final boolean bigTiff;
+    // end of file
+    private long pos;
+    // location of the offset field that has to point to the next IFD
+    private long nextIFDField;
+    private int nrPages;
+
+    /**
+     * Constructor. Uses BigTIFF if the file may exceed 4 GB.
+     *
+     * @param f destination file
+     * @param width width of the pages
+     * @param height height of the pages
+     * @param nrPages expected number of pages
+     * @param compression compression of the image data
+     * @throws IOException if the file cannot be created
+     */
+    public TiffWriter(File f, int width, int height, int nrPages,
+            Compression compression) throws IOException {
+        this(f, width, height, compression,
+                maxFileSize(width, height, nrPages, compression)
+                > MAX_CLASSIC_OFFSET);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param f destination file
+     * @param width width of the pages
+     * @param height height of the pages
+     * @param compression compression of the image data
+     * @param bigTiff defines whether to write a BigTIFF file
+     * @throws IOException if the file cannot be created
+     */
+    public TiffWriter(File f, int width, int height,
+            Compression compression, boolean bigTiff) throws IOException {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException(
+                    "pages must contain at least one pixel!");
+        }
+
+        this.width = width;
+        this.height = height;
+        this.compression = compression;
+        this.bigTiff = bigTiff;
+        this.rowsPerStrip = Math.max(1, Math.min(height, STRIP_SIZE / width));
+        this.nrStrips = (height + rowsPerStrip - 1) / rowsPerStrip;
+
+        final RandomAccessFile file = new RandomAccessFile(f, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+
+        // little endian header, the offset of the first IFD is written
+        // together with the first page
+        final ByteBuffer header = ByteBuffer.allocate(bigTiff ? 16 : 8).
+                order(ByteOrder.LITTLE_ENDIAN);
+        header.put((byte) 'I').put((byte) 'I');
+        if (bigTiff) {
+            header.putShort((short) 43).putShort((short) 8).putShort((short) 0);
+            nextIFDField = 8;
+        } else {
+            header.putShort((short) 42);
+            nextIFDField = 4;
+        }
+        header.clear();
+        write(header);
+    }
+
+    /**
+     * Returns an upper bound of the size of a file with the specified
+     * number of pages.
+     */
+    private static long maxFileSize(
+            int width, int height, int nrPages, Compression compression) {
+        final long planeSize = (long) width * height;
+        // LZW codes are at most 12 bit per byte, deflate adds a few bytes
+        // per 16 KB block
+        final long dataSize = compression == Compression.LZW
+                ? planeSize * 3 / 2 + 1024 : planeSize + planeSize / 1000 + 1024;
+        final long nrStrips = (planeSize + STRIP_SIZE - 1) / STRIP_SIZE + 1;
+
+        return 16 + (long) nrPages * (dataSize + 16 * nrStrips + 256);
+    }
+
+    /**
+     * Indicates whether this writer writes a BigTIFF file.
+     * @return <code>true</code> if this is a BigTIFF file;
+     *         <code>false</code> otherwise
+     */
+    public boolean isBigTiff() {
+        return bigTiff;
+    }
+
+    /**
+     * Returns the number of pages that have been written.
+     * @return the number of pages that have been written
+     */
+    public int nrPages() {
+        return nrPages;
+    }
+
+    /**
+     * Encodes the specified plane. This method is thread-safe.
+     *
+     * @param plane samples of the plane, X running fastest
+     * @return the encoded page
+     */
+    public Page encode(byte[] plane) {
+        if (plane.length < width * height) {
+            throw new IllegalArgumentException(
+                    "plane contains less than " + width * height + " samples!");
+        }
+
+        final int[] stripSizes = new int[nrStrips];
+        byte[] data;
+        int size = 0;
+
+        switch (compression) {
+            case NONE:
+                data = Arrays.copyOf(plane, width * height);
+                for (int s = 0; s < nrStrips; s++) {
+                    stripSizes[s] = stripLength(s);
+                }
+                size = data.length;
+                break;
+            case DEFLATE: {
+                final Deflater deflater = new Deflater();
+                data = new byte[width * height + 64 * nrStrips];
+                try {
+                    for (int s = 0; s < nrStrips; s++) {
+                        deflater.reset();
+                        deflater.setInput(
+                                plane, s * rowsPerStrip * width, stripLength(s));
+                        deflater.finish();
+                        final int start = size;
+                        while (!deflater.finished()) {
+                            if (size == data.length) {
+                                data = Arrays.copyOf(data, 2 * data.length);
+                            }
+                            size += deflater.deflate(data, size, data.length - size);
+                        }
+                        stripSizes[s] = size - start;
+                    }
+                } finally {
+                    deflater.end();
+                }
+                break;
+            }
+            case LZW: {
+                final LZWEncoder encoder = new LZWEncoder(width * height);
+                for (int s = 0; s < nrStrips; s++) {
+                    final int start = encoder.size();
+                    encoder.encode(plane, s * rowsPerStrip * width, stripLength(s));
+                    stripSizes[s] = encoder.size() - start;
+                }
+                data = encoder.data();
+                size = encoder.size();
+                break;
+            }
+            default:
+                throw new IllegalStateException(
+                        "unsupported compression: " + compression);
+        }
+
+        return new Page(data, size, stripSizes);
+    }
+
+    private int stripLength(int strip) {
+        return (Math.min(height, (strip + 1) * rowsPerStrip)
+                - strip * rowsPerStrip) * width;
+    }
+
+    /**
+     * Encodes and writes the specified plane.
+     *
+     * @param plane samples of the plane, X running fastest
+     * @throws IOException if writing fails
+     */
+    public void writePlane(byte[] plane) throws IOException {
+        write(encode(plane));
+    }
+
+    /**
+     * Writes the specified page, i.e., its strips and its IFD. Pages are
+     * written in the order of the calls of this method.
+     *
+     * @param page page to write (must have been encoded by this writer)
+     * @throws IOException if writing fails
+     */
+    public void write(Page page) throws IOException {
+        if (page.stripSizes.length != nrStrips) {
+            throw new IllegalArgumentException(
+                    "page has not been encoded by this writer!");
+        }
+
+        final long dataOffset = pos;
+        write(ByteBuffer.wrap(page.data, 0, page.size));
+
+        final int valueSize = bigTiff ? 8 : 4;
+        final int stripType = bigTiff ? TYPE_LONG8 : TYPE_LONG;
+
+        // strip offsets and sizes are stored outside of the IFD if they
+        // do not fit into the value field
+        final boolean external = nrStrips > 1;
+        final ByteBuffer strips = ByteBuffer.allocate(
+                (external ? 2 * nrStrips * valueSize : 0) + 2).
+                order(ByteOrder.LITTLE_ENDIAN);
+
+        // word alignment
+        if (pos % 2 != 0) {
+            strips.put((byte) 0);
+        }
+
+        final long stripOffsetsPos = pos + strips.position();
+        long offset = dataOffset;
+        for (int s = 0; s < nrStrips && external; s++) {
+            putValue(strips, offset);
+            offset += page.stripSizes[s];
+        }
+
+        final long stripSizesPos = pos + strips.position();
+        for (int s = 0; s < nrStrips && external; s++) {
+            putValue(strips, page.stripSizes[s]);
+        }
+
+        // word alignment of the IFD
+        if ((pos + strips.position()) % 2 != 0) {
+            strips.put((byte) 0);
+        }
+
+        strips.flip();
+        write(strips);
+
+        final int nrEntries = 10;
+        final long ifdPos = pos;
+        final ByteBuffer ifd = ByteBuffer.allocate(
+                bigTiff ? 8 + 20 * nrEntries + 8 : 2 + 12 * nrEntries + 4).
+                order(ByteOrder.LITTLE_ENDIAN);
+
+        if (bigTiff) {
+            ifd.putLong(nrEntries);
+        } else {
+            ifd.putShort((short) nrEntries);
+        }
+
+        // entries have to be sorted by tag
+        putEntry(ifd, 256, TYPE_LONG, 1, width);
+        putEntry(ifd, 257, TYPE_LONG, 1, height);
+        putEntry(ifd, 258, TYPE_SHORT, 1, 8);
+        putEntry(ifd, 259, TYPE_SHORT, 1, compression.tag);
+        // black is zero
+        putEntry(ifd, 262, TYPE_SHORT, 1, 1);
+        putEntry(ifd, 273, stripType, nrStrips,
+                external ? stripOffsetsPos : dataOffset);
+        putEntry(ifd, 277, TYPE_SHORT, 1, 1);
+        putEntry(ifd, 278, TYPE_LONG, 1, rowsPerStrip);
+        putEntry(ifd, 279, stripType, nrStrips,
+                external ? stripSizesPos : page.stripSizes[0]);
+        putEntry(ifd, 284, TYPE_SHORT, 1, 1);
+
+        final long ifdNextField = pos + ifd.position();
+        putValue(ifd, 0);
+
+        ifd.flip();
+        write(ifd);
+
+        // link the new IFD
+        final ByteBuffer link = ByteBuffer.allocate(valueSize).
+                order(ByteOrder.LITTLE_ENDIAN);
+        putValue(link, ifdPos);
+        link.flip();
+        while (link.hasRemaining()) {
+            channel.write(link, nextIFDField + link.position());
+        }
+
+        nextIFDField = ifdNextField;
+        nrPages++;
+    }
+
+    private void putEntry(ByteBuffer ifd, int tag, int type, long count, long value) {
+        ifd.putShort((short) tag).putShort((short) type);
+
+        if (bigTiff) {
+            ifd.putLong(count);
+        } else {
+            ifd.putInt((int) count);
+        }
+
+        // values are left aligned in the value field
+        final int start = ifd.position();
+        if (type == TYPE_SHORT) {
+            ifd.putShort((short) value);
+        } else if (type == TYPE_LONG) {
+            ifd.putInt((int) value);
+        } else {
+            ifd.putLong(value);
+        }
+        while (ifd.position() < start + (bigTiff ? 8 : 4)) {
+            ifd.put((byte) 0);
+        }
+    }
+
+    private void putValue(ByteBuffer buffer, long value) {
+        if (bigTiff) {
+            buffer.putLong(value);
+        } else {
+            buffer.putInt((int) value);
+        }
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        if (!bigTiff && pos + buffer.remaining() > MAX_CLASSIC_OFFSET) {
+            throw new IOException(
+                    "TIFF file exceeds 4 GB, BigTIFF is required!");
+        }
+
+        while (buffer.hasRemaining()) {
+            pos += channel.write(buffer, pos);
+        }
+    }
+
+    /**
+     * Closes the file.
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Encoded page, i.e., compressed strips.
+     */
+    public static final class Page {
+
+        private final byte[] data;
+        private final int size;
+        private final int[] stripSizes;
+
+        private Page(byte[] data, int size, int[] stripSizes) {
+            this.data = data;
+            this.size = size;
+            this.stripSizes = stripSizes;
+        }
+
+        /**
+         * Returns the size of the encoded page.
+         * @return the size of the encoded page (bytes)
+         */
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * TIFF flavoured LZW encoder (MSB first, 9 to 12 bit codes, early
+     * change). Each call of {@link #encode(byte[], int, int) } produces
+     * an independent strip.
+     */
+    private static final class LZWEncoder {
+
+        private static final int CLEAR = 256;
+        private static final int EOI = 257;
+        private static final int FIRST_CODE = 258;
+        private static final int MAX_CODE = 4094;
+        private static final int HASH_SIZE = 8192;
+        private byte[] data;
+        private int size;
+        private long bits;
+        private int nrBits;
+        private int codeLength;
+        private int nextCode;
+        // open addressing, key is prefix << 8 | byte
+        private final int[] hashKeys = new int[HASH_SIZE];
+        private final short[] hashCodes = new short[HASH_SIZE];
+
+        LZWEncoder(int capacity) {
+            data = new byte[Math.max(16, capacity)];
+        }
+
+        byte[] data() {
+            return data;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void encode(byte[] src, int offset, int length) {
+            reset();
+            put(CLEAR);
+
+            if (length > 0) {
+                int prefix = src[offset] & 0xFF;
+
+                for (int i = offset + 1; i < offset + length; i++) {
+                    final int b = src[i] & 0xFF;
+                    final int key = prefix << 8 | b;
+
+                    int h = (key * 0x9E3779B1) >>> 19;
+                    while (hashKeys[h] != -1 && hashKeys[h] != key) {
+                        h = (h + 1) & (HASH_SIZE - 1);
+                    }
+
+                    if (hashKeys[h] == key) {
+                        prefix = hashCodes[h];
+                        continue;
+                    }
+
+                    put(prefix);
+                    hashKeys[h] = key;
+                    hashCodes[h] = (short) nextCode;
+                    addCode();
+                    prefix = b;
+                }
+
+                put(prefix);
+                addCode();
+            }
+
+            put(EOI);
+
+            // pad the last byte
+            if (nrBits > 0) {
+                putByte((int) (bits << (8 - nrBits)));
+                nrBits = 0;
+            }
+        }
+
+        // the decoder adds a code for each code it reads, the encoder
+        // has to switch code lengths accordingly
+        private void addCode() {
+            nextCode++;
+            if (nextCode == MAX_CODE) {
+                put(CLEAR);
+                reset();
+            } else if (nextCode > (1 << codeLength) - 1) {
+                codeLength++;
+            }
+        }
+
+        private void reset() {
+            Arrays.fill(hashKeys, -1);
+            codeLength = 9;
+            nextCode = FIRST_CODE;
+        }
+
+        private void put(int code) {
+            bits = bits << codeLength | code;
+            nrBits += codeLength;
+            while (nrBits >= 8) {
+                nrBits -= 8;
+                putByte((int) (bits >>> nrBits));
+            }
+        }
+
+        private void putByte(int b) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, 2 * data.length);
+            }
+            data[size++] = (byte) b;
+        }
+    }
+}
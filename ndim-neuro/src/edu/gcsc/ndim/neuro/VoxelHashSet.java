@@ -0,0 +1,220 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+import java.util.Arrays;
+
+/**
+ * Hash set of voxel coordinates. Coordinates are packed into a single
+ * <code>long</code> (21 bit per axis) and stored with open addressing,
+ * i.e., adding a voxel does not create any objects.
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public class VoxelHashSet {
+
+    /**
+     * Smallest coordinate that can be stored.
+     */
+    public static final int MIN_COORD = -(1 << 20);
+    /**
+     * Largest coordinate that can be stored.
+     */
+    public static final int MAX_COORD = (1 << 20) - 1;
+
+    private static final long EMPTY = -1;
+    private static final int MASK = (1 << 21) - 1;
+
+    private long[] keys;
+    private int size;
+
+    /**
+     * Constructor.
+     */
+    public VoxelHashSet() {
+        this(16);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param expectedSize expected number of voxels
+     */
+    public VoxelHashSet(int expectedSize) {
+        keys = new long[capacity(expectedSize)];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * Returns the table capacity for the specified number of voxels, i.e.,
+     * the smallest power of two that is at least twice as large.
+     *
+     * @param expectedSize expected number of voxels
+     * @return the number of table entries (8 bytes each)
+     */
+    static int capacity(int expectedSize) {
+        int capacity = 16;
+        while (capacity < 2 * expectedSize && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * Adds the specified voxel.
+     *
+     * @param x x coordinate
+     * @param y y coordinate
+     * @param z z coordinate
+     * @return <code>true</code> if the voxel has not been in this set;
+     *         <code>false</code> otherwise
+     * @throws IllegalArgumentException if a coordinate is out of range
+     */
+    public boolean add(int x, int y, int z) {
+        final long key = pack(x, y, z);
+
+        if (!insert(keys, key)) {
+            return false;
+        }
+
+        size++;
+
+        if (2 * size > keys.length) {
+            rehash();
+        }
+
+        return true;
+    }
+
+    /**
+     * Indicates whether the specified voxel is in this set.
+     *
+     * @param x x coordinate
+     * @param y y coordinate
+     * @param z z coordinate
+     * @return <code>true</code> if the voxel is in this set;
+     *         <code>false</code> otherwise
+     */
+    public boolean contains(int x, int y, int z) {
+        if (!inRange(x) || !inRange(y) || !inRange(z)) {
+            return false;
+        }
+
+        final long key = pack(x, y, z);
+        final int mask = keys.length - 1;
+
+        for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return true;
+            }
+            if (keys[i] == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of voxels in this set.
+     * @return the number of voxels in this set
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all voxels from this set.
+     */
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    private static boolean insert(long[] table, long key) {
+        final int mask = table.length - 1;
+
+        for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+            if (table[i] == key) {
+                return false;
+            }
+            if (table[i] == EMPTY) {
+                table[i] = key;
+                return true;
+            }
+        }
+    }
+
+    private void rehash() {
+        if (keys.length == (1 << 30)) {
+            throw new IllegalStateException(
+                    "maximum number of voxels exceeded!");
+        }
+
+        final long[] table = new long[keys.length * 2];
+        Arrays.fill(table, EMPTY);
+
+        for (long key : keys) {
+            if (key != EMPTY) {
+                insert(table, key);
+            }
+        }
+
+        keys = table;
+    }
+
+    private static boolean inRange(int v) {
+        return v >= MIN_COORD && v <= MAX_COORD;
+    }
+
+    private static long pack(int x, int y, int z) {
+        if (!inRange(x) || !inRange(y) || !inRange(z)) {
+            throw new IllegalArgumentException(
+                    "coordinate out of range: " + x + ", " + y + ", " + z);
+        }
+
+        return ((long) ((x - MIN_COORD) & MASK) << 42)
+                | ((long) ((y - MIN_COORD) & MASK) << 21)
+                | ((z - MIN_COORD) & MASK);
+    }
+
+    /**
+     * Hash function of packed keys (finalizer of MurmurHash3). Also used
+     * by {@link BrickedVolume}.
+     *
+     * @param key key
+     * @return the hash of the key
+     */
+    static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb53e39c34e63L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
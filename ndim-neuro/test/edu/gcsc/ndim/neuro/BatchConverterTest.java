@@ -0,0 +1,249 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link BatchConverter} on tiny SWC files in a temporary directory.
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public class BatchConverterTest {
+
+    private File dir;
+    private File outputDir;
+    private File simple;
+    private File special;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("batch", "");
+        assertTrue(dir.delete() && dir.mkdir());
+        outputDir = new File(dir, "out");
+
+        simple = new File(dir, "simple.swc");
+        writeSWC(simple);
+        // commas and quotes have to be quoted in the summary
+        special = new File(dir, "cell, \"special\".swc");
+        writeSWC(special);
+    }
+
+    @After
+    public void tearDown() {
+        delete(dir);
+    }
+
+    @Test
+    public void convertsAndSkipsUpToDateFiles() throws InterruptedException {
+        final List<File> inputs = Arrays.asList(simple, special);
+
+        List<BatchConverter.Result> results = newConverter().convert(inputs);
+        assertStatus(results, BatchConverter.Status.CONVERTED);
+
+        for (String name : new String[]{"simple", "cell, \"special\""}) {
+            assertTrue(new File(outputDir, name + ".tif").length() > 0);
+            assertTrue(new File(outputDir, name + ".obj").length() > 0);
+        }
+        assertNoPartFiles();
+
+        results = newConverter().convert(inputs);
+        assertStatus(results, BatchConverter.Status.SKIPPED);
+
+        // outputs that are older than the input are converted again
+        assertTrue(simple.setLastModified(
+                new File(outputDir, "simple.obj").lastModified() + 10000));
+        results = newConverter().convert(inputs);
+        assertEquals(BatchConverter.Status.CONVERTED, results.get(0).getStatus());
+        assertEquals(BatchConverter.Status.SKIPPED, results.get(1).getStatus());
+    }
+
+    @Test
+    public void exceedingTheBudgetFails() throws InterruptedException {
+        final BatchConverter converter = newConverter();
+        // less than the smallest estimate (one megabyte)
+        converter.setMemoryBudget(1000);
+
+        final List<BatchConverter.Result> results =
+                converter.convert(Arrays.asList(simple, special));
+        assertStatus(results, BatchConverter.Status.FAILED);
+        assertEquals("exceeds memory budget", results.get(0).getMessage());
+
+        assertEquals(0, outputDir.list().length);
+    }
+
+    @Test
+    public void invalidFileFails() throws IOException, InterruptedException {
+        final File invalid = new File(dir, "invalid.swc");
+        final Writer w = new FileWriter(invalid);
+        try {
+            w.write("1 1 garbage 0 0 1 -1\n");
+        } finally {
+            w.close();
+        }
+
+        final List<BatchConverter.Result> results =
+                newConverter().convert(Arrays.asList(invalid, simple));
+        assertEquals(BatchConverter.Status.FAILED, results.get(0).getStatus());
+        assertEquals(BatchConverter.Status.CONVERTED, results.get(1).getStatus());
+        assertFalse(new File(outputDir, "invalid.tif").exists());
+        assertFalse(new File(outputDir, "invalid.obj").exists());
+        assertNoPartFiles();
+    }
+
+    @Test
+    public void summaryQuotesFields() throws IOException, InterruptedException {
+        final File invalid = new File(dir, "invalid.swc");
+        final Writer w = new FileWriter(invalid);
+        try {
+            // the message contains a comma and quotes
+            w.write("1 1 \"x,y\" 0 0 1 -1\n");
+        } finally {
+            w.close();
+        }
+
+        final List<BatchConverter.Result> results =
+                newConverter().convert(Arrays.asList(special, invalid));
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final PrintStream out = new PrintStream(bytes, true, "UTF-8");
+        BatchConverter.printSummary(results, out);
+        final String[] lines = bytes.toString("UTF-8").split("\n");
+
+        assertEquals(4, lines.length);
+        assertEquals("# file,status,time [ms],estimated memory [MB],message", lines[0]);
+        assertTrue(lines[1], lines[1].startsWith(
+                "\"" + special.getPath().replace("\"", "\"\"") + "\",CONVERTED,"));
+        assertTrue(lines[1], lines[1].endsWith(",\"\""));
+
+        final String message = results.get(1).getMessage();
+        assertTrue(message, message.contains(",") && message.contains("\""));
+        assertTrue(lines[2], lines[2].startsWith(
+                "\"" + invalid.getPath() + "\",FAILED,"));
+        assertTrue(lines[2], lines[2].endsWith(
+                ",\"" + message.replace("\"", "\"\"") + "\""));
+
+        assertTrue(lines[3], lines[3].startsWith(
+                "# converted: 1, skipped: 0, failed: 1, total file time: "));
+
+        // the quoted fields can be split again
+        assertEquals(5, splitCSV(lines[1]).length);
+        assertEquals(special.getPath(), splitCSV(lines[1])[0]);
+        assertEquals(message, splitCSV(lines[2])[4]);
+    }
+
+    private BatchConverter newConverter() {
+        final BatchConverter converter = new BatchConverter(outputDir);
+        converter.setNrThreads(2);
+        converter.setCubeSize(1);
+        return converter;
+    }
+
+    private static void assertStatus(List<BatchConverter.Result> results,
+            BatchConverter.Status status) {
+        for (BatchConverter.Result r : results) {
+            assertEquals(r.getInput() + ": " + r.getMessage(), status, r.getStatus());
+        }
+    }
+
+    private void assertNoPartFiles() {
+        for (String name : outputDir.list()) {
+            assertFalse(name, name.endsWith(".part"));
+        }
+    }
+
+    private static void writeSWC(File f) throws IOException {
+        final Writer w = new FileWriter(f);
+        try {
+            w.write("# tiny test morphology\n");
+            w.write("1 1 10 10 10 2 -1\n");
+            w.write("2 3 14 10 10 1 1\n");
+            w.write("3 3 20 12 10 1 2\n");
+            w.write("4 3 24 15 11 1 3\n");
+        } finally {
+            w.close();
+        }
+    }
+
+    /**
+     * Splits a CSV line with quoted fields (RFC 4180).
+     */
+    private static String[] splitCSV(String line) {
+        final List<String> fields = new ArrayList<String>();
+        final StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+
+        return fields.toArray(new String[fields.size()]);
+    }
+
+    private static void delete(File f) {
+        final File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children) {
+                delete(c);
+            }
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ndim.DataContainer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that {@link FlyingEdges} yields the surface of the classic
+ * {@link MarchingCubes} sweep: same triangles in the same order with the
+ * same vertex positions. Vertices are mapped by position, the mapping has
+ * to be one-to-one.
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public class FlyingEdgesTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void sphere() throws InterruptedException {
+        assertSameSurface(TestVolumes.sphere(37, 30, 28, 11.5), 0.0f);
+    }
+
+    @Test
+    public void noiseOddWidth() throws InterruptedException {
+        assertSameSurface(TestVolumes.noise(37, 11, 13, 3), 0.5f);
+        assertSameSurface(TestVolumes.noise(37, 11, 13, 3), -2.0f);
+    }
+
+    @Test
+    public void noiseWordBoundaries() throws InterruptedException {
+        // the bit masks of a row use 64 samples per word
+        assertSameSurface(TestVolumes.noise(64, 7, 9, 5), 0.5f);
+        assertSameSurface(TestVolumes.noise(65, 7, 9, 5), 0.5f);
+        assertSameSurface(TestVolumes.noise(129, 5, 6, 5), 0.0f);
+    }
+
+    @Test
+    public void thinVolumes() throws InterruptedException {
+        assertSameSurface(TestVolumes.noise(2, 2, 2, 1), 0.5f);
+        assertSameSurface(TestVolumes.noise(65, 2, 17, 2), 0.5f);
+        assertSameSurface(TestVolumes.noise(3, 70, 2, 3), 0.5f);
+        assertSameSurface(TestVolumes.noise(1, 5, 5, 4), 0.5f);
+    }
+
+    private void assertSameSurface(DataContainer cnt, float threshold)
+            throws InterruptedException {
+        final byte[] data = TestVolumes.data(cnt);
+        final MarchingCubes mc = new MarchingCubes(threshold, 0.5f, 1.0f, 2.0f);
+        mc.setOffset(1.0f, 2.0f, 3.0f);
+        mc.setNrSlabs(3);
+
+        mc.exec(cnt.gridTopo(), cnt.layer(0).v1, data);
+        final Mesh expected = mc.getMesh();
+
+        mc.exec(cnt.gridTopo(), cnt.layer(0).v1, data,
+                MarchingCubes.Engine.FLYING_EDGES);
+        final Mesh serial = mc.getMesh();
+        assertSameSurface("serial", expected, serial);
+
+        mc.exec(cnt.gridTopo(), cnt.layer(0).v1, data, executor,
+                MarchingCubes.Engine.FLYING_EDGES);
+        final Mesh parallel = mc.getMesh();
+        assertSameSurface("parallel", expected, parallel);
+
+        // the vertex numbering does not depend on the number of tasks
+        assertEquals(serial.vertices(), parallel.vertices());
+        assertEquals(serial.triangles(), parallel.triangles());
+    }
+
+    private static void assertSameSurface(String msg, Mesh expected, Mesh mesh) {
+        assertEquals(msg + ": vertices", expected.nrVertices(), mesh.nrVertices());
+        assertEquals(msg + ": triangles", expected.nrTriangles(), mesh.nrTriangles());
+
+        final FloatBuffer ev = expected.vertices();
+        final FloatBuffer v = mesh.vertices();
+        final IntBuffer et = expected.triangles();
+        final IntBuffer t = mesh.triangles();
+
+        // vertex of the mesh -> vertex of the expected mesh
+        final int[] map = new int[mesh.nrVertices()];
+        Arrays.fill(map, -1);
+        final boolean[] mapped = new boolean[expected.nrVertices()];
+
+        for (int i = 0; i < 3 * mesh.nrTriangles(); i++) {
+            final int id = t.get(i);
+            final int expectedID = et.get(i);
+            if (map[id] < 0) {
+                assertFalse(msg + ": vertex mapped twice", mapped[expectedID]);
+                map[id] = expectedID;
+                mapped[expectedID] = true;
+
+                for (int k = 0; k < 3; k++) {
+                    assertEquals(msg + ": vertex position",
+                            Float.floatToIntBits(ev.get(3 * expectedID + k)),
+                            Float.floatToIntBits(v.get(3 * id + k)));
+                }
+            } else {
+                assertEquals(msg + ": triangle " + i / 3, map[id], expectedID);
+            }
+        }
+
+        // every vertex is used by a triangle
+        for (int i = 0; i < map.length; i++) {
+            assertTrue(msg + ": unused vertex " + i, map[i] >= 0);
+        }
+    }
+}
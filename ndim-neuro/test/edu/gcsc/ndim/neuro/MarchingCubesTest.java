@@ -0,0 +1,115 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ndim.DataContainer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the parallel {@link MarchingCubes#exec(org.ndim.GridTopo,
+ * org.ndim.MemTopo, byte[], java.util.concurrent.ExecutorService) }, which
+ * has to yield exactly the mesh of the serial exec for any number of slabs.
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public class MarchingCubesTest {
+
+    private static final int[] NR_SLABS = {1, 2, 7, 16};
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void parallelMatchesSerialSphere() throws InterruptedException {
+        assertParallelMatchesSerial(TestVolumes.sphere(37, 29, 41, 12.5), 0.0f);
+    }
+
+    @Test
+    public void parallelMatchesSerialNoise() throws InterruptedException {
+        assertParallelMatchesSerial(TestVolumes.noise(37, 29, 41, 7), 0.5f);
+    }
+
+    @Test
+    public void parallelMatchesSerialWithIndex() throws InterruptedException {
+        final DataContainer cnt = TestVolumes.sphere(70, 33, 40, 14);
+        final MarchingCubes serial = newMarchingCubes(0.0f);
+        final MarchingCubes parallel = newMarchingCubes(0.0f);
+        final MinMaxIndex index = new MinMaxIndex(new ArrayVolumeSource(
+                cnt.gridTopo(), cnt.layer(0).v1, TestVolumes.data(cnt)), 8);
+        serial.setMinMaxIndex(index);
+        parallel.setMinMaxIndex(index);
+
+        assertParallelMatchesSerial(cnt, serial, parallel);
+    }
+
+    private static MarchingCubes newMarchingCubes(float threshold) {
+        final MarchingCubes mc = new MarchingCubes(threshold, 0.5f, 1.0f, 2.0f);
+        mc.setOffset(1.0f, 2.0f, 3.0f);
+        return mc;
+    }
+
+    private void assertParallelMatchesSerial(DataContainer cnt, float threshold)
+            throws InterruptedException {
+        assertParallelMatchesSerial(cnt,
+                newMarchingCubes(threshold), newMarchingCubes(threshold));
+    }
+
+    private void assertParallelMatchesSerial(DataContainer cnt,
+            MarchingCubes serial, MarchingCubes parallel) throws InterruptedException {
+        final byte[] data = TestVolumes.data(cnt);
+        serial.exec(cnt.gridTopo(), cnt.layer(0).v1, data);
+        final Mesh expected = serial.getMesh();
+        assertTrue("empty test surface", expected.nrTriangles() > 0);
+
+        for (int nrSlabs : NR_SLABS) {
+            parallel.setNrSlabs(nrSlabs);
+            parallel.exec(cnt.gridTopo(), cnt.layer(0).v1, data, executor);
+            final Mesh mesh = parallel.getMesh();
+
+            assertEquals("vertices, " + nrSlabs + " slabs",
+                    expected.vertices(), mesh.vertices());
+            assertEquals("triangles, " + nrSlabs + " slabs",
+                    expected.triangles(), mesh.triangles());
+        }
+    }
+}
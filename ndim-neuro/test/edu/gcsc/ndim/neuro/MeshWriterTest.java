@@ -0,0 +1,340 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Formatter;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ndim.DataContainer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the file formats of {@link MeshWriter}. The ASCII formats have to
+ * be byte-identical to the <code>java.util.Formatter</code> based writers
+ * of {@link MarchingCubes} they replace.
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public class MeshWriterTest {
+
+    // values that exercise the special cases of ChannelOutput.ascii(float)
+    private static final float[] SPECIAL_VALUES = {
+        0.0f, -0.0f, 1.0f, -1.0f, 0.5f, -2.25f, 1e-7f, -1e-7f,
+        4.9999997e-7f, 5e-7f, 5.0000006e-7f, -5e-7f, 0.0000015f,
+        0.9999995f, 9.9999995f, 123456.78f, -98765.43f, 999999.94f,
+        1e11f, 9.99999e11f, 1e12f, -1e12f, 9.5e12f, 5e13f, 3e15f,
+        Float.MAX_VALUE,
+        -Float.MAX_VALUE, Float.MIN_VALUE, Float.NaN,
+        Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY
+    };
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("mesh", ".tmp");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void objMatchesFormatter() throws IOException {
+        final Mesh mesh = valueMesh();
+        MeshWriter.writeObj(mesh, file);
+
+        final StringBuilder expected = new StringBuilder();
+        final Formatter formatter = new Formatter(expected, Locale.US);
+        final FloatBuffer vertices = mesh.vertices();
+        final FloatBuffer normals = mesh.normals();
+        final IntBuffer triangles = mesh.triangles();
+
+        for (int i = 0; i < vertices.limit(); i += 3) {
+            formatter.format("v %f %f %f\n", vertices.get(i),
+                    vertices.get(i + 1), vertices.get(i + 2));
+        }
+        for (int i = 0; i < normals.limit(); i += 3) {
+            formatter.format("vn %f %f %f\n", normals.get(i),
+                    normals.get(i + 1), normals.get(i + 2));
+        }
+        for (int i = 0; i < triangles.limit(); i += 3) {
+            formatter.format("f %d %d %d\n", triangles.get(i) + 1,
+                    triangles.get(i + 1) + 1, triangles.get(i + 2) + 1);
+        }
+
+        assertEquals(expected.toString(), new String(read(file), "US-ASCII"));
+    }
+
+    @Test
+    public void vtkMatchesFormatter() throws IOException {
+        final Mesh mesh = valueMesh();
+        MeshWriter.writeVTK(mesh, file, "values");
+
+        final StringBuilder expected = new StringBuilder();
+        final Formatter formatter = new Formatter(expected, Locale.US);
+        final FloatBuffer vertices = mesh.vertices();
+        final IntBuffer triangles = mesh.triangles();
+
+        expected.append("# vtk DataFile Version 1.0\nvalues\nASCII\n\n");
+        expected.append("DATASET POLYDATA\n");
+        formatter.format("POINTS %d float\n", mesh.nrVertices());
+        for (int i = 0; i < vertices.limit(); i += 3) {
+            formatter.format("%f %f %f\n", vertices.get(i),
+                    vertices.get(i + 1), vertices.get(i + 2));
+        }
+        formatter.format("POLYGONS %d %d\n", mesh.nrTriangles(), 4 * mesh.nrTriangles());
+        for (int i = 0; i < triangles.limit(); i += 3) {
+            formatter.format("3 %d %d %d\n", triangles.get(i),
+                    triangles.get(i + 1), triangles.get(i + 2));
+        }
+
+        assertEquals(expected.toString(), new String(read(file), "US-ASCII"));
+    }
+
+    @Test
+    public void vtkBinaryLayout() throws IOException {
+        final Mesh mesh = sphereMesh();
+        MeshWriter.writeVTKBinary(mesh, file, "sphere");
+
+        final ByteBuffer in = ByteBuffer.wrap(read(file));
+        // legacy VTK is big endian
+        in.order(ByteOrder.BIG_ENDIAN);
+
+        assertEquals("# vtk DataFile Version 3.0", line(in));
+        assertEquals("sphere", line(in));
+        assertEquals("BINARY", line(in));
+        assertEquals("DATASET POLYDATA", line(in));
+        assertEquals("POINTS " + mesh.nrVertices() + " float", line(in));
+        assertFloats(mesh.vertices(), in);
+        assertEquals("", line(in));
+
+        assertEquals("POLYGONS " + mesh.nrTriangles() + " "
+                + 4 * mesh.nrTriangles(), line(in));
+        final IntBuffer triangles = mesh.triangles();
+        for (int i = 0; i < triangles.limit(); i += 3) {
+            assertEquals(3, in.getInt());
+            assertEquals(triangles.get(i), in.getInt());
+            assertEquals(triangles.get(i + 1), in.getInt());
+            assertEquals(triangles.get(i + 2), in.getInt());
+        }
+        assertEquals("", line(in));
+
+        assertEquals("POINT_DATA " + mesh.nrVertices(), line(in));
+        assertEquals("NORMALS normals float", line(in));
+        assertFloats(mesh.normals(), in);
+        assertEquals("", line(in));
+        assertFalse(in.hasRemaining());
+    }
+
+    @Test
+    public void stlLayoutAndWinding() throws IOException {
+        final Mesh mesh = sphereMesh();
+        MeshWriter.writeSTL(mesh, file);
+
+        final ByteBuffer in = ByteBuffer.wrap(read(file));
+        in.order(ByteOrder.LITTLE_ENDIAN);
+
+        assertEquals(84 + 50L * mesh.nrTriangles(), in.limit());
+        in.position(80);
+        assertEquals(mesh.nrTriangles(), in.getInt());
+
+        final FloatBuffer vertices = mesh.vertices();
+        final FloatBuffer normals = mesh.normals();
+        final IntBuffer triangles = mesh.triangles();
+        int nrAligned = 0;
+
+        for (int t = 0; t < mesh.nrTriangles(); t++) {
+            final float[] n = {in.getFloat(), in.getFloat(), in.getFloat()};
+            final float[][] v = new float[3][3];
+            for (int i = 0; i < 3; i++) {
+                for (int j = 0; j < 3; j++) {
+                    v[i][j] = in.getFloat();
+                }
+            }
+            assertEquals(0, in.getShort());
+
+            // facets are written as v0, v2, v1
+            final int[] ids = {triangles.get(3 * t),
+                triangles.get(3 * t + 2), triangles.get(3 * t + 1)};
+            final float[] meshNormal = new float[3];
+            for (int i = 0; i < 3; i++) {
+                for (int j = 0; j < 3; j++) {
+                    assertEquals(vertices.get(3 * ids[i] + j), v[i][j], 0.0f);
+                    meshNormal[j] += normals.get(3 * ids[i] + j);
+                }
+            }
+
+            // counter-clockwise: the facet normal follows the right-hand
+            // rule of the written vertex order
+            final float[] cross = cross(v[0], v[1], v[2]);
+            final double length = Math.sqrt(dot(cross, cross));
+            if (length == 0) {
+                continue;
+            }
+            assertEquals(1.0, Math.sqrt(dot(n, n)), 1e-5);
+            assertEquals(1.0, dot(n, cross) / length, 1e-4);
+
+            // and points to the side of the mesh normals
+            if (dot(n, meshNormal) > 0) {
+                nrAligned++;
+            }
+        }
+
+        assertEquals(mesh.nrTriangles(), nrAligned);
+    }
+
+    @Test
+    public void plyLayout() throws IOException {
+        final Mesh mesh = sphereMesh();
+        MeshWriter.writePLY(mesh, file);
+
+        final ByteBuffer in = ByteBuffer.wrap(read(file));
+        in.order(ByteOrder.LITTLE_ENDIAN);
+
+        assertEquals("ply", line(in));
+        assertEquals("format binary_little_endian 1.0", line(in));
+        assertEquals("element vertex " + mesh.nrVertices(), line(in));
+        for (String p : new String[]{"x", "y", "z", "nx", "ny", "nz"}) {
+            assertEquals("property float " + p, line(in));
+        }
+        assertEquals("element face " + mesh.nrTriangles(), line(in));
+        assertEquals("property list uchar int vertex_indices", line(in));
+        assertEquals("end_header", line(in));
+
+        assertEquals(24L * mesh.nrVertices() + 13L * mesh.nrTriangles(),
+                in.remaining());
+
+        final FloatBuffer vertices = mesh.vertices();
+        final FloatBuffer normals = mesh.normals();
+        for (int i = 0; i < vertices.limit(); i += 3) {
+            for (int j = 0; j < 3; j++) {
+                assertEquals(vertices.get(i + j), in.getFloat(), 0.0f);
+            }
+            for (int j = 0; j < 3; j++) {
+                assertEquals(normals.get(i + j), in.getFloat(), 0.0f);
+            }
+        }
+
+        final IntBuffer triangles = mesh.triangles();
+        for (int i = 0; i < triangles.limit(); i += 3) {
+            assertEquals(3, in.get());
+            assertEquals(triangles.get(i), in.getInt());
+            assertEquals(triangles.get(i + 1), in.getInt());
+            assertEquals(triangles.get(i + 2), in.getInt());
+        }
+    }
+
+    /**
+     * Mesh whose vertices and normals contain the special values and
+     * random values of all magnitudes.
+     */
+    private static Mesh valueMesh() {
+        final int nrVertices = 4000;
+        final Mesh mesh = new Mesh(nrVertices, nrVertices / 3, false);
+        final FloatBuffer vertices = mesh.vertices();
+        final FloatBuffer normals = mesh.normals();
+        final IntBuffer triangles = mesh.triangles();
+        final Random random = new Random(17);
+
+        for (int i = 0; i < 3 * nrVertices; i++) {
+            if (i < SPECIAL_VALUES.length) {
+                vertices.put(i, SPECIAL_VALUES[i]);
+                normals.put(i, -SPECIAL_VALUES[i]);
+            } else {
+                vertices.put(i, (float) ((random.nextDouble() - 0.5)
+                        * Math.pow(10, random.nextInt(20) - 8)));
+                normals.put(i, (float) (2 * random.nextDouble() - 1));
+            }
+        }
+        for (int i = 0; i < triangles.limit(); i++) {
+            triangles.put(i, random.nextInt(nrVertices));
+        }
+        return mesh;
+    }
+
+    private static Mesh sphereMesh() {
+        final DataContainer cnt = TestVolumes.sphere(21, 19, 17, 6.5);
+        // between the samples 0 and -1, i.e., no degenerate triangles
+        final MarchingCubes mc = new MarchingCubes(-0.5f, 0.5f, 1, 2);
+        mc.setOffset(1, 2, 3);
+        mc.exec(cnt.gridTopo(), cnt.layer(0).v1, TestVolumes.data(cnt));
+        return mc.getMesh();
+    }
+
+    private static void assertFloats(FloatBuffer expected, ByteBuffer in) {
+        for (int i = 0; i < expected.limit(); i++) {
+            assertEquals(expected.get(i), in.getFloat(), 0.0f);
+        }
+    }
+
+    private static String line(ByteBuffer in) {
+        final StringBuilder sb = new StringBuilder();
+        for (char c = (char) in.get(); c != '\n'; c = (char) in.get()) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static float[] cross(float[] a, float[] b, float[] c) {
+        final float x1 = b[0] - a[0];
+        final float y1 = b[1] - a[1];
+        final float z1 = b[2] - a[2];
+        final float x2 = c[0] - a[0];
+        final float y2 = c[1] - a[1];
+        final float z2 = c[2] - a[2];
+        return new float[]{y1 * z2 - z1 * y2, z1 * x2 - x1 * z2, x1 * y2 - y1 * x2};
+    }
+
+    private static double dot(float[] a, float[] b) {
+        return (double) a[0] * b[0] + (double) a[1] * b[1] + (double) a[2] * b[2];
+    }
+
+    private static byte[] read(File f) throws IOException {
+        final RandomAccessFile in = new RandomAccessFile(f, "r");
+        try {
+            final byte[] data = new byte[(int) in.length()];
+            in.readFully(data);
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+
+package edu.gcsc.ndim.neuro;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ndim.AddrOp;
+import org.ndim.DataContainer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests segment rasterization of {@link SWC2Image} and
+ * {@link SWCRasterizer}: a segment between two samples has to be a single
+ * connected blob whose extent is defined by the radii, in morphology units
+ * for any voxel spacing.
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public class SWCRasterizerTest {
+
+    private File file;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("rasterizer", ".swc");
+        final Writer w = new FileWriter(file);
+        try {
+            // branching morphology with diagonal and tapered segments
+            w.write("1 1 0 0 0 3 -1\n");
+            w.write("2 3 8 5 -2 1.5 1\n");
+            w.write("3 3 14 9 3 0.5 2\n");
+            w.write("4 3 -6 4 7 1 1\n");
+        } finally {
+            w.close();
+        }
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        executor.shutdown();
+    }
+
+    @Test
+    public void segmentIsConnectedBlob() {
+        final RenderConfig config = segmentConfig(1);
+        final DataContainer cnt = SWC2Image.renderSWC(
+                segment(), null, null, null, config);
+
+        assertSegment(cnt, config, 1);
+        // radius 2, i.e., the lattice points of a disk of radius 2
+        assertEquals(13, countCrossSection(cnt, config, 5));
+    }
+
+    @Test
+    public void radiiAreConvertedBySpacing() {
+        final RenderConfig config = segmentConfig(0.5f);
+        final DataContainer cnt = SWC2Image.renderSWC(
+                segment(), null, null, null, config);
+
+        assertSegment(cnt, config, 0.5f);
+        // radius 2 microns are 4 voxels
+        assertEquals(49, countCrossSection(cnt, config, 5));
+    }
+
+    @Test
+    public void userOriginClipsSegments() {
+        final RenderConfig config = segmentConfig(1);
+        config.setOrigin(5, -10, -10);
+        final DataContainer cnt = SWC2Image.renderSWC(
+                segment(), null, null, null, config);
+
+        assertArrayEquals(new float[]{5, -10, -10},
+                config.getEffectiveOrigin(), 0);
+        // the half of the segment above the origin is rendered
+        assertEquals(13, countCrossSection(cnt, config, 5));
+        assertEquals(13, countCrossSection(cnt, config, 10));
+    }
+
+    @Test
+    public void pointsAreDefault() {
+        final RenderConfig config = new RenderConfig();
+        final DataContainer cnt = SWC2Image.renderSWC(
+                segment(), null, null, null, config);
+
+        assertEquals(2, countPainted(cnt));
+    }
+
+    @Test
+    public void parallelAndSparseMatchSerial() throws Exception {
+        final RenderConfig config = segmentConfig(0.75f);
+        final DataContainer serial = SWC2Image.renderSWCFile(
+                file, null, null, null, config);
+
+        assertEquals(countPainted(serial), largestComponent(serial));
+
+        for (int nrSlabs = 1; nrSlabs <= 7; nrSlabs += 3) {
+            final DataContainer parallel = SWC2Image.renderSWCFile(
+                    file, null, null, null, config, executor, nrSlabs);
+            assertSameVolume(serial, parallel);
+        }
+
+        final BrickedVolume sparse = SWC2Image.renderSWCFileSparse(
+                file, null, null, null, config, 4);
+        assertSameVolume(serial, sparse.toDataContainer());
+    }
+
+    /**
+     * Segment from <code>(0,0,0)</code> to <code>(10,0,0)</code> with
+     * radius 2.
+     */
+    private static SWCMorphology segment() {
+        final SWCMorphology morphology = new SWCMorphology();
+        morphology.add(1, 1, 0, 0, 0, 2, -1);
+        morphology.add(2, 3, 10, 0, 0, 2, 1);
+        return morphology;
+    }
+
+    private static RenderConfig segmentConfig(float spacing) {
+        final RenderConfig config = new RenderConfig();
+        config.setSpacing(spacing, spacing, spacing);
+        config.setRasterizeSegments(true);
+        return config;
+    }
+
+    /**
+     * Checks that the segment is a single 6-connected blob that covers
+     * <code>[-2,12] x [-2,2] x [-2,2]</code> and that the container has a
+     * free border.
+     */
+    private static void assertSegment(
+            DataContainer cnt, RenderConfig config, float spacing) {
+        final int[] extent = cnt.gridTopo().extent();
+        final float[] origin = config.getEffectiveOrigin();
+        final int[] min = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE};
+        final int[] max = {Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+
+        for (int z = 0; z < extent[2]; z++) {
+            for (int y = 0; y < extent[1]; y++) {
+                for (int x = 0; x < extent[0]; x++) {
+                    if (get(cnt, x, y, z) != 0) {
+                        final int[] p = {x, y, z};
+                        for (int d = 0; d < 3; d++) {
+                            assertTrue("border", p[d] > 0 && p[d] < extent[d] - 1);
+                            min[d] = Math.min(min[d], p[d]);
+                            max[d] = Math.max(max[d], p[d]);
+                        }
+                    }
+                }
+            }
+        }
+
+        final float[] expectedMin = {-2, -2, -2};
+        final float[] expectedMax = {12, 2, 2};
+
+        for (int d = 0; d < 3; d++) {
+            assertEquals(expectedMin[d], origin[d] + min[d] * spacing, 1e-4);
+            assertEquals(expectedMax[d], origin[d] + max[d] * spacing, 1e-4);
+        }
+
+        assertEquals(countPainted(cnt), largestComponent(cnt));
+    }
+
+    /**
+     * Counts the painted voxels of the yz plane at the specified x
+     * coordinate (morphology units).
+     */
+    private static int countCrossSection(
+            DataContainer cnt, RenderConfig config, float x) {
+        final int[] extent = cnt.gridTopo().extent();
+        final int i = Math.round((x - config.getEffectiveOrigin()[0])
+                / config.getSpacing()[0]);
+        int count = 0;
+
+        for (int z = 0; z < extent[2]; z++) {
+            for (int y = 0; y < extent[1]; y++) {
+                if (get(cnt, i, y, z) != 0) {
+                    count++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    private static int countPainted(DataContainer cnt) {
+        final int[] extent = cnt.gridTopo().extent();
+        int count = 0;
+
+        for (int z = 0; z < extent[2]; z++) {
+            for (int y = 0; y < extent[1]; y++) {
+                for (int x = 0; x < extent[0]; x++) {
+                    if (get(cnt, x, y, z) != 0) {
+                        count++;
+                    }
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the size of the largest 6-connected component.
+     */
+    private static int largestComponent(DataContainer cnt) {
+        final int[] extent = cnt.gridTopo().extent();
+        final boolean[] visited =
+                new boolean[extent[0] * extent[1] * extent[2]];
+        final ArrayDeque<int[]> queue = new ArrayDeque<int[]>();
+        final int[][] steps = {{1, 0, 0}, {-1, 0, 0}, {0, 1, 0},
+            {0, -1, 0}, {0, 0, 1}, {0, 0, -1}};
+        int largest = 0;
+
+        for (int z = 0; z < extent[2]; z++) {
+            for (int y = 0; y < extent[1]; y++) {
+                for (int x = 0; x < extent[0]; x++) {
+                    final int idx = (z * extent[1] + y) * extent[0] + x;
+                    if (visited[idx] || get(cnt, x, y, z) == 0) {
+                        continue;
+                    }
+
+                    int size = 0;
+                    visited[idx] = true;
+                    queue.add(new int[]{x, y, z});
+
+                    while (!queue.isEmpty()) {
+                        final int[] p = queue.poll();
+                        size++;
+
+                        for (int[] s : steps) {
+                            final int nx = p[0] + s[0];
+                            final int ny = p[1] + s[1];
+                            final int nz = p[2] + s[2];
+
+                            if (nx < 0 || ny < 0 || nz < 0 || nx >= extent[0]
+                                    || ny >= extent[1] || nz >= extent[2]) {
+                                continue;
+                            }
+
+                            final int n = (nz * extent[1] + ny) * extent[0] + nx;
+                            if (!visited[n] && get(cnt, nx, ny, nz) != 0) {
+                                visited[n] = true;
+                                queue.add(new int[]{nx, ny, nz});
+                            }
+                        }
+                    }
+
+                    largest = Math.max(largest, size);
+                }
+            }
+        }
+
+        return largest;
+    }
+
+    private static void assertSameVolume(DataContainer expected, DataContainer actual) {
+        final int[] extent = expected.gridTopo().extent();
+        assertArrayEquals(extent, actual.gridTopo().extent());
+
+        for (int z = 0; z < extent[2]; z++) {
+            for (int y = 0; y < extent[1]; y++) {
+                for (int x = 0; x < extent[0]; x++) {
+                    assertEquals("voxel " + x + "," + y + "," + z,
+                            get(expected, x, y, z), get(actual, x, y, z));
+                }
+            }
+        }
+    }
+
+    private static byte get(DataContainer cnt, int x, int y, int z) {
+        final AddrOp op = new AddrOp(cnt.gridTopo(), cnt.layer(0).v1);
+        return ((ByteBuffer) cnt.layer(0).v2).get(op.addr(new int[]{x, y, z}, 0));
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ndim.DataContainer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link SurfaceNets}: closed and consistently oriented surfaces,
+ * same orientation as {@link MarchingCubes}, one vertex per active cell
+ * and serial/parallel equality.
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public class SurfaceNetsTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void sphereIsClosed() throws InterruptedException {
+        assertClosedSphere(TestVolumes.sphere(37, 30, 28, 11.5));
+        // crosses the 64 sample word boundary of the row masks
+        assertClosedSphere(TestVolumes.sphere(65, 40, 36, 15.2));
+    }
+
+    @Test
+    public void oneVertexPerActiveCell() throws InterruptedException {
+        final DataContainer cnt = TestVolumes.noise(65, 9, 11, 3);
+        final Mesh mesh = exec(cnt, 0.5f, false);
+        assertEquals(countActiveCells(cnt, 0.5f), mesh.nrVertices());
+    }
+
+    @Test
+    public void parallelMatchesSerial() throws InterruptedException {
+        for (DataContainer cnt : new DataContainer[]{
+                    TestVolumes.sphere(37, 30, 28, 11.5),
+                    TestVolumes.noise(65, 9, 11, 3),
+                    TestVolumes.noise(2, 2, 2, 1)}) {
+            final Mesh serial = exec(cnt, 0.5f, false);
+            final Mesh parallel = exec(cnt, 0.5f, true);
+            assertEquals(serial.vertices(), parallel.vertices());
+            assertEquals(serial.triangles(), parallel.triangles());
+        }
+    }
+
+    private Mesh exec(DataContainer cnt, float threshold, boolean parallel)
+            throws InterruptedException {
+        final MarchingCubes mc = new MarchingCubes(threshold, 0.5f, 1.0f, 2.0f);
+        mc.setOffset(1.0f, 2.0f, 3.0f);
+        mc.setNrSlabs(3);
+        if (parallel) {
+            mc.exec(cnt.gridTopo(), cnt.layer(0).v1, TestVolumes.data(cnt),
+                    executor, MarchingCubes.Engine.SURFACE_NETS);
+        } else {
+            mc.exec(cnt.gridTopo(), cnt.layer(0).v1, TestVolumes.data(cnt),
+                    MarchingCubes.Engine.SURFACE_NETS);
+        }
+        return mc.getMesh();
+    }
+
+    private void assertClosedSphere(DataContainer cnt) throws InterruptedException {
+        final Mesh mesh = exec(cnt, 0.0f, false);
+        assertTrue("empty test surface", mesh.nrTriangles() > 0);
+
+        // every edge is used once in each direction, i.e., it is shared by
+        // exactly two triangles with opposite winding
+        final Map<Long, Integer> edges = new HashMap<Long, Integer>();
+        final IntBuffer triangles = mesh.triangles();
+        for (int i = 0; i < mesh.nrTriangles(); i++) {
+            for (int k = 0; k < 3; k++) {
+                final long from = triangles.get(3 * i + k);
+                final long to = triangles.get(3 * i + (k + 1) % 3);
+                assertNull("edge used twice in the same direction",
+                        edges.put((from << 32) | to, i));
+            }
+        }
+        for (Long edge : edges.keySet()) {
+            final long reverse = (edge << 32) | (edge >>> 32);
+            assertTrue("edge of a single triangle", edges.containsKey(reverse));
+        }
+
+        // same orientation as the marching cubes surface
+        final MarchingCubes mc = new MarchingCubes(0.0f, 0.5f, 1.0f, 2.0f);
+        mc.setOffset(1.0f, 2.0f, 3.0f);
+        mc.exec(cnt.gridTopo(), cnt.layer(0).v1, TestVolumes.data(cnt));
+        final double expected = signedVolume(mc.getMesh());
+        final double volume = signedVolume(mesh);
+        assertTrue("degenerate test surface", Math.abs(expected) > 0);
+        assertEquals("orientation", Math.signum(expected), Math.signum(volume), 0);
+        assertEquals("enclosed volume", expected, volume, 0.05 * Math.abs(expected));
+    }
+
+    // Signed volume enclosed by a closed mesh (divergence theorem).
+    private static double signedVolume(Mesh mesh) {
+        final FloatBuffer v = mesh.vertices();
+        final IntBuffer t = mesh.triangles();
+        double sum = 0;
+        for (int i = 0; i < 3 * mesh.nrTriangles(); i += 3) {
+            final int a = 3 * t.get(i);
+            final int b = 3 * t.get(i + 1);
+            final int c = 3 * t.get(i + 2);
+            sum += v.get(a) * (v.get(b + 1) * v.get(c + 2) - v.get(b + 2) * v.get(c + 1))
+                    - v.get(a + 1) * (v.get(b) * v.get(c + 2) - v.get(b + 2) * v.get(c))
+                    + v.get(a + 2) * (v.get(b) * v.get(c + 1) - v.get(b + 1) * v.get(c));
+        }
+        return sum / 6;
+    }
+
+    // Number of cells whose corners are neither all inside nor all outside.
+    private static int countActiveCells(DataContainer cnt, float threshold) {
+        final int[] extent = cnt.gridTopo().extent();
+        final int nx = extent[0];
+        final int ny = extent[1];
+        final int nz = extent[2];
+        final byte[] data = TestVolumes.data(cnt);
+        int n = 0;
+        for (int z = 0; z < nz - 1; z++) {
+            for (int y = 0; y < ny - 1; y++) {
+                for (int x = 0; x < nx - 1; x++) {
+                    int inside = 0;
+                    for (int c = 0; c < 8; c++) {
+                        final int i = (x + (c & 1)) + nx * ((y + ((c >> 1) & 1))
+                                + ny * (z + ((c >> 2) & 1)));
+                        if (data[i] < threshold) {
+                            inside++;
+                        }
+                    }
+                    if (inside > 0 && inside < 8) {
+                        n++;
+                    }
+                }
+            }
+        }
+        return n;
+    }
+}
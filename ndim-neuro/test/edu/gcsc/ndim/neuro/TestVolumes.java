@@ -0,0 +1,114 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.ndim.DataContainer;
+import org.ndim.MemTopo;
+
+/**
+ * Volumes used by the isosurface tests.
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+final class TestVolumes {
+
+    /**
+     * Creates an empty byte volume.
+     *
+     * @param nx number of samples in X direction
+     * @param ny number of samples in Y direction
+     * @param nz number of samples in Z direction
+     * @return the volume
+     */
+    static DataContainer create(int nx, int ny, int nz) {
+        final DataContainer cnt = new DataContainer(nx, ny, nz);
+        cnt.createLayer(byte.class,
+                new MemTopo(cnt.gridTopo().nrEntities(), 1, false));
+        return cnt;
+    }
+
+    /**
+     * Returns the samples of the specified volume.
+     *
+     * @param cnt volume
+     * @return the samples
+     */
+    static byte[] data(DataContainer cnt) {
+        return ((ByteBuffer) cnt.layer(0).v2).array();
+    }
+
+    /**
+     * Creates a volume with a painted (<code>-1</code>) sphere.
+     *
+     * @param nx number of samples in X direction
+     * @param ny number of samples in Y direction
+     * @param nz number of samples in Z direction
+     * @param radius radius of the sphere (centered in the volume)
+     * @return the volume
+     */
+    static DataContainer sphere(int nx, int ny, int nz, double radius) {
+        final DataContainer cnt = create(nx, ny, nz);
+        final byte[] data = data(cnt);
+        for (int z = 0; z < nz; z++) {
+            for (int y = 0; y < ny; y++) {
+                for (int x = 0; x < nx; x++) {
+                    final double dx = x - (nx - 1) / 2.0;
+                    final double dy = y - (ny - 1) / 2.0;
+                    final double dz = z - (nz - 1) / 2.0;
+                    if (dx * dx + dy * dy + dz * dz < radius * radius) {
+                        data[x + nx * (y + ny * z)] = (byte) 255;
+                    }
+                }
+            }
+        }
+        return cnt;
+    }
+
+    /**
+     * Creates a volume with random samples in <code>[-4, 3]</code>, i.e.,
+     * a surface with many components and ambiguous cells.
+     *
+     * @param nx number of samples in X direction
+     * @param ny number of samples in Y direction
+     * @param nz number of samples in Z direction
+     * @param seed random seed
+     * @return the volume
+     */
+    static DataContainer noise(int nx, int ny, int nz, long seed) {
+        final DataContainer cnt = create(nx, ny, nz);
+        final byte[] data = data(cnt);
+        final Random rnd = new Random(seed);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (rnd.nextInt(8) - 4);
+        }
+        return cnt;
+    }
+}
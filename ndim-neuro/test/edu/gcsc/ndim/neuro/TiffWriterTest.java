@@ -0,0 +1,475 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link TiffWriter} with a minimal TIFF reader: the IFD chain of
+ * classic and BigTIFF files and the strips of all compressions, which are
+ * decoded by an independent LZW decoder and by <code>Inflater</code>.
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public class TiffWriterTest {
+
+    // 3 strips of 218, 218 and 64 rows
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 500;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("stack", ".tif");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void uncompressedClassic() throws IOException {
+        assertRoundTrip(TiffWriter.Compression.NONE, false, WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void uncompressedBigTiff() throws IOException {
+        assertRoundTrip(TiffWriter.Compression.NONE, true, WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void deflateClassic() throws IOException {
+        assertRoundTrip(TiffWriter.Compression.DEFLATE, false, WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void deflateBigTiff() throws IOException {
+        assertRoundTrip(TiffWriter.Compression.DEFLATE, true, WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void lzwClassic() throws IOException {
+        assertRoundTrip(TiffWriter.Compression.LZW, false, WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void lzwBigTiff() throws IOException {
+        assertRoundTrip(TiffWriter.Compression.LZW, true, WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void singleStrip() throws IOException {
+        // strip offsets and sizes are stored in the IFD entries
+        for (TiffWriter.Compression c : TiffWriter.Compression.values()) {
+            assertRoundTrip(c, false, 21, 13);
+            assertRoundTrip(c, true, 21, 13);
+        }
+    }
+
+    @Test
+    public void twoStrips() throws IOException {
+        // two offsets do not fit into the value field of an entry
+        for (TiffWriter.Compression c : TiffWriter.Compression.values()) {
+            assertRoundTrip(c, false, WIDTH, 300);
+            assertRoundTrip(c, true, WIDTH, 300);
+        }
+    }
+
+    @Test
+    public void lzwCodeLengths() {
+        // random samples, i.e., the code table fills up quickly
+        final byte[] random = new byte[TiffWriter.STRIP_SIZE];
+        new Random(3).nextBytes(random);
+        LZWDecoder decoder = decodeLZW(random);
+        assertEquals(12, decoder.maxCodeLength);
+        // the initial clear code and at least one after a full table
+        assertTrue(decoder.nrClears >= 3);
+
+        // long runs, i.e., long strings and few codes
+        final byte[] runs = new byte[TiffWriter.STRIP_SIZE];
+        for (int i = 0; i < runs.length; i++) {
+            runs[i] = (byte) (i / 5000);
+        }
+        decoder = decodeLZW(runs);
+        assertEquals(1, decoder.nrClears);
+
+        // text-like samples cross the 9 -> 10 -> 11 -> 12 bit switches
+        // without filling the table in every strip
+        final byte[] text = new byte[TiffWriter.STRIP_SIZE];
+        final Random r = new Random(11);
+        for (int i = 0; i < text.length; i++) {
+            text[i] = (byte) ('a' + r.nextInt(4));
+        }
+        decoder = decodeLZW(text);
+        assertEquals(12, decoder.maxCodeLength);
+    }
+
+    @Test
+    public void selectsBigTiffForLargeStacks() throws IOException {
+        TiffWriter w = new TiffWriter(file, 1024, 1024, 16,
+                TiffWriter.Compression.NONE);
+        assertFalse(w.isBigTiff());
+        w.close();
+
+        w = new TiffWriter(file, 1024, 1024, 5000, TiffWriter.Compression.NONE);
+        assertTrue(w.isBigTiff());
+        w.close();
+    }
+
+    private LZWDecoder decodeLZW(byte[] plane) {
+        final int width = 256;
+        final int height = plane.length / width;
+        try {
+            final TiffWriter w = new TiffWriter(file, width, height,
+                    TiffWriter.Compression.LZW, false);
+            try {
+                w.writePlane(plane);
+            } finally {
+                w.close();
+            }
+
+            final LZWDecoder decoder = new LZWDecoder();
+            assertArrayEquals(plane, new TiffReader(read(file), decoder).pages[0]);
+            return decoder;
+        } catch (IOException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    private void assertRoundTrip(TiffWriter.Compression compression,
+            boolean bigTiff, int width, int height) throws IOException {
+        final byte[][] planes = planes(width, height);
+        final TiffWriter w = new TiffWriter(file, width, height, compression, bigTiff);
+        assertEquals(bigTiff, w.isBigTiff());
+        try {
+            for (byte[] plane : planes) {
+                w.writePlane(plane);
+            }
+            assertEquals(planes.length, w.nrPages());
+        } finally {
+            w.close();
+        }
+
+        final TiffReader reader = new TiffReader(read(file), new LZWDecoder());
+        assertEquals(bigTiff, reader.bigTiff);
+        assertEquals(planes.length, reader.pages.length);
+        for (int i = 0; i < planes.length; i++) {
+            assertArrayEquals("page " + i, planes[i], reader.pages[i]);
+        }
+        assertEquals(compression == TiffWriter.Compression.NONE ? 1
+                : compression == TiffWriter.Compression.LZW ? 5 : 8,
+                reader.compression);
+    }
+
+    /**
+     * Pages with random, constant, gradient and sparse content.
+     */
+    private static byte[][] planes(int width, int height) {
+        final Random random = new Random(7);
+        final byte[][] planes = new byte[5][width * height];
+        random.nextBytes(planes[0]);
+        Arrays.fill(planes[1], (byte) 255);
+        for (int i = 0; i < width * height; i++) {
+            planes[2][i] = (byte) (i % width + i / width);
+            planes[3][i] = random.nextInt(50) == 0 ? (byte) 255 : 0;
+        }
+        // planes[4] stays empty
+        return planes;
+    }
+
+    private static byte[] read(File f) throws IOException {
+        final RandomAccessFile in = new RandomAccessFile(f, "r");
+        try {
+            final byte[] data = new byte[(int) in.length()];
+            in.readFully(data);
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the 8 bit pages of a little endian (Big)TIFF file and checks
+     * the file structure.
+     */
+    private static final class TiffReader {
+
+        final boolean bigTiff;
+        final byte[][] pages;
+        int compression;
+
+        TiffReader(byte[] file, LZWDecoder lzw) {
+            final ByteBuffer in = ByteBuffer.wrap(file).order(ByteOrder.LITTLE_ENDIAN);
+
+            assertEquals('I', in.get());
+            assertEquals('I', in.get());
+            final int version = in.getShort();
+            bigTiff = version == 43;
+            if (bigTiff) {
+                // offset size and reserved field
+                assertEquals(8, in.getShort());
+                assertEquals(0, in.getShort());
+            } else {
+                assertEquals(42, version);
+            }
+
+            final List<byte[]> result = new ArrayList<byte[]>();
+            long ifd = offset(in);
+
+            while (ifd != 0) {
+                assertEquals("IFD is not word aligned", 0, ifd % 2);
+                assertTrue("IFD beyond end of file", ifd < file.length);
+                in.position((int) ifd);
+
+                final long nrEntries = bigTiff ? in.getLong() : in.getShort();
+                // values by tag, the writer only uses tags below 285
+                final long[][] entries = new long[285][];
+                int lastTag = -1;
+                for (int e = 0; e < nrEntries; e++) {
+                    final int tag = in.getShort() & 0xFFFF;
+                    final int type = in.getShort();
+                    final long count = bigTiff ? in.getLong() : in.getInt();
+                    final int valueStart = in.position();
+
+                    assertTrue("entries are not sorted", tag > lastTag);
+                    lastTag = tag;
+
+                    long[] values = new long[(int) count];
+                    final int size = type == 3 ? 2 : type == 4 ? 4 : 8;
+                    if (count * size > (bigTiff ? 8 : 4)) {
+                        final long valueOffset = offset(in);
+                        assertEquals("values are not word aligned", 0, valueOffset % 2);
+                        in.position((int) valueOffset);
+                    }
+                    for (int i = 0; i < count; i++) {
+                        values[i] = type == 3 ? in.getShort() & 0xFFFF
+                                : type == 4 ? in.getInt() & 0xFFFFFFFFL : in.getLong();
+                    }
+                    if (tag < entries.length) {
+                        entries[tag] = values;
+                    }
+                    in.position(valueStart + (bigTiff ? 8 : 4));
+                }
+
+                final int width = (int) entries[256][0];
+                final int height = (int) entries[257][0];
+                assertEquals(8, entries[258][0]);
+                compression = (int) entries[259][0];
+                assertEquals(1, entries[262][0]);
+                assertEquals(1, entries[277][0]);
+                assertEquals(1, entries[284][0]);
+                final int rowsPerStrip = (int) entries[278][0];
+                final long[] stripOffsets = entries[273];
+                final long[] stripSizes = entries[279];
+                assertEquals((height + rowsPerStrip - 1) / rowsPerStrip,
+                        stripOffsets.length);
+                assertEquals(stripOffsets.length, stripSizes.length);
+
+                final ByteArrayOutputStream page = new ByteArrayOutputStream();
+                for (int s = 0; s < stripOffsets.length; s++) {
+                    // strips are written before their IFD
+                    assertTrue(stripOffsets[s] + stripSizes[s] <= ifd);
+                    final byte[] strip = Arrays.copyOfRange(file,
+                            (int) stripOffsets[s],
+                            (int) (stripOffsets[s] + stripSizes[s]));
+                    final int expected = Math.min(rowsPerStrip,
+                            height - s * rowsPerStrip) * width;
+                    final byte[] decoded = decode(strip, lzw);
+                    assertEquals("size of strip " + s, expected, decoded.length);
+                    page.write(decoded, 0, decoded.length);
+                }
+                result.add(page.toByteArray());
+
+                in.position((int) (ifd + (bigTiff ? 8 + 20 * nrEntries : 2 + 12 * nrEntries)));
+                final long next = offset(in);
+                assertTrue("IFDs must be written in order", next == 0 || next > ifd);
+                ifd = next;
+            }
+
+            pages = result.toArray(new byte[result.size()][]);
+        }
+
+        private long offset(ByteBuffer in) {
+            return bigTiff ? in.getLong() : in.getInt() & 0xFFFFFFFFL;
+        }
+
+        private byte[] decode(byte[] strip, LZWDecoder lzw) {
+            switch (compression) {
+                case 1:
+                    return strip;
+                case 5:
+                    return lzw.decode(strip);
+                case 8:
+                    return inflate(strip);
+                default:
+                    throw new AssertionError("unknown compression " + compression);
+            }
+        }
+
+        private static byte[] inflate(byte[] strip) {
+            final Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(strip);
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[4096];
+                while (!inflater.finished()) {
+                    final int n = inflater.inflate(buffer);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        fail("truncated deflate stream");
+                    }
+                    out.write(buffer, 0, n);
+                }
+                assertEquals("trailing bytes", 0, inflater.getRemaining());
+                return out.toByteArray();
+            } catch (DataFormatException ex) {
+                throw new AssertionError(ex);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * TIFF LZW decoder (MSB first, early change) as implemented by
+     * libtiff. Records the code lengths and the clear codes it has seen.
+     */
+    private static final class LZWDecoder {
+
+        private static final int CLEAR = 256;
+        private static final int EOI = 257;
+        int maxCodeLength;
+        int nrClears;
+        private final byte[][] table = new byte[4096][];
+        private byte[] src;
+        private int bitPos;
+
+        LZWDecoder() {
+            for (int i = 0; i < 256; i++) {
+                table[i] = new byte[]{(byte) i};
+            }
+        }
+
+        byte[] decode(byte[] strip) {
+            src = strip;
+            bitPos = 0;
+
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int codeLength = 9;
+            int next = 258;
+            byte[] old = null;
+
+            assertEquals("strips start with a clear code", CLEAR, peek(codeLength));
+
+            while (true) {
+                final int code = read(codeLength);
+                maxCodeLength = Math.max(maxCodeLength, codeLength);
+
+                if (code == EOI) {
+                    break;
+                }
+
+                if (code == CLEAR) {
+                    nrClears++;
+                    codeLength = 9;
+                    next = 258;
+                    old = null;
+                    continue;
+                }
+
+                final byte[] entry;
+                if (old == null) {
+                    assertTrue("code " + code + " after clear", code < 256);
+                    entry = table[code];
+                } else {
+                    if (code < next) {
+                        entry = table[code];
+                    } else {
+                        assertEquals("invalid code", next, code);
+                        entry = append(old, old[0]);
+                    }
+                    // the encoder has to clear the table before code
+                    // 4094, i.e., before 12 bit codes would not suffice
+                    // for decoders that switch early
+                    assertTrue("table overflow", next < 4094);
+                    table[next++] = append(old, entry[0]);
+                    // early change
+                    if (next >= (1 << codeLength) - 1 && codeLength < 12) {
+                        codeLength++;
+                    }
+                }
+
+                out.write(entry, 0, entry.length);
+                old = entry;
+            }
+
+            // at most the padding of the last byte remains
+            assertEquals("trailing bytes", (bitPos + 7) / 8, src.length);
+            return out.toByteArray();
+        }
+
+        private static byte[] append(byte[] prefix, byte b) {
+            final byte[] s = Arrays.copyOf(prefix, prefix.length + 1);
+            s[prefix.length] = b;
+            return s;
+        }
+
+        private int peek(int n) {
+            final int pos = bitPos;
+            final int code = read(n);
+            bitPos = pos;
+            return code;
+        }
+
+        private int read(int n) {
+            int code = 0;
+            for (int i = 0; i < n; i++, bitPos++) {
+                assertTrue("missing end of information code", bitPos / 8 < src.length);
+                code = code << 1 | ((src[bitPos / 8] >> (7 - bitPos % 8)) & 1);
+            }
+            return code;
+        }
+    }
+}
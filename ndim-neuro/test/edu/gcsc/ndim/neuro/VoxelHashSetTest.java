@@ -0,0 +1,165 @@
+/*
+ * Copyright 2012 Goethe Center for Scientific Computing (G-CSC) All rights reserved.
+ * 
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer <info@michaelhoffer.de> OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Goethe Center for Scientific Computing (G-CSC).
+ */
+package edu.gcsc.ndim.neuro;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link VoxelHashSet} against a set of boxed coordinates and the
+ * duplicate counting of {@link SWC2Image}.
+ *
+ * @author Michael Hoffer <info@michaelhoffer.de>
+ */
+public class VoxelHashSetTest {
+
+    @Test
+    public void addAndContains() {
+        final VoxelHashSet set = new VoxelHashSet();
+
+        assertTrue(set.add(1, 2, 3));
+        assertFalse(set.add(1, 2, 3));
+        assertTrue(set.add(3, 2, 1));
+        assertTrue(set.add(-1, -2, -3));
+        assertEquals(3, set.size());
+
+        assertTrue(set.contains(1, 2, 3));
+        assertTrue(set.contains(-1, -2, -3));
+        assertFalse(set.contains(1, 2, 4));
+        assertFalse(set.contains(-1, 2, 3));
+
+        set.clear();
+        assertEquals(0, set.size());
+        assertFalse(set.contains(1, 2, 3));
+        assertTrue(set.add(1, 2, 3));
+    }
+
+    @Test
+    public void matchesReferenceAcrossRehashes() {
+        // starts with 16 entries, i.e., the table is rehashed repeatedly
+        final VoxelHashSet set = new VoxelHashSet(1);
+        final Set<String> reference = new HashSet<String>();
+        final Random random = new Random(5);
+
+        for (int i = 0; i < 50000; i++) {
+            // small range, i.e., many duplicates
+            final int x = random.nextInt(64) - 32;
+            final int y = random.nextInt(64) - 32;
+            final int z = random.nextInt(16) - 8;
+
+            assertEquals(reference.add(x + " " + y + " " + z), set.add(x, y, z));
+            assertEquals(reference.size(), set.size());
+        }
+
+        for (int x = -40; x < 40; x++) {
+            for (int y = -40; y < 40; y++) {
+                for (int z = -10; z < 10; z++) {
+                    assertEquals(reference.contains(x + " " + y + " " + z),
+                            set.contains(x, y, z));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void coordinateRange() {
+        final VoxelHashSet set = new VoxelHashSet();
+        final int min = VoxelHashSet.MIN_COORD;
+        final int max = VoxelHashSet.MAX_COORD;
+
+        assertEquals(-(1 << 20), min);
+        assertEquals((1 << 20) - 1, max);
+
+        // extreme coordinates must not collide
+        assertTrue(set.add(min, min, min));
+        assertTrue(set.add(max, max, max));
+        assertTrue(set.add(min, max, min));
+        assertTrue(set.add(max, min, max));
+        assertEquals(4, set.size());
+        assertTrue(set.contains(min, max, min));
+
+        assertFalse(set.contains(max + 1, 0, 0));
+        assertFalse(set.contains(0, min - 1, 0));
+
+        for (int[] p : new int[][]{{max + 1, 0, 0}, {0, min - 1, 0}, {0, 0, max + 1}}) {
+            try {
+                set.add(p[0], p[1], p[2]);
+                fail("coordinate out of range accepted");
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+        assertEquals(4, set.size());
+    }
+
+    @Test
+    public void capacity() {
+        assertEquals(16, VoxelHashSet.capacity(0));
+        assertEquals(16, VoxelHashSet.capacity(8));
+        assertEquals(32, VoxelHashSet.capacity(9));
+        assertEquals(1 << 21, VoxelHashSet.capacity(1 << 20));
+        assertEquals(1 << 22, VoxelHashSet.capacity((1 << 20) + 1));
+    }
+
+    @Test
+    public void renderCountsDuplicates() throws IOException {
+        final File f = File.createTempFile("duplicates", ".swc");
+
+        try {
+            final Writer w = new FileWriter(f);
+            try {
+                w.write("# samples 2 and 4 are rounded to voxels of 1 and 3\n");
+                w.write("1 1 10 10 10 1 -1\n");
+                w.write("2 3 10.2 9.9 10.4 1 1\n");
+                w.write("3 3 14 10 10 1 2\n");
+                w.write("4 3 13.6 10.3 9.8 1 3\n");
+                w.write("5 3 20 12 10 1 4\n");
+            } finally {
+                w.close();
+            }
+
+            final SWCImportStatistics stats = new SWCImportStatistics();
+            SWC2Image.renderSWCFile(f, null, null, stats);
+
+            assertEquals(5, stats.getNrSamples());
+            assertEquals(3, stats.getNrVoxels());
+            assertEquals(2, stats.getNrDuplicates());
+        } finally {
+            f.delete();
+        }
+    }
+}